@@ -0,0 +1,69 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * The {@link AuthenticatedEncryption} implementations; "chacha20-poly1305-java" is the pure Java fallback used
+ * if the platform does not provide the cipher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthenticatedEncryptionBenchmark {
+    @Param({"aes-gcm", "chacha20-poly1305", "chacha20-poly1305-java"})
+    String encryption;
+    @Param({"16", "256", "4096"})
+    int size;
+    @Param({"" + AuthenticatedEncryption.STRENGTH_HIGH, "" + AuthenticatedEncryption.STRENGTH_VERY_HIGH})
+    int keyStrength;
+
+    private AuthenticatedEncryption authenticatedEncryption;
+    private byte[] key;
+    private byte[] content;
+    private byte[] associatedData;
+    private byte[] encrypted;
+
+    @Setup
+    public void setup() throws Exception {
+        if (encryption.equals("aes-gcm")) {
+            authenticatedEncryption = new AesGcmEncryption();
+        } else {
+            authenticatedEncryption = new ChaCha20Poly1305Encryption(new SecureRandom(), null, encryption.equals("chacha20-poly1305"));
+        }
+        key = Bytes.random(authenticatedEncryption.byteSizeLength(keyStrength)).array();
+        content = BenchmarkData.randomContent(size);
+        associatedData = Bytes.from(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT).array();
+        encrypted = authenticatedEncryption.encrypt(key, content, associatedData);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws AuthenticatedEncryptionException {
+        return authenticatedEncryption.encrypt(key, content, associatedData);
+    }
+
+    /**
+     * Decryption wipes the key, so this includes copying it
+     */
+    @Benchmark
+    public byte[] decrypt() throws AuthenticatedEncryptionException {
+        return authenticatedEncryption.decrypt(Bytes.from(key).array(), encrypted, associatedData);
+    }
+}
@@ -0,0 +1,80 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a screen's worth of string values: one {@link SecureSharedPreferences#getString(String, String)} per key
+ * compared to a single {@link SecureSharedPreferences#getStrings(java.util.Collection)}, decrypted on the calling
+ * thread only or in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchReadBenchmark {
+    @Param({"10", "100"})
+    int keyCount;
+    @Param({"calling-thread", "default"})
+    String executor;
+
+    private SecureSharedPreferences preferences;
+    private List<String> keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Armadillo.Builder builder = Armadillo.create(new SharedPreferencesStorage(new InMemorySharedPreferences(), new Base64TextEncoding()))
+                .encryptionFingerprint(new byte[16])
+                .password("password".toCharArray());
+        if (executor.equals("calling-thread")) {
+            builder.executor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+        preferences = builder.build();
+
+        keys = new ArrayList<>(keyCount);
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < keyCount; i++) {
+            keys.add("key" + i);
+            editor.putString("key" + i, "value-" + i + "-of-a-typical-length");
+        }
+        editor.commit();
+    }
+
+    @Benchmark
+    public void singleGets(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(preferences.getString(key, null));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> getStrings() {
+        return preferences.getStrings(keys);
+    }
+}
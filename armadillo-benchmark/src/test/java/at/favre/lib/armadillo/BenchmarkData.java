@@ -0,0 +1,36 @@
+package at.favre.lib.armadillo;
+
+import java.nio.charset.Charset;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * Content used by the benchmarks
+ */
+final class BenchmarkData {
+    private static final String TEXT = "{\"id\":4711,\"name\":\"armadillo\",\"tags\":[\"secure\",\"shared\",\"preferences\"],\"enabled\":true}";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param length of the content
+     * @return json like content, compressible like typical values
+     */
+    static byte[] compressibleContent(int length) {
+        final byte[] text = TEXT.getBytes(Charset.forName("UTF-8"));
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = text[i % text.length];
+        }
+        return content;
+    }
+
+    /**
+     * @param length of the content
+     * @return random, incompressible content
+     */
+    static byte[] randomContent(int length) {
+        return Bytes.random(length).array();
+    }
+}
@@ -0,0 +1,50 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GzipCompressor} with typical, compressible values
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressorBenchmark {
+    @Param({"16", "256", "4096", "65536"})
+    int size;
+
+    private Compressor compressor;
+    private byte[] content;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        compressor = new GzipCompressor();
+        content = BenchmarkData.compressibleContent(size);
+        compressed = compressor.compress(content);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return compressor.compress(content);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return compressor.decompress(compressed);
+    }
+}
@@ -0,0 +1,113 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * The whole {@link DefaultEncryptionProtocol} pipeline (key derivation, compression, authenticated encryption
+ * and obfuscation) for a single value. The password is stretched once per store, so with a password this
+ * only measures the additional key derivation input. Run with {@code -prof gc} to see the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionProtocolBenchmark {
+    /**
+     * More than the 512 entries of the content key memo of {@link DefaultEncryptionProtocol}
+     */
+    private static final int CONTENT_KEY_COUNT = 1024;
+
+    @Param({"16", "256", "4096"})
+    int valueSize;
+    @Param({"" + AuthenticatedEncryption.STRENGTH_HIGH, "" + AuthenticatedEncryption.STRENGTH_VERY_HIGH})
+    int keyStrength;
+    @Param({"false", "true"})
+    boolean compress;
+    @Param({"false", "true"})
+    boolean password;
+    @Param({"" + EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, "" + EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY})
+    int keySchedule;
+    @Param({"aes-ctr", "hkdf-xor"})
+    String obfuscator;
+
+    private EncryptionProtocol protocol;
+    private char[] passwordChars;
+    private String contentKey;
+    private byte[] content;
+    private byte[] encrypted;
+    private String[] originalContentKeys;
+    private int originalContentKeyIndex;
+
+    @Setup
+    public void setup() throws Exception {
+        EncryptionProtocolConfig config = EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT)
+                .keySchedule(keySchedule)
+                .keyStrength(keyStrength)
+                .authenticatedEncryption(new AesGcmEncryption())
+                .keyStretchingFunction(new BcryptKeyStretcher())
+                .dataObfuscatorFactory(obfuscator.equals("hkdf-xor") ? new HkdfXorObfuscator.Factory() : new AesCtrObfuscator.Factory())
+                .compressor(compress ? new GzipCompressor() : new DisabledCompressor())
+                .build();
+
+        protocol = new DefaultEncryptionProtocol.Factory(config, Collections.<EncryptionProtocolConfig>emptyList(),
+                new EncryptionFingerprint.Default(Bytes.random(16).array()),
+                new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH), new SecureRandom())
+                .create(Bytes.random(32).array());
+
+        passwordChars = password ? "benchmark-password".toCharArray() : null;
+        contentKey = protocol.deriveContentKey("key");
+        content = BenchmarkData.compressibleContent(valueSize);
+        //also stretches the password and derives the store key, so this is not part of the measurement
+        encrypted = encrypt();
+
+        originalContentKeys = new String[CONTENT_KEY_COUNT];
+        for (int i = 0; i < originalContentKeys.length; i++) {
+            originalContentKeys[i] = "key" + i;
+        }
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws EncryptionProtocolException {
+        return protocol.encrypt(contentKey, passwordChars, content);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws EncryptionProtocolException {
+        return protocol.decrypt(contentKey, passwordChars, encrypted);
+    }
+
+    /**
+     * Cycles through more keys than the content key memo holds, so every call computes the digest
+     */
+    @Benchmark
+    public String deriveContentKey() {
+        originalContentKeyIndex = (originalContentKeyIndex + 1) % originalContentKeys.length;
+        return protocol.deriveContentKey(originalContentKeys[originalContentKeyIndex]);
+    }
+
+    /**
+     * Always the same key, so this only measures the lookup in the content key memo
+     */
+    @Benchmark
+    public String deriveContentKeyMemoized() {
+        return protocol.deriveContentKey("key");
+    }
+}
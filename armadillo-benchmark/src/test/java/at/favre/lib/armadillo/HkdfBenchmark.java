@@ -0,0 +1,93 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.HKDF;
+
+/**
+ * Cost of a single HKDF derivation as done for every content key, content encryption key and password, comparing
+ * new {@link javax.crypto.Mac} instances per derivation (the HKDF library, as used before) with the {@link HkdfEngine}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HkdfBenchmark {
+    @Param({"library", "engine"})
+    String implementation;
+
+    private byte[] salt;
+    private byte[] ikm;
+    private byte[] info;
+    private HkdfEngine hmacSha512;
+    private HkdfEngine hmacSha256;
+    private byte[] storeKey;
+    private HkdfEngine.Expander storeKeyExpander;
+
+    @Setup
+    public void setup() {
+        salt = Bytes.random(32).array();
+        ikm = Bytes.random(64).array();
+        info = "DefaultEncryptionProtocol".getBytes();
+        hmacSha512 = new HkdfEngine(HkdfEngine.HMAC_SHA512, salt);
+        hmacSha256 = new HkdfEngine(HkdfEngine.HMAC_SHA256, null);
+        storeKey = hmacSha512.extract(ikm);
+        storeKeyExpander = hmacSha512.expander(Bytes.from(storeKey).array());
+    }
+
+    /**
+     * Extract and expand with HmacSha512 to a 32 byte key, e.g. the content encryption key
+     */
+    @Benchmark
+    public byte[] extractAndExpand() {
+        if (implementation.equals("library")) {
+            return HKDF.fromHmacSha512().extractAndExpand(salt, ikm, info, 32);
+        }
+        return hmacSha512.extractAndExpand(ikm, info, 32);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] extractAndExpandConcurrent() {
+        return extractAndExpand();
+    }
+
+    /**
+     * Only expand with HmacSha256, e.g. after bcrypt
+     */
+    @Benchmark
+    public byte[] expand() {
+        if (implementation.equals("library")) {
+            return HKDF.fromHmacSha256().expand(ikm, info, 32);
+        }
+        return hmacSha256.expand(ikm, info, 32);
+    }
+
+    /**
+     * Expand of a fixed store key with HmacSha512 to a 32 byte key, the per entry derivation of
+     * {@link EncryptionProtocolConfig#KEY_SCHEDULE_STORE_KEY}
+     */
+    @Benchmark
+    public byte[] expandStoreKey() {
+        if (implementation.equals("library")) {
+            return HKDF.fromHmacSha512().expand(storeKey, info, 32);
+        }
+        return storeKeyExpander.expand(info, 32);
+    }
+}
@@ -0,0 +1,157 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A minimal {@link SharedPreferences} stand-in for the plain JVM keeping everything in memory. Only strings and
+ * string sets are needed by {@link SharedPreferencesStorage}; listeners are not supported.
+ */
+final class InMemorySharedPreferences implements SharedPreferences {
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final Object value = values.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        final Object value = values.get(key);
+        //only putStringSet() stores sets
+        return value instanceof Set ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        throw new UnsupportedOperationException();
+    }
+
+    private final class InMemoryEditor implements Editor {
+        private final Map<String, Object> puts = new HashMap<>();
+        private final List<String> removes = new ArrayList<>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            if (value == null) {
+                return remove(key);
+            }
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            if (values == null) {
+                return remove(key);
+            }
+            puts.put(key, new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Editor remove(String key) {
+            puts.remove(key);
+            removes.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (values) {
+                if (clear) {
+                    values.clear();
+                }
+                for (String key : removes) {
+                    values.remove(key);
+                }
+                values.putAll(puts);
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * Every {@link KeyStretchingFunction} with its default cost; this is done once per store if a password is set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class KeyStretchingBenchmark {
+    @Param({"bcrypt", "pbkdf2", "fast"})
+    String function;
+
+    private KeyStretchingFunction keyStretchingFunction;
+    private byte[] salt;
+    private char[] password;
+
+    @Setup
+    public void setup() {
+        if (function.equals("bcrypt")) {
+            keyStretchingFunction = new BcryptKeyStretcher();
+        } else if (function.equals("pbkdf2")) {
+            keyStretchingFunction = new PBKDF2KeyStretcher();
+        } else {
+            keyStretchingFunction = new FastKeyStretcher();
+        }
+        salt = Bytes.random(32).array();
+        password = "benchmark-password".toCharArray();
+    }
+
+    @Benchmark
+    public byte[] stretch() {
+        return keyStretchingFunction.stretch(salt, password, 32);
+    }
+}
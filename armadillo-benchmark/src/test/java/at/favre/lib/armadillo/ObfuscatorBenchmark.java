@@ -0,0 +1,53 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * The {@link DataObfuscator} implementations of the protocol versions, obfuscating in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObfuscatorBenchmark {
+    @Param({"hkdf-xor", "aes-ctr"})
+    String obfuscator;
+    @Param({"100", "4096", "1048576"})
+    int size;
+
+    private DataObfuscator.Factory factory;
+    private byte[] key;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        factory = obfuscator.equals("aes-ctr") ? new AesCtrObfuscator.Factory() : new HkdfXorObfuscator.Factory();
+        key = Bytes.random(16 + 32).array();
+        content = BenchmarkData.randomContent(size);
+    }
+
+    /**
+     * Creates the obfuscator for every operation, as the protocol does with the content key
+     */
+    @Benchmark
+    public byte[] obfuscate() {
+        factory.create(Bytes.from(key).array()).obfuscate(content);
+        return content;
+    }
+}
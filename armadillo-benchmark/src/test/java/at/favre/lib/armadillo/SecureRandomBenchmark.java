@@ -0,0 +1,105 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * Concurrent writers drawing their randomness from one shared {@link SecureRandom}, directly or through a
+ * {@link BufferedSecureRandom}: only the draws of one encryption (16 byte content salt, 12 byte iv) and the
+ * whole encryption of a small value, each with 1, 4 and 16 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureRandomBenchmark {
+    @Param({"direct", "buffered"})
+    String source;
+
+    private SecureRandom secureRandom;
+    private EncryptionProtocol protocol;
+    private String contentKey;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        secureRandom = source.equals("buffered") ? new BufferedSecureRandom(new SecureRandom()) : new SecureRandom();
+
+        EncryptionProtocolConfig config = EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING)
+                .authenticatedEncryption(new AesGcmEncryption(secureRandom))
+                .keyStretchingFunction(new FastKeyStretcher())
+                .dataObfuscatorFactory(new AesCtrObfuscator.Factory())
+                .compressor(new DisabledCompressor())
+                .build();
+
+        protocol = new DefaultEncryptionProtocol.Factory(config, Collections.<EncryptionProtocolConfig>emptyList(),
+                new EncryptionFingerprint.Default(Bytes.random(16).array()),
+                new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH), secureRandom)
+                .create(Bytes.random(32).array());
+        contentKey = protocol.deriveContentKey("key");
+        content = BenchmarkData.compressibleContent(64);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] saltAndIv1Thread() {
+        return saltAndIv();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] saltAndIv4Threads() {
+        return saltAndIv();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] saltAndIv16Threads() {
+        return saltAndIv();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] encrypt1Thread() throws EncryptionProtocolException {
+        return protocol.encrypt(contentKey, content);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] encrypt4Threads() throws EncryptionProtocolException {
+        return protocol.encrypt(contentKey, content);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] encrypt16Threads() throws EncryptionProtocolException {
+        return protocol.encrypt(contentKey, content);
+    }
+
+    private byte[] saltAndIv() {
+        final byte[] salt = new byte[16];
+        final byte[] iv = new byte[12];
+        secureRandom.nextBytes(salt);
+        secureRandom.nextBytes(iv);
+        return iv;
+    }
+}
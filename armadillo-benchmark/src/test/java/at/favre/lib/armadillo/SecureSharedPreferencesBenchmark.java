@@ -0,0 +1,121 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and committing a single value of a store with given count of keys, for every {@link KeyValueStorage}
+ * backend and content layout (per entry, buckets or single blob).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureSharedPreferencesBenchmark {
+    @Param({"shared-preferences-base64", "shared-preferences-base85", "in-memory", "log-file", "mapped-file"})
+    String storage;
+    @Param({"per-entry", "buckets-16", "single-blob"})
+    String layout;
+    @Param({"10", "1000", "10000"})
+    int keyCount;
+
+    private File directory;
+    private KeyValueStorage keyValueStorage;
+    private SecureSharedPreferences preferences;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("armadillo-benchmark").toFile();
+        keyValueStorage = createStorage();
+
+        Armadillo.Builder builder = Armadillo.create(keyValueStorage).encryptionFingerprint(new byte[16]);
+        if (layout.equals("buckets-16")) {
+            builder.encryptInBuckets(16);
+        } else if (layout.equals("single-blob")) {
+            builder.encryptAsSingleBlob();
+        }
+        preferences = builder.build();
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < keyCount; i++) {
+            editor.putString(key(i), value(i));
+        }
+        editor.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (keyValueStorage instanceof LogFileStorage) {
+            ((LogFileStorage) keyValueStorage).close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory.toPath());
+    }
+
+    @Benchmark
+    public String getString() {
+        return preferences.getString(key(nextIndex()), null);
+    }
+
+    @Benchmark
+    public boolean putStringCommit() {
+        int index = nextIndex();
+        return preferences.edit().putString(key(index), value(index + counter)).commit();
+    }
+
+    private KeyValueStorage createStorage() throws IOException {
+        switch (storage) {
+            case "shared-preferences-base64":
+                return new SharedPreferencesStorage(new InMemorySharedPreferences(), new Base64TextEncoding());
+            case "shared-preferences-base85":
+                return new SharedPreferencesStorage(new InMemorySharedPreferences(), new Base85TextEncoding());
+            case "in-memory":
+                return new InMemoryStorage();
+            case "log-file":
+                return new LogFileStorage(new File(directory, "log"));
+            case "mapped-file":
+                return new MappedFileStorage(new File(directory, "mapped"));
+            default:
+                throw new IllegalArgumentException("unknown storage " + storage);
+        }
+    }
+
+    private int nextIndex() {
+        counter = (counter + 1) % keyCount;
+        return counter;
+    }
+
+    private static String key(int index) {
+        return "key" + index;
+    }
+
+    private static String value(int index) {
+        return "value-" + index + "-of-a-typical-length";
+    }
+}
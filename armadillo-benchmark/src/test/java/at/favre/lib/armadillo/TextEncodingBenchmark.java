@@ -0,0 +1,52 @@
+package at.favre.lib.armadillo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link TextEncoding} implementations used to persist encrypted values in the shared preferences
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextEncodingBenchmark {
+    @Param({"base64", "base85"})
+    String encoding;
+    @Param({"64", "512", "4096"})
+    int size;
+
+    private TextEncoding textEncoding;
+    private byte[] content;
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        textEncoding = encoding.equals("base85") ? new Base85TextEncoding() : new Base64TextEncoding();
+        content = BenchmarkData.randomContent(size);
+        encoded = textEncoding.encode(content);
+    }
+
+    @Benchmark
+    public String encode() {
+        return textEncoding.encode(content);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return textEncoding.decode(encoded);
+    }
+}
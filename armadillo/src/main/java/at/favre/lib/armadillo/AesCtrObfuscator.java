@@ -0,0 +1,114 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An obfuscator xoring the data with an AES-CTR key stream. The AES key and the initial counter block are
+ * derived from the obfuscator key with SHA-256. The xor is done in place by the cipher itself, which uses
+ * the hardware AES instructions and wide xor operations of the platform where available, so this is a lot
+ * faster than {@link HkdfXorObfuscator} which needs two HMAC-SHA512 invocations per 128 byte.
+ * <p>
+ * As every obfuscator this does not add any security, the key stream only depends on the given key.
+ * This is the default obfuscator of protocol versions 2 and 3.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public final class AesCtrObfuscator implements DataObfuscator {
+    private static final String ALGORITHM = "AES/CTR/NoPadding";
+    private static final ThreadLocal<Cipher> CIPHER_HOLDER = new ThreadLocal<>();
+    private static final ThreadLocal<MessageDigest> DIGEST_HOLDER = new ThreadLocal<>();
+
+    private final byte[] key;
+
+    AesCtrObfuscator(byte[] key) {
+        this.key = key;
+    }
+
+    @Override
+    public void obfuscate(@NonNull byte[] original) {
+        Objects.requireNonNull(original);
+        obfuscate(original, 0, original.length);
+    }
+
+    @Override
+    public void obfuscate(@NonNull byte[] original, int offset, int length) {
+        Objects.requireNonNull(original);
+        Objects.requireNonNull(this.key);
+        if (offset < 0 || length < 0 || offset + length > original.length) {
+            throw new IndexOutOfBoundsException("invalid range " + offset + "+" + length + " for length " + original.length);
+        }
+        if (length == 0) {
+            return;
+        }
+
+        final byte[] keyMaterial = getDigest().digest(key);
+        try {
+            final Cipher cipher = getCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyMaterial, 0, 16, "AES"),
+                    new IvParameterSpec(keyMaterial, 16, 16));
+            cipher.doFinal(original, offset, length, original, offset);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not obfuscate", e);
+        } finally {
+            Arrays.fill(keyMaterial, (byte) 0);
+        }
+    }
+
+    @Override
+    public void deobfuscate(@NonNull byte[] obfuscated) {
+        obfuscate(obfuscated);
+    }
+
+    @Override
+    public void deobfuscate(@NonNull byte[] obfuscated, int offset, int length) {
+        obfuscate(obfuscated, offset, length);
+    }
+
+    @Override
+    public void clearKey() {
+        Arrays.fill(key, (byte) 0);
+    }
+
+    private static Cipher getCipher() {
+        Cipher cipher = CIPHER_HOLDER.get();
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not get cipher instance", e);
+            }
+            CIPHER_HOLDER.set(cipher);
+        }
+        return cipher;
+    }
+
+    private static MessageDigest getDigest() {
+        MessageDigest digest = DIGEST_HOLDER.get();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not get digest instance", e);
+            }
+            DIGEST_HOLDER.set(digest);
+        }
+        return digest;
+    }
+
+    public static final class Factory implements DataObfuscator.Factory {
+
+        @Override
+        public DataObfuscator create(byte[] key) {
+            return new AesCtrObfuscator(key);
+        }
+    }
+}
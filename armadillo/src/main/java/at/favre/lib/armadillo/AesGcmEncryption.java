@@ -2,16 +2,14 @@ package at.favre.lib.armadillo;
 
 import android.support.annotation.Nullable;
 
-import java.nio.ByteBuffer;
 import java.security.Provider;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-import at.favre.lib.bytes.Bytes;
-
 /**
  * Implements AES (Advanced Encryption Standard) with Galois/Counter Mode (GCM), which is a mode of
  * operation for symmetric key cryptographic block ciphers that has been widely adopted because of
@@ -27,6 +25,9 @@ import at.favre.lib.bytes.Bytes;
  * x = IV length as byte
  * y = IV bytes
  * z = content bytes
+ * <p>
+ * This class is thread safe: every thread uses its own lazily created {@link Cipher} instance, so
+ * concurrent calls do not need to be serialized.
  *
  * @author Patrick Favre-Bulle
  * @since 18.12.2017
@@ -39,7 +40,7 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
 
     private final SecureRandom secureRandom;
     private final Provider provider;
-    private Cipher cipher;
+    private final ThreadLocal<Cipher> cipherHolder = new ThreadLocal<>();
 
     public AesGcmEncryption() {
         this(new SecureRandom(), null);
@@ -56,14 +57,41 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
 
     @Override
     public byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        return encrypt(rawEncryptionKey, rawData, associatedData, 0);
+    }
+
+    /**
+     * Writes the iv and the output of the cipher directly into the returned array (no intermediate copies).
+     */
+    @Override
+    public byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
         if (rawEncryptionKey.length < 16) {
             throw new IllegalArgumentException("key length must be longer than 16 byte");
         }
 
-        try {
-            byte[] iv = new byte[IV_LENGTH_BYTE];
-            secureRandom.nextBytes(iv);
+        byte[] iv = new byte[IV_LENGTH_BYTE];
+        secureRandom.nextBytes(iv);
+
+        final byte[] out = encrypt(rawEncryptionKey, iv, rawData, associatedData, headerLength + 1 + iv.length);
+        out[headerLength] = (byte) iv.length;
+        System.arraycopy(iv, 0, out, headerLength + 1, iv.length);
+        return out;
+    }
+
+    @Override
+    public byte[] encryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
+        if (rawEncryptionKey.length < 16) {
+            throw new IllegalArgumentException("key length must be longer than 16 byte");
+        }
+        if (nonce.length != IV_LENGTH_BYTE) {
+            throw new IllegalArgumentException("nonce length must be " + IV_LENGTH_BYTE + " byte");
+        }
+        return encrypt(rawEncryptionKey, nonce, rawData, associatedData, headerLength);
+    }
 
+    private byte[] encrypt(byte[] rawEncryptionKey, byte[] iv, byte[] rawData, @Nullable byte[] associatedData,
+                           int contentOffset) throws AuthenticatedEncryptionException {
+        try {
             final Cipher cipher = getCipher();
             cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(rawEncryptionKey, "AES"), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
 
@@ -71,13 +99,12 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
                 cipher.updateAAD(associatedData);
             }
 
-            byte[] encrypted = cipher.doFinal(rawData);
-
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1 + iv.length + encrypted.length);
-            byteBuffer.put((byte) iv.length);
-            byteBuffer.put(iv);
-            byteBuffer.put(encrypted);
-            return byteBuffer.array();
+            byte[] out = new byte[contentOffset + cipher.getOutputSize(rawData.length)];
+            final int written = cipher.doFinal(rawData, 0, rawData.length, out, contentOffset);
+            if (contentOffset + written != out.length) {
+                out = Arrays.copyOf(out, contentOffset + written);
+            }
+            return out;
         } catch (Exception e) {
             throw new AuthenticatedEncryptionException("could not encrypt", e);
         }
@@ -86,24 +113,36 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
     @Override
     public byte[] decrypt(byte[] rawEncryptionKey, byte[] encryptedData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
         try {
-            ByteBuffer byteBuffer = ByteBuffer.wrap(encryptedData);
+            final int ivLength = encryptedData[0];
+            if (ivLength <= 0 || 1 + ivLength > encryptedData.length) {
+                throw new IllegalArgumentException("invalid iv length " + ivLength);
+            }
 
-            int ivLength = byteBuffer.get();
-            byte[] iv = new byte[ivLength];
-            byteBuffer.get(iv);
-            byte[] encrypted = new byte[byteBuffer.remaining()];
-            byteBuffer.get(encrypted);
+            return decrypt(rawEncryptionKey, new GCMParameterSpec(TAG_LENGTH_BIT, encryptedData, 1, ivLength),
+                    encryptedData, 1 + ivLength, associatedData);
+        } catch (AuthenticatedEncryptionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AuthenticatedEncryptionException("could not decrypt", e);
+        }
+    }
 
+    @Override
+    public byte[] decryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] encryptedData, int offset, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        return decrypt(rawEncryptionKey, new GCMParameterSpec(TAG_LENGTH_BIT, nonce), encryptedData, offset, associatedData);
+    }
+
+    private byte[] decrypt(byte[] rawEncryptionKey, GCMParameterSpec parameterSpec, byte[] encryptedData, int offset,
+                           @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        try {
             final Cipher cipher = getCipher();
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(rawEncryptionKey, "AES"), new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(rawEncryptionKey, "AES"), parameterSpec);
             if (associatedData != null) {
                 cipher.updateAAD(associatedData);
             }
-            byte[] decrypted = cipher.doFinal(encrypted);
+            byte[] decrypted = cipher.doFinal(encryptedData, offset, encryptedData.length - offset);
 
-            Bytes.wrap(iv).mutable().secureWipe();
-            Bytes.wrap(rawEncryptionKey).mutable().secureWipe();
-            Bytes.wrap(encrypted).mutable().secureWipe();
+            Arrays.fill(rawEncryptionKey, (byte) 0);
 
             return decrypted;
         } catch (Exception e) {
@@ -111,12 +150,25 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
         }
     }
 
+    @Override
+    public int nonceLength() {
+        return IV_LENGTH_BYTE;
+    }
+
     @Override
     public int byteSizeLength(@KeyStrength int keyStrengthType) {
         return keyStrengthType == STRENGTH_HIGH ? 16 : 32;
     }
 
+    /**
+     * Gets the cipher instance confined to the current thread. A cipher is stateful between init and
+     * doFinal so it must never be shared between threads; provider lookup however is expensive, so
+     * every thread keeps its own instance.
+     *
+     * @return cipher only used by the current thread
+     */
     private Cipher getCipher() {
+        Cipher cipher = cipherHolder.get();
         if (cipher == null) {
             try {
                 if (provider != null) {
@@ -127,6 +179,7 @@ final class AesGcmEncryption implements AuthenticatedEncryption {
             } catch (Exception e) {
                 throw new IllegalStateException("could not get cipher instance", e);
             }
+            cipherHolder.set(cipher);
         }
         return cipher;
     }
@@ -6,7 +6,11 @@ import android.support.annotation.Nullable;
 
 import java.security.Provider;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import at.favre.lib.bytes.Bytes;
 
@@ -30,8 +34,20 @@ public final class Armadillo {
         return new Builder(context, prefName);
     }
 
+    /**
+     * Creates a builder persisting the encrypted data in a custom storage backend instead of
+     * Android's {@link SharedPreferences}.
+     *
+     * @param storage backend to use
+     * @return builder
+     */
+    public static Builder create(KeyValueStorage storage) {
+        return new Builder(Objects.requireNonNull(storage));
+    }
+
     public static final class Builder {
 
+        private final KeyValueStorage storage;
         private final SharedPreferences sharedPreferences;
         private final Context context;
         private final String prefName;
@@ -41,24 +57,41 @@ public final class Armadillo {
         @AuthenticatedEncryption.KeyStrength
         private int keyStrength = AuthenticatedEncryption.STRENGTH_HIGH;
         private AuthenticatedEncryption authenticatedEncryption;
+        private boolean autoSelectSymmetricEncryption;
+        private boolean counterBasedNonce;
         private KeyStretchingFunction keyStretchingFunction = new BcryptKeyStretcher();
-        private DataObfuscator.Factory dataObfuscatorFactory = new HkdfXorObfuscator.Factory();
+        private KeyStretchingFunction.Factory calibratedKeyStretchingFactory;
+        private long calibrationTargetNanos;
+        private DataObfuscator.Factory dataObfuscatorFactory;
         private SecureRandom secureRandom = new SecureRandom();
         private RecoveryPolicy recoveryPolicy = new RecoveryPolicy.Default(true, false);
         private char[] password;
         private Provider provider;
-        private int cryptoProtocolVersion = 0;
+        private int cryptoProtocolVersion = EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT;
+        private Integer cryptoProtocolKeySchedule;
+        private final List<EncryptionProtocolConfig> additionalDecryptionConfigs = new ArrayList<>();
         private Compressor compressor = new DisabledCompressor();
+        private int valueCacheMaxEntries;
+        private long valueCacheIdleTimeoutNanos;
+        private Executor executor;
+        private ContentStore.Factory contentStoreFactory = new PerEntryContentStore.Factory();
+        private TextEncoding textEncoding = new Base64TextEncoding();
+        private MetricsListener metricsListener = MetricsListener.NONE;
+
+        private Builder(KeyValueStorage storage) {
+            this(storage, null, null, null);
+        }
 
         private Builder(SharedPreferences sharedPreferences) {
-            this(sharedPreferences, null, null);
+            this(null, sharedPreferences, null, null);
         }
 
         private Builder(Context context, String prefName) {
-            this(null, context, prefName);
+            this(null, null, context, prefName);
         }
 
-        private Builder(SharedPreferences sharedPreferences, Context context, String prefName) {
+        private Builder(KeyValueStorage storage, SharedPreferences sharedPreferences, Context context, String prefName) {
+            this.storage = storage;
             this.sharedPreferences = sharedPreferences;
             this.context = context;
             this.prefName = prefName;
@@ -167,6 +200,39 @@ public final class Armadillo {
             return this;
         }
 
+        /**
+         * Let the store choose between {@link AesGcmEncryption} and {@link ChaCha20Poly1305Encryption}: when a new
+         * store is created, both are measured once and the faster one is persisted in the store's metadata and
+         * used from then on. On devices without AES instructions ChaCha20-Poly1305 is usually considerably faster.
+         * <p>
+         * Existing stores created without this option keep using AES-GCM. Cannot be combined with
+         * {@link #symmetricEncryption(AuthenticatedEncryption)}.
+         *
+         * @return builder
+         */
+        public Builder autoSelectSymmetricEncryption() {
+            this.autoSelectSymmetricEncryption = true;
+            return this;
+        }
+
+        /**
+         * Encrypt with nonces derived from a per-store counter instead of random ones. Every encryption then saves the
+         * random number generation of the nonce and 12 bytes of storage. The counter is reserved in blocks which are
+         * persisted in the store's metadata, so values are never reused, even across restarts. Since every entry is
+         * encrypted with its own key derived from a random salt, the counter is an additional guarantee that a key and
+         * nonce pair is never reused.
+         * <p>
+         * Content encrypted with a counter based nonce can only be read by versions supporting it, but can always be
+         * read if this option is disabled again. Requires an {@link AuthenticatedEncryption} with
+         * {@link AuthenticatedEncryption#nonceLength()} of at least 8 bytes, like the built-in ones.
+         *
+         * @return builder
+         */
+        public Builder counterBasedNonce() {
+            this.counterBasedNonce = true;
+            return this;
+        }
+
         /**
          * Set a different key derivation function for provided password. Per default {@link BcryptKeyStretcher}
          * is used. There is also a implementation PBKDF2 (see {@link PBKDF2KeyStretcher}. If you want
@@ -183,9 +249,48 @@ public final class Armadillo {
             return this;
         }
 
+        /**
+         * Same as {@link #calibrateKeyStretching(KeyStretchingFunction.Factory, long, TimeUnit)} with
+         * {@link BcryptKeyStretcher}.
+         *
+         * @param targetDuration how long stretching the password should take on this device (e.g. 100ms)
+         * @param unit           unit of the duration
+         * @return builder
+         */
+        public Builder calibrateKeyStretching(long targetDuration, TimeUnit unit) {
+            return calibrateKeyStretching(new BcryptKeyStretcher.Factory(), targetDuration, unit);
+        }
+
+        /**
+         * Instead of a fixed cost factor, calibrate the cost of the key stretching function to the device: the first
+         * time a password is used with a new store, the function is measured (which takes about the target duration)
+         * and the cost which takes about the target duration is persisted with the store. This way fast devices
+         * get a stronger protection, while slow devices are not blocked for seconds.
+         * <p>
+         * Stores which were created before this option was enabled keep using {@link #keyStretchingFunction(KeyStretchingFunction)},
+         * so their content can still be decrypted. Do not change the factory for an existing store.
+         *
+         * @param factory        creating the key stretching function with a given cost
+         * @param targetDuration how long stretching the password should take on this device (e.g. 100ms)
+         * @param unit           unit of the duration
+         * @return builder
+         */
+        public Builder calibrateKeyStretching(KeyStretchingFunction.Factory factory, long targetDuration, TimeUnit unit) {
+            Objects.requireNonNull(factory);
+            Objects.requireNonNull(unit);
+            if (targetDuration <= 0) {
+                throw new IllegalArgumentException("target duration must be positive");
+            }
+            this.calibratedKeyStretchingFactory = factory;
+            this.calibrationTargetNanos = unit.toNanos(targetDuration);
+            return this;
+        }
+
         /**
          * Set your own data obfuscation implementation. Data obfuscation is used to disguise the
-         * persistence data format. See {@link HkdfXorObfuscator} for the default obfuscation technique.
+         * persistence data format. Per default, the protocol versions 2 and 3 use {@link AesCtrObfuscator} and older
+         * versions {@link HkdfXorObfuscator}. A custom implementation is used for all versions and the storage salt,
+         * so it cannot be changed for an existing store.
          * <p>
          * Only set if you know what you are doing.
          *
@@ -203,6 +308,9 @@ public final class Armadillo {
          * Per default a no-provider constructor is used for {@link SecureRandom} which
          * is the currently recommended way (https://tersesystems.com/blog/2015/12/17/the-right-way-to-use-securerandom/)
          * <p>
+         * Salts and ivs are drawn through a {@link BufferedSecureRandom} wrapping this instance, so concurrent
+         * writers do not contend on it.
+         * <p>
          * Only set if you know what you are doing.
          *
          * @param secureRandom implementation
@@ -230,7 +338,8 @@ public final class Armadillo {
          * <p>
          * The password is treated as weak and is therefore subject to be stretched by the provided key
          * derivation function with key stretching property (see {@link Builder#keyStretchingFunction(KeyStretchingFunction)}.
-         * A side-effect is that putting or reading content is expensive and should not be done on the main thread.
+         * The password is stretched once per store (with the storage scoped salt) and kept obfuscated in memory, so
+         * only the first put or read operation is expensive, which should still not be done on the main thread.
          *
          * @param password provided by user
          * @return builder
@@ -241,17 +350,63 @@ public final class Armadillo {
         }
 
         /**
-         * Per default the crypto/data format version is '0', but if the behavior is changed by e.g.
-         * setting a different key-stretching function or contentKey digest, a custom crypto protocol
-         * version can be set, to be able to migrate the data.
+         * Per default the crypto/data format version is '3' (see {@link EncryptionProtocolConfig#PROTOCOL_VERSION_DEFAULT}),
+         * but if the behavior is changed by e.g. setting a different key-stretching function or contentKey digest,
+         * a custom crypto protocol version can be set, to be able to migrate the data.
          * <p>
          * The protocol version will be used as additional associated data with the authenticated encryption.
+         * <p>
+         * <em>Note:</em> versions '0', '1', '2' and '3' are reserved for the built-in data formats, each always uses
+         * its own key schedule and obfuscation and can always be read. Custom versions use
+         * {@link EncryptionProtocolConfig#KEY_SCHEDULE_LEGACY}, the key schedule they were created with before this
+         * library introduced key schedules, so existing content stays readable. Be aware that the legacy key schedule
+         * does not use the password for the key; to use a newer key schedule for a new custom version, see
+         * {@link #cryptoProtocolVersion(int, int)}.
          *
          * @param version to persist with the data
          * @return builder
          */
         public Builder cryptoProtocolVersion(int version) {
             this.cryptoProtocolVersion = version;
+            this.cryptoProtocolKeySchedule = null;
+            return this;
+        }
+
+        /**
+         * Same as {@link #cryptoProtocolVersion(int)}, but the custom version uses the given key schedule instead of
+         * {@link EncryptionProtocolConfig#KEY_SCHEDULE_LEGACY}. Only use this for new versions: content created with
+         * a different key schedule can not be read anymore.
+         *
+         * @param version     to persist with the data; must not be one of the reserved versions '0' to '3'
+         * @param keySchedule see {@link EncryptionProtocolConfig#KEY_SCHEDULE_STORE_STRETCHING} and
+         *                    {@link EncryptionProtocolConfig#KEY_SCHEDULE_STORE_KEY}
+         * @return builder
+         */
+        public Builder cryptoProtocolVersion(int version, @EncryptionProtocolConfig.KeySchedule int keySchedule) {
+            if (EncryptionProtocolConfig.isReservedVersion(version)) {
+                throw new IllegalArgumentException("the key schedule of the reserved version " + version + " can not be changed");
+            }
+            this.cryptoProtocolVersion = version;
+            this.cryptoProtocolKeySchedule = keySchedule;
+            return this;
+        }
+
+        /**
+         * Adds a protocol config which will only be used to decrypt content persisted with its protocol
+         * version. Use this to be able to read data created with an older or different configuration.
+         * Unset components of the config will be taken from this builder's configuration.
+         * <p>
+         * Like with {@link #cryptoProtocolVersion(int)}, custom versions use {@link EncryptionProtocolConfig#KEY_SCHEDULE_LEGACY}
+         * and the obfuscation of the storage salt (see {@link #dataObfuscatorFactory(DataObfuscator.Factory)}) if not set otherwise.
+         * <p>
+         * Content of the built-in protocol versions '0', '1', '2' and '3' can always be read and does not need to be added.
+         *
+         * @param config used to decrypt content with the config's version
+         * @return builder
+         */
+        public Builder addAdditionalDecryptionProtocolConfig(EncryptionProtocolConfig config) {
+            Objects.requireNonNull(config);
+            this.additionalDecryptionConfigs.add(config);
             return this;
         }
 
@@ -275,28 +430,239 @@ public final class Armadillo {
             return this;
         }
 
+        /**
+         * Keeps the plaintext of the most recently read or written values in memory, so repeated reads
+         * of unchanged values do not need to run the whole decryption pipeline (which is especially
+         * expensive if a password with key stretching is used).
+         * <p>
+         * The cache is updated on {@link SharedPreferences.Editor#commit()} and {@link SharedPreferences.Editor#apply()},
+         * and entries are dropped on remove and clear. Be aware that changes made to the underlying
+         * {@link SharedPreferences} bypassing this instance will not be reflected.
+         *
+         * @param maxEntries max count of values held in memory; the least recently used will be evicted
+         * @return builder
+         */
+        public Builder cacheDecryptedValues(int maxEntries) {
+            return cacheDecryptedValues(maxEntries, 0, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Same as {@link #cacheDecryptedValues(int)}, but additionally wipes all cached plaintext if
+         * the store was not accessed during the given idle timeout, so that decrypted data does not
+         * stay on the heap forever.
+         *
+         * @param maxEntries  max count of values held in memory; the least recently used will be evicted
+         * @param idleTimeout after how long without access the cache will be wiped; 0 to disable
+         * @param unit        unit of the timeout
+         * @return builder
+         */
+        public Builder cacheDecryptedValues(int maxEntries, long idleTimeout, TimeUnit unit) {
+            Objects.requireNonNull(unit);
+            if (maxEntries <= 0 || idleTimeout < 0) {
+                throw new IllegalArgumentException("max entries must be positive and idle timeout must not be negative");
+            }
+            this.valueCacheMaxEntries = maxEntries;
+            this.valueCacheIdleTimeoutNanos = unit.toNanos(idleTimeout);
+            return this;
+        }
+
+        /**
+         * Set the executor used by the async operations of {@link SecureSharedPreferences} like
+         * {@link SecureSharedPreferences#getStringAsync(String, String)} or
+         * {@link SecureSharedPreferences.Editor#commitAsync()}. It is also used to encrypt the
+         * values of an editor in parallel on commit and to persist {@link SecureSharedPreferences.Editor#apply()}
+         * in the background. The calling thread always takes part in parallel work, so any executor
+         * (even a single threaded or saturated one) is safe to use. Per default a shared
+         * {@link java.util.concurrent.ForkJoinPool} (one thread per available processor) is used.
+         *
+         * @param executor to run crypto operations on
+         * @return builder
+         */
+        public Builder executor(Executor executor) {
+            Objects.requireNonNull(executor);
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Instead of encrypting every value on its own, serialize the whole store and encrypt it as one
+         * single blob (one key derivation and one authenticated encryption for all values).
+         * <p>
+         * The blob is decrypted once on first access and kept in memory, so reads are basically free
+         * and the persisted file is a lot smaller for stores with many small values. The downside is
+         * that every commit has to re-encrypt and rewrite the whole store and the plaintext of all values
+         * is kept in memory. Data written in one mode cannot be read in the other.
+         * <p>
+         * This is the same as {@link #encryptInBuckets(int)} with one bucket.
+         *
+         * @return builder
+         */
+        public Builder encryptAsSingleBlob() {
+            return encryptInBuckets(1);
+        }
+
+        /**
+         * The middle ground between encrypting every value on its own (the default) and encrypting the
+         * whole store as one blob (see {@link #encryptAsSingleBlob()}): the keys are distributed over given
+         * count of buckets, each persisted as one encrypted blob.
+         * <p>
+         * A bucket is decrypted on first access and kept in memory, a commit only re-encrypts and rewrites
+         * the buckets containing changed keys. More buckets mean less data rewritten per commit, but more
+         * decryptions if the whole store is read. The bucket count must not change for an existing store.
+         *
+         * @param bucketCount count of buckets; must be greater than 0
+         * @return builder
+         */
+        public Builder encryptInBuckets(int bucketCount) {
+            this.contentStoreFactory = new BucketedContentStore.Factory(bucketCount);
+            return this;
+        }
+
+        /**
+         * Set the encoding used to persist the encrypted bytes as strings in the {@link SharedPreferences}
+         * (not used if a custom {@link KeyValueStorage} is set). Per default Base64 is used;
+         * {@link Base85TextEncoding} needs about 6% less space. The encoding must not change for an
+         * existing store.
+         *
+         * @param textEncoding to use
+         * @return builder
+         */
+        public Builder textEncoding(TextEncoding textEncoding) {
+            Objects.requireNonNull(textEncoding);
+            this.textEncoding = textEncoding;
+            return this;
+        }
+
+        /**
+         * Set a listener receiving the duration of every stage of reading and writing values (key derivation,
+         * encryption, obfuscation, encoding, storage access, ...) and the hits and misses of the decrypted value
+         * cache. Use {@link HistogramMetricsListener} to aggregate them. Per default nothing is measured.
+         *
+         * @param metricsListener called synchronously in the thread doing the work
+         * @return builder
+         */
+        public Builder metricsListener(MetricsListener metricsListener) {
+            Objects.requireNonNull(metricsListener);
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
         /**
          * Build a {@link SharedPreferences} instance
          *
          * @return shared preference with given properties
          */
-        public SharedPreferences build() {
+        public SecureSharedPreferences build() {
             if (fingerprint == null) {
                 throw new IllegalArgumentException("No encryption fingerprint is set - see encryptionFingerprint() methods");
             }
 
-            if (authenticatedEncryption == null) {
+            if (autoSelectSymmetricEncryption && authenticatedEncryption != null) {
+                throw new IllegalArgumentException("auto selection of the symmetric encryption cannot be used with a custom one");
+            }
+
+            Metrics metrics = metricsListener != MetricsListener.NONE ? new Metrics(metricsListener) : Metrics.DISABLED;
+
+            KeyValueStorage storage = this.storage;
+            if (storage == null) {
+                SharedPreferences sharedPreferences = this.sharedPreferences != null ? this.sharedPreferences :
+                    context.getSharedPreferences(stringMessageDigest.derive(prefName, "prefName"), Context.MODE_PRIVATE);
+                TextEncoding textEncoding = metrics != Metrics.DISABLED ? new MeasuredTextEncoding(this.textEncoding, metrics) : this.textEncoding;
+                storage = new SharedPreferencesStorage(sharedPreferences, textEncoding);
+            }
+            if (metrics != Metrics.DISABLED) {
+                storage = new MeasuredStorage(storage, metrics);
+            }
+
+            //the storage salt and older versions were obfuscated with HkdfXorObfuscator, unless set otherwise
+            DataObfuscator.Factory legacyObfuscatorFactory = dataObfuscatorFactory != null ? dataObfuscatorFactory : new HkdfXorObfuscator.Factory();
+
+            SecureRandom secureRandom = BufferedSecureRandom.wrap(this.secureRandom);
+
+            //the storage salt is created with the preferences, so check before
+            boolean existingStore = storage.contains(SecureSharedPreferences.storageSaltKey(stringMessageDigest));
+
+            StoreMetadata metadata = null;
+            if (autoSelectSymmetricEncryption || counterBasedNonce || calibratedKeyStretchingFactory != null) {
+                metadata = new StoreMetadata(storage, stringMessageDigest, legacyObfuscatorFactory, fingerprint);
+            }
+
+            KeyStretchingFunction keyStretchingFunction = this.keyStretchingFunction;
+            if (calibratedKeyStretchingFactory != null) {
+                keyStretchingFunction = new CalibratedKeyStretcher(calibratedKeyStretchingFactory, calibrationTargetNanos,
+                    metadata, this.keyStretchingFunction, existingStore);
+            }
+
+            AuthenticatedEncryption authenticatedEncryption = this.authenticatedEncryption;
+            if (autoSelectSymmetricEncryption) {
+                authenticatedEncryption = new AuthenticatedEncryptionSelector(new AesGcmEncryption(secureRandom, provider),
+                    new ChaCha20Poly1305Encryption(secureRandom, provider), keyStrength, secureRandom)
+                    .select(metadata, !storage.keys().isEmpty());
+            } else if (authenticatedEncryption == null) {
                 authenticatedEncryption = new AesGcmEncryption(secureRandom, provider);
             }
 
-            EncryptionProtocol.Factory factory = new DefaultEncryptionProtocol.Factory(cryptoProtocolVersion, fingerprint, stringMessageDigest, authenticatedEncryption, keyStrength,
-                keyStretchingFunction, dataObfuscatorFactory, secureRandom, compressor);
+            //versions 2 and 3 are obfuscated with AesCtrObfuscator, unless set otherwise
+            DataObfuscator.Factory aesCtrObfuscatorFactory = dataObfuscatorFactory != null ? dataObfuscatorFactory : new AesCtrObfuscator.Factory();
+            DataObfuscator.Factory defaultObfuscatorFactory = legacyObfuscatorFactory;
+            if (cryptoProtocolVersion == EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT
+                || cryptoProtocolVersion == EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION) {
+                defaultObfuscatorFactory = aesCtrObfuscatorFactory;
+            }
 
-            if (sharedPreferences != null) {
-                return new SecureSharedPreferences(sharedPreferences, factory, recoveryPolicy, password);
-            } else {
-                return new SecureSharedPreferences(context, prefName, factory, recoveryPolicy, password);
+            //built-in versions use their own key schedule, custom versions the legacy one unless set otherwise
+            EncryptionProtocolConfig.Builder defaultConfigBuilder = EncryptionProtocolConfig.newBuilder(cryptoProtocolVersion)
+                .keySchedule(cryptoProtocolKeySchedule != null ? cryptoProtocolKeySchedule
+                    : EncryptionProtocolConfig.keyScheduleOf(cryptoProtocolVersion))
+                .keyStrength(keyStrength)
+                .authenticatedEncryption(authenticatedEncryption)
+                .keyStretchingFunction(keyStretchingFunction)
+                .dataObfuscatorFactory(defaultObfuscatorFactory)
+                .compressor(compressor);
+            if (counterBasedNonce) {
+                if (authenticatedEncryption.nonceLength() < 8) {
+                    throw new IllegalArgumentException("the symmetric encryption does not support counter based nonces");
+                }
+                defaultConfigBuilder.nonceCounter(new NonceCounter(metadata));
+            }
+            EncryptionProtocolConfig defaultConfig = defaultConfigBuilder.build();
+
+            //like custom default versions, additional ones are obfuscated like the storage salt if not set otherwise
+            EncryptionProtocolConfig legacyObfuscation = EncryptionProtocolConfig.newBuilder(cryptoProtocolVersion)
+                .dataObfuscatorFactory(legacyObfuscatorFactory).build();
+            List<EncryptionProtocolConfig> decryptionConfigs = new ArrayList<>();
+            for (EncryptionProtocolConfig config : additionalDecryptionConfigs) {
+                decryptionConfigs.add(EncryptionProtocolConfig.isReservedVersion(config.protocolVersion)
+                    ? config : config.inherit(legacyObfuscation));
             }
+            decryptionConfigs.add(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY)
+                .dataObfuscatorFactory(aesCtrObfuscatorFactory)
+                .build());
+            decryptionConfigs.add(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING)
+                .dataObfuscatorFactory(aesCtrObfuscatorFactory)
+                .build());
+            decryptionConfigs.add(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_STORE_STRETCHING)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING)
+                .dataObfuscatorFactory(legacyObfuscatorFactory)
+                .build());
+            decryptionConfigs.add(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY)
+                .dataObfuscatorFactory(legacyObfuscatorFactory)
+                .build());
+
+            EncryptionProtocol.Factory factory = new DefaultEncryptionProtocol.Factory(defaultConfig, decryptionConfigs,
+                legacyObfuscatorFactory, fingerprint, stringMessageDigest, secureRandom, metricsListener);
+
+            DecryptedValueCache valueCache = null;
+            if (valueCacheMaxEntries > 0) {
+                valueCache = new DecryptedValueCache(valueCacheMaxEntries, valueCacheIdleTimeoutNanos, TimeUnit.NANOSECONDS, metricsListener);
+            }
+
+            Executor executor = this.executor != null ? this.executor : ArmadilloExecutors.defaultExecutor();
+
+            return new SecureSharedPreferences(storage, factory, recoveryPolicy, password, valueCache, executor, contentStoreFactory);
         }
     }
 }
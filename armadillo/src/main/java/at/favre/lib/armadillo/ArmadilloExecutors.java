@@ -0,0 +1,52 @@
+package at.favre.lib.armadillo;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal threading helpers shared by the components of this library.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class ArmadilloExecutors {
+    private static ExecutorService defaultExecutor;
+
+    private ArmadilloExecutors() {
+    }
+
+    /**
+     * The executor used for async operations and parallel encryption if the caller did not provide one.
+     * It is a work-stealing {@link ForkJoinPool} with a parallelism of the available processors (its threads
+     * are daemon threads), shared by all stores.
+     *
+     * @return shared executor
+     */
+    static synchronized Executor defaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates a thread factory creating daemon threads (i.e. will not prevent the vm from shutting down)
+     *
+     * @param name prefix of the thread names
+     * @return new factory
+     */
+    static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
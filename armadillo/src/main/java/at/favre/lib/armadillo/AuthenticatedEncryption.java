@@ -45,6 +45,74 @@ public interface AuthenticatedEncryption {
      */
     byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException;
 
+    /**
+     * Same as {@link #encrypt(byte[], byte[], byte[])}, but the returned array starts with given count of unused
+     * bytes, so the caller can write a header in front of the encrypted content without copying it again.
+     * <p>
+     * The default implementation copies the output of {@link #encrypt(byte[], byte[], byte[])}; implementations
+     * should override this to directly encrypt into a single array.
+     *
+     * @param rawEncryptionKey to use as encryption key material
+     * @param rawData          to encrypt
+     * @param associatedData   additional data used to create the auth tag and will be subject to integrity/authentication check
+     * @param headerLength     count of bytes to reserve at the start of the returned array
+     * @return array of headerLength unused bytes, followed by the encrypted content
+     * @throws AuthenticatedEncryptionException if any crypto fails
+     */
+    default byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
+        final byte[] encrypted = encrypt(rawEncryptionKey, rawData, associatedData);
+        final byte[] out = new byte[headerLength + encrypted.length];
+        System.arraycopy(encrypted, 0, out, headerLength, encrypted.length);
+        return out;
+    }
+
+    /**
+     * Same as {@link #encrypt(byte[], byte[], byte[], int)}, but with a nonce provided by the caller instead of a
+     * random one. The nonce is not part of the output, so the caller has to provide it again to decrypt, see
+     * {@link #decryptWithNonce(byte[], byte[], byte[], int, byte[])}. The caller must guarantee that a nonce is never
+     * used twice with the same key.
+     * <p>
+     * Only supported if {@link #nonceLength()} is greater than 0.
+     *
+     * @param rawEncryptionKey to use as encryption key material
+     * @param nonce            of {@link #nonceLength()} bytes
+     * @param rawData          to encrypt
+     * @param associatedData   additional data used to create the auth tag and will be subject to integrity/authentication check
+     * @param headerLength     count of bytes to reserve at the start of the returned array
+     * @return array of headerLength unused bytes, followed by the encrypted content
+     * @throws AuthenticatedEncryptionException if any crypto fails
+     */
+    default byte[] encryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
+        throw new UnsupportedOperationException("caller provided nonces are not supported");
+    }
+
+    /**
+     * Decrypts content created by {@link #encryptWithNonce(byte[], byte[], byte[], byte[], int)}
+     *
+     * @param rawEncryptionKey to use as decryption key material
+     * @param nonce            used to encrypt
+     * @param encryptedData    containing the encrypted content
+     * @param offset           of the encrypted content in encryptedData
+     * @param associatedData   additional data used to create the auth tag; must be same as provided
+     *                         in the encrypt step
+     * @return decrypted, original data
+     * @throws AuthenticatedEncryptionException if any crypto fails
+     */
+    default byte[] decryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] encryptedData, int offset, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        throw new UnsupportedOperationException("caller provided nonces are not supported");
+    }
+
+    /**
+     * The length of caller provided nonces, see {@link #encryptWithNonce(byte[], byte[], byte[], byte[], int)}.
+     * If supported, the output of {@link #encrypt(byte[], byte[], byte[])} must never start with a zero byte, since
+     * the protocol uses it to mark content encrypted with a caller provided nonce.
+     *
+     * @return length in byte or 0 if caller provided nonces are not supported (default)
+     */
+    default int nonceLength() {
+        return 0;
+    }
+
     /**
      * Decrypt and verifies the authenticity of given encrypted data
      *
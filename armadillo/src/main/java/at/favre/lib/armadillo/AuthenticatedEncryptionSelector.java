@@ -0,0 +1,105 @@
+package at.favre.lib.armadillo;
+
+import java.security.SecureRandom;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * Selects the faster of {@link AesGcmEncryption} and {@link ChaCha20Poly1305Encryption} for a store. AES-GCM is
+ * usually faster on devices with AES instructions, ChaCha20-Poly1305 on devices without.
+ * <p>
+ * Both ciphers are measured once when a new store is created and the choice is persisted in the
+ * {@link StoreMetadata}, so it never changes for existing content. Stores created before the auto
+ * selection was enabled always keep AES-GCM.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class AuthenticatedEncryptionSelector {
+    static final String METADATA_NAME = "authenticatedEncryption";
+
+    private static final byte ID_AES_GCM = 0;
+    private static final byte ID_CHACHA20_POLY1305 = 1;
+
+    private static final int SAMPLE_LENGTH_BYTE = 256;
+    private static final int WARM_UP_ROUNDS = 4;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final int OPERATIONS_PER_ROUND = 32;
+
+    private final AuthenticatedEncryption aesGcm;
+    private final AuthenticatedEncryption chaCha20Poly1305;
+    private final int keyStrength;
+    private final SecureRandom secureRandom;
+
+    AuthenticatedEncryptionSelector(AuthenticatedEncryption aesGcm, AuthenticatedEncryption chaCha20Poly1305,
+                                    @AuthenticatedEncryption.KeyStrength int keyStrength, SecureRandom secureRandom) {
+        this.aesGcm = aesGcm;
+        this.chaCha20Poly1305 = chaCha20Poly1305;
+        this.keyStrength = keyStrength;
+        this.secureRandom = secureRandom;
+    }
+
+    /**
+     * Gets the cipher persisted in the metadata, or selects and persists one. If the selection can not be
+     * persisted, AES-GCM is used, since that is what the store will be treated as on the next start.
+     *
+     * @param metadata      of the store
+     * @param existingStore true if the store already contains content, which is then expected to be AES-GCM
+     * @return the selected cipher
+     */
+    AuthenticatedEncryption select(StoreMetadata metadata, boolean existingStore) {
+        byte[] persisted = metadata.get(METADATA_NAME);
+        if (persisted == null) {
+            byte id = ID_AES_GCM;
+            if (!existingStore) {
+                final long aesGcmNanos = measure(aesGcm);
+                final long chaCha20Poly1305Nanos = measure(chaCha20Poly1305);
+                Timber.d("measured aes-gcm %d ns, chacha20-poly1305 %d ns", aesGcmNanos, chaCha20Poly1305Nanos);
+                if (chaCha20Poly1305Nanos < aesGcmNanos) {
+                    id = ID_CHACHA20_POLY1305;
+                }
+            }
+
+            //another instance of the same store might have been faster
+            persisted = metadata.putIfAbsent(METADATA_NAME, new byte[]{id});
+            if (persisted == null) {
+                Timber.w("could not persist selected authenticated encryption, using aes-gcm");
+                return aesGcm;
+            }
+        }
+
+        if (persisted.length != 1 || (persisted[0] != ID_AES_GCM && persisted[0] != ID_CHACHA20_POLY1305)) {
+            throw new IllegalStateException("unknown persisted authenticated encryption " + Bytes.wrap(persisted).encodeHex());
+        }
+        return persisted[0] == ID_AES_GCM ? aesGcm : chaCha20Poly1305;
+    }
+
+    /**
+     * Measures the fastest of a few rounds of encrypting and decrypting a typical value
+     *
+     * @param encryption to measure
+     * @return duration of the fastest round in nanoseconds
+     */
+    long measure(AuthenticatedEncryption encryption) {
+        final byte[] key = Bytes.random(encryption.byteSizeLength(keyStrength), secureRandom).array();
+        final byte[] content = Bytes.random(SAMPLE_LENGTH_BYTE, secureRandom).array();
+
+        long fastest = Long.MAX_VALUE;
+        try {
+            for (int round = 0; round < WARM_UP_ROUNDS + MEASURE_ROUNDS; round++) {
+                final long start = System.nanoTime();
+                for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                    //decrypt wipes the given key
+                    encryption.decrypt(Bytes.from(key).array(), encryption.encrypt(key, content, null), null);
+                }
+                if (round >= WARM_UP_ROUNDS) {
+                    fastest = Math.min(fastest, System.nanoTime() - start);
+                }
+            }
+        } catch (AuthenticatedEncryptionException e) {
+            Timber.w(e, "could not measure authenticated encryption");
+            return Long.MAX_VALUE;
+        }
+        return fastest;
+    }
+}
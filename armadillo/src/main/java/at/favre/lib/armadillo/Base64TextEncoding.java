@@ -0,0 +1,21 @@
+package at.favre.lib.armadillo;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * The default {@link TextEncoding}: standard <a href="https://tools.ietf.org/html/rfc4648">RFC 4648</a>
+ * Base64 with padding, which needs 4 characters per 3 bytes.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public final class Base64TextEncoding implements TextEncoding {
+    @Override
+    public String encode(byte[] data) {
+        return Bytes.wrap(data).encodeBase64();
+    }
+
+    @Override
+    public byte[] decode(String text) {
+        return Bytes.parseBase64(text).array();
+    }
+}
@@ -0,0 +1,114 @@
+package at.favre.lib.armadillo;
+
+import java.util.Arrays;
+
+/**
+ * A denser {@link TextEncoding} than Base64, needing 5 characters per 4 bytes (25% instead of 33% overhead).
+ * Every 4 bytes are interpreted as big endian unsigned integer and written as 5 digits in base 85; a trailing
+ * partial group of n bytes is written as n+1 digits (as in Ascii85, but without special shortcuts).
+ * <p>
+ * The alphabet only uses printable ASCII characters which need no escaping in XML or JSON, i.e.
+ * it excludes <code>&amp; &lt; &gt; " '</code> and the backslash, so the stored size really shrinks.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public final class Base85TextEncoding implements TextEncoding {
+    private static final char[] ALPHABET =
+            "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ!#$%()*+-./:=?@[]^_{|}~".toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DIGITS[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    @Override
+    public String encode(byte[] data) {
+        final int rest = data.length % 4;
+        final int fullLength = data.length - rest;
+        final char[] out = new char[fullLength / 4 * 5 + (rest == 0 ? 0 : rest + 1)];
+
+        int o = 0;
+        for (int i = 0; i < fullLength; i += 4) {
+            encodeGroup(toUnsignedInt(data, i, 4), out, o, 5);
+            o += 5;
+        }
+
+        if (rest > 0) {
+            encodeGroup(toUnsignedInt(data, fullLength, rest), out, o, rest + 1);
+        }
+        return new String(out);
+    }
+
+    @Override
+    public byte[] decode(String text) {
+        final int rest = text.length() % 5;
+        if (rest == 1) {
+            throw new IllegalArgumentException("invalid base85 length " + text.length());
+        }
+
+        final int fullLength = text.length() - rest;
+        final byte[] out = new byte[fullLength / 5 * 4 + (rest == 0 ? 0 : rest - 1)];
+
+        int o = 0;
+        for (int i = 0; i < fullLength; i += 5) {
+            writeBytes(decodeGroup(text, i, 5), out, o, 4);
+            o += 4;
+        }
+
+        if (rest > 0) {
+            writeBytes(decodeGroup(text, fullLength, rest), out, o, rest - 1);
+        }
+        return out;
+    }
+
+    /**
+     * Reads up to 4 bytes as big endian unsigned int, padded with zeros
+     */
+    private static long toUnsignedInt(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (i < length ? data[offset + i] & 0xff : 0);
+        }
+        return value;
+    }
+
+    private static void encodeGroup(long value, char[] out, int offset, int digits) {
+        for (int i = 4; i >= 0; i--) {
+            if (i < digits) {
+                out[offset + i] = ALPHABET[(int) (value % 85)];
+            }
+            value /= 85;
+        }
+    }
+
+    /**
+     * Decodes up to 5 digits, padded with the highest digit
+     */
+    private static long decodeGroup(String text, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < 5; i++) {
+            value = value * 85 + (i < length ? digit(text.charAt(offset + i)) : 84);
+        }
+        if (value > 0xffffffffL) {
+            throw new IllegalArgumentException("invalid base85 group at " + offset);
+        }
+        return value;
+    }
+
+    private static int digit(char c) {
+        final int digit = c < DIGITS.length ? DIGITS[c] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("invalid base85 character '" + c + "'");
+        }
+        return digit;
+    }
+
+    private static void writeBytes(long value, byte[] out, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[offset + i] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+}
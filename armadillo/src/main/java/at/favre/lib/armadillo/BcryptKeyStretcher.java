@@ -9,7 +9,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.HKDF;
 
 /**
  * Bcrypt is a password hashing function designed by Niels Provos and David Mazières, based on the Blowfish cipher,
@@ -24,6 +23,9 @@ import at.favre.lib.crypto.HKDF;
 final class BcryptKeyStretcher implements KeyStretchingFunction {
     private static final int BCRYPT_MIN_ROUNDS = 8;
     private static final int BCRYPT_DEFAULT_ROUNDS = 12;
+    private static final int BCRYPT_MAX_ROUNDS = 30;
+    private static final byte[] HKDF_INFO = "bcrypt".getBytes();
+    private static final HkdfEngine HKDF = new HkdfEngine(HkdfEngine.HMAC_SHA256, null);
 
     private final int iterations;
 
@@ -47,7 +49,7 @@ final class BcryptKeyStretcher implements KeyStretchingFunction {
     @Override
     public byte[] stretch(byte[] salt, char[] password, int outLengthByte) {
         try {
-            return HKDF.fromHmacSha256().expand(bcrypt(password, salt, iterations), "bcrypt".getBytes(), outLengthByte);
+            return HKDF.expand(bcrypt(password, salt, iterations), HKDF_INFO, outLengthByte);
         } catch (Exception e) {
             throw new IllegalStateException("could not stretch with bcrypt", e);
         }
@@ -73,12 +75,38 @@ final class BcryptKeyStretcher implements KeyStretchingFunction {
         if (logRounds < 10) {
             saltBuilder.append("0");
         }
-        if (logRounds > 30) {
+        if (logRounds > BCRYPT_MAX_ROUNDS) {
             throw new IllegalArgumentException("log_rounds exceeds maximum (30)");
         }
         saltBuilder.append(Integer.toString(logRounds));
         saltBuilder.append("$");
-        saltBuilder.append(Bytes.wrap(HKDF.fromHmacSha256().expand(salt, "bcrypt".getBytes(), 16)).encodeHex());
+        saltBuilder.append(Bytes.wrap(HKDF.expand(salt, HKDF_INFO, 16)).encodeHex());
         return saltBuilder.toString();
     }
+
+    /**
+     * Creates instances with given log2 rounds; every additional round doubles the duration
+     */
+    static final class Factory implements KeyStretchingFunction.Factory {
+
+        @Override
+        public KeyStretchingFunction create(int cost) {
+            return new BcryptKeyStretcher(cost);
+        }
+
+        @Override
+        public int getMinCost() {
+            return BCRYPT_MIN_ROUNDS;
+        }
+
+        @Override
+        public int getMaxCost() {
+            return BCRYPT_MAX_ROUNDS;
+        }
+
+        @Override
+        public int scaleCost(int cost, double factor) {
+            return cost + (int) Math.round(Math.log(factor) / Math.log(2));
+        }
+    }
 }
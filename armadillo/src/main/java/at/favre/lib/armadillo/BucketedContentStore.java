@@ -0,0 +1,365 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * A layout where the hashed content keys are distributed over a fixed count of buckets. Every bucket
+ * holds a part of the logical map which is serialized and encrypted as one single blob with the
+ * {@link EncryptionProtocol} (i.e. one key derivation and one authenticated encryption per bucket).
+ * <p>
+ * A bucket is decrypted on first access and its values are held in memory afterwards, so reads
+ * are basically free. A commit only re-encrypts and rewrites the buckets containing changed keys.
+ * With a single bucket, the whole store is one blob; with more buckets the write amplification
+ * shrinks at the cost of more key derivations when reading the whole store.
+ * <p>
+ * Note that this means that the plaintext of all accessed buckets will be kept in memory and that
+ * the bucket count must not change for an existing store.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class BucketedContentStore extends ContentStore {
+    private static final String KEY_BUCKET = "at.favre.lib.armadillo.KEY_STORE_BUCKET";
+    private static final byte TYPE_VALUE = 0;
+    private static final byte TYPE_SET = 1;
+
+    private final Bucket[] buckets;
+
+    private BucketedContentStore(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                                 RecoveryPolicy recoveryPolicy, Executor executor, int bucketCount) {
+        super(storage, storageSaltKey, metadataKey, password, recoveryPolicy, executor);
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(i);
+        }
+    }
+
+    @Override
+    void setEncryptionProtocol(EncryptionProtocol encryptionProtocol) {
+        synchronized (writeLock) {
+            super.setEncryptionProtocol(encryptionProtocol);
+            for (Bucket bucket : buckets) {
+                bucket.content = null;
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    byte[] get(String keyHash) {
+        final Object value = getContent(bucketOf(keyHash)).get(keyHash);
+        return value instanceof byte[] ? Bytes.from((byte[]) value).array() : null;
+    }
+
+    @Nullable
+    @Override
+    List<byte[]> getSet(String keyHash) {
+        final Object value = getContent(bucketOf(keyHash)).get(keyHash);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        return copy((List<?>) value);
+    }
+
+    @Override
+    boolean contains(String keyHash) {
+        return getContent(bucketOf(keyHash)).containsKey(keyHash);
+    }
+
+    @Override
+    Set<String> getKeyHashes() {
+        loadInParallel(buckets);
+        final Set<String> keyHashes = new HashSet<>();
+        for (Bucket bucket : buckets) {
+            keyHashes.addAll(getContent(bucket).keySet());
+        }
+        return keyHashes;
+    }
+
+    @Override
+    void getAll(Collection<String> keyHashes, Map<String, byte[]> values, Map<String, List<byte[]>> setValues) {
+        final Set<Bucket> affected = new HashSet<>();
+        for (String keyHash : keyHashes) {
+            affected.add(bucketOf(keyHash));
+        }
+        loadInParallel(affected.toArray(new Bucket[affected.size()]));
+
+        for (String keyHash : keyHashes) {
+            final Object value = getContent(bucketOf(keyHash)).get(keyHash);
+            if (value instanceof byte[]) {
+                values.put(keyHash, Bytes.from((byte[]) value).array());
+            } else if (value instanceof List) {
+                setValues.put(keyHash, copy((List<?>) value));
+            }
+        }
+    }
+
+    /**
+     * Applies the batch to a copy of every affected bucket, then re-encrypts only those buckets in parallel
+     * and writes them with a single underlying commit.
+     */
+    @Override
+    boolean write(long sequence, Map<String, Mutation> batch, boolean clear, boolean synchronous) {
+        synchronized (writeLock) {
+            if (!beginWrite(sequence, clear)) {
+                return true;
+            }
+
+            final KeyValueStorage.Editor editor = storage.edit();
+            if (clear) {
+                //the storage salt will be renewed, so content can only be written with the new protocol
+                clear(editor);
+                for (Bucket bucket : buckets) {
+                    bucket.content = Collections.emptyMap();
+                }
+            } else {
+                final Map<Bucket, Map<String, Object>> dirty = new HashMap<>();
+                for (Map.Entry<String, Mutation> entry : batch.entrySet()) {
+                    if (!claimWrite(entry.getKey(), sequence)) {
+                        continue;
+                    }
+
+                    final Bucket bucket = bucketOf(entry.getKey());
+                    Map<String, Object> updated = dirty.get(bucket);
+                    if (updated == null) {
+                        updated = new HashMap<>(getContent(bucket));
+                        dirty.put(bucket, updated);
+                    }
+
+                    final Mutation mutation = entry.getValue();
+                    if (mutation.type == Mutation.TYPE_PUT) {
+                        updated.put(entry.getKey(), mutation.copyValue());
+                    } else if (mutation.type == Mutation.TYPE_PUT_SET) {
+                        updated.put(entry.getKey(), Collections.unmodifiableList(mutation.copySetValues()));
+                    } else {
+                        updated.remove(entry.getKey());
+                    }
+                }
+
+                final List<Bucket> dirtyBuckets = new ArrayList<>(dirty.keySet());
+                final byte[][] encrypted = new byte[dirtyBuckets.size()][];
+                ParallelTasks.forEach(executor, encrypted.length, new ParallelTasks.Task() {
+                    @Override
+                    public void run(int index) {
+                        final Map<String, Object> updated = dirty.get(dirtyBuckets.get(index));
+                        encrypted[index] = updated.isEmpty() ? null : encrypt(dirtyBuckets.get(index), updated);
+                    }
+                });
+
+                for (int i = 0; i < encrypted.length; i++) {
+                    final Bucket bucket = dirtyBuckets.get(i);
+                    if (encrypted[i] == null) {
+                        editor.remove(getBucketKey(bucket));
+                    } else {
+                        editor.put(getBucketKey(bucket), encrypted[i]);
+                    }
+                    bucket.content = Collections.unmodifiableMap(dirty.get(bucket));
+                }
+            }
+
+            if (synchronous) {
+                return editor.commit();
+            }
+            editor.apply();
+            return true;
+        }
+    }
+
+    private Bucket bucketOf(String keyHash) {
+        return buckets[(keyHash.hashCode() & 0x7fffffff) % buckets.length];
+    }
+
+    private Map<String, Object> getContent(Bucket bucket) {
+        Map<String, Object> current = bucket.content;
+        if (current == null) {
+            synchronized (writeLock) {
+                current = bucket.content;
+                if (current == null) {
+                    current = Collections.unmodifiableMap(load(bucket));
+                    bucket.content = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void loadInParallel(final Bucket[] toLoad) {
+        ParallelTasks.forEach(executor, toLoad.length, new ParallelTasks.Task() {
+            @Override
+            public void run(int index) {
+                final Bucket bucket = toLoad[index];
+                if (bucket.content == null) {
+                    final Map<String, Object> loaded = Collections.unmodifiableMap(load(bucket));
+                    synchronized (writeLock) {
+                        if (bucket.content == null) {
+                            bucket.content = loaded;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private String getBucketKey(Bucket bucket) {
+        return encryptionProtocol.deriveContentKey(KEY_BUCKET + bucket.index + "/" + buckets.length);
+    }
+
+    private Map<String, Object> load(Bucket bucket) {
+        final String bucketKey = getBucketKey(bucket);
+        final byte[] encrypted = storage.get(bucketKey);
+        if (encrypted == null) {
+            return new HashMap<>();
+        }
+
+        byte[] serialized = null;
+        try {
+            serialized = encryptionProtocol.decrypt(bucketKey, password, encrypted);
+            return deserialize(serialized);
+        } catch (EncryptionProtocolException e) {
+            handleDecryptionError(bucketKey, e);
+            return new HashMap<>();
+        } finally {
+            if (serialized != null) {
+                Bytes.wrap(serialized).mutable().secureWipe();
+            }
+        }
+    }
+
+    private byte[] encrypt(Bucket bucket, Map<String, Object> content) {
+        final byte[] serialized = serialize(content);
+        try {
+            return encryptionProtocol.encrypt(getBucketKey(bucket), password, serialized);
+        } catch (EncryptionProtocolException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Bytes.wrap(serialized).mutable().secureWipe();
+        }
+    }
+
+    /**
+     * Format: entry count (int), then per entry: key length (int), key (utf-8), type (byte) and either
+     * value length (int) and value, or element count (int) and per element its length (int) and value.
+     */
+    static byte[] serialize(Map<String, Object> content) {
+        final Map<String, byte[]> keys = new HashMap<>(content.size());
+        int length = 4;
+        for (Map.Entry<String, Object> entry : content.entrySet()) {
+            final byte[] key = Bytes.from(entry.getKey()).array();
+            keys.put(entry.getKey(), key);
+            length += 4 + key.length + 1;
+            if (entry.getValue() instanceof byte[]) {
+                length += 4 + ((byte[]) entry.getValue()).length;
+            } else {
+                length += 4;
+                for (Object element : (List<?>) entry.getValue()) {
+                    length += 4 + ((byte[]) element).length;
+                }
+            }
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(content.size());
+        for (Map.Entry<String, Object> entry : content.entrySet()) {
+            final byte[] key = keys.get(entry.getKey());
+            buffer.putInt(key.length);
+            buffer.put(key);
+            if (entry.getValue() instanceof byte[]) {
+                final byte[] value = (byte[]) entry.getValue();
+                buffer.put(TYPE_VALUE);
+                buffer.putInt(value.length);
+                buffer.put(value);
+            } else {
+                final List<?> elements = (List<?>) entry.getValue();
+                buffer.put(TYPE_SET);
+                buffer.putInt(elements.size());
+                for (Object element : elements) {
+                    buffer.putInt(((byte[]) element).length);
+                    buffer.put((byte[]) element);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    static Map<String, Object> deserialize(byte[] serialized) {
+        final ByteBuffer buffer = ByteBuffer.wrap(serialized);
+        final int count = buffer.getInt();
+        final Map<String, Object> content = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] key = new byte[buffer.getInt()];
+            buffer.get(key);
+
+            if (buffer.get() == TYPE_VALUE) {
+                final byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                content.put(Bytes.wrap(key).encodeUtf8(), value);
+            } else {
+                final int elementCount = buffer.getInt();
+                final List<byte[]> elements = new ArrayList<>(elementCount);
+                for (int j = 0; j < elementCount; j++) {
+                    final byte[] element = new byte[buffer.getInt()];
+                    buffer.get(element);
+                    elements.add(element);
+                }
+                content.put(Bytes.wrap(key).encodeUtf8(), Collections.unmodifiableList(elements));
+            }
+        }
+        return content;
+    }
+
+    private static List<byte[]> copy(List<?> values) {
+        final List<byte[]> copies = new ArrayList<>(values.size());
+        for (Object value : values) {
+            copies.add(Bytes.from((byte[]) value).array());
+        }
+        return copies;
+    }
+
+    private static final class Bucket {
+        private final int index;
+        /**
+         * Immutable snapshot of the decrypted content (values are either byte[] or List of byte[]); replaced
+         * on every write, null if not loaded yet
+         */
+        @Nullable
+        private volatile Map<String, Object> content;
+
+        private Bucket(int index) {
+            this.index = index;
+        }
+    }
+
+    static final class Factory implements ContentStore.Factory {
+        private final int bucketCount;
+
+        /**
+         * Creates a new factory
+         *
+         * @param bucketCount count of buckets the keys are distributed over; 1 will encrypt the whole store as one blob
+         */
+        Factory(int bucketCount) {
+            if (bucketCount <= 0) {
+                throw new IllegalArgumentException("bucket count must be greater than 0");
+            }
+            this.bucketCount = bucketCount;
+        }
+
+        @Override
+        public ContentStore create(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                                   RecoveryPolicy recoveryPolicy, Executor executor) {
+            return new BucketedContentStore(storage, storageSaltKey, metadataKey, password, recoveryPolicy, executor, bucketCount);
+        }
+    }
+}
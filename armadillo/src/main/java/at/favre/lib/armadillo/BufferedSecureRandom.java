@@ -0,0 +1,160 @@
+package at.favre.lib.armadillo;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SecureRandom} serving small requests (like salts and ivs) from a buffer per thread, which is
+ * refilled in large chunks from a wrapped {@link SecureRandom}. Most implementations of {@link SecureRandom}
+ * are synchronized, so without the buffer concurrent writers would contend on every single encryption.
+ * <p>
+ * The randomness is the one of the wrapped instance; it is only fetched ahead of time. Bytes are wiped
+ * from the buffer as soon as they are handed out. A buffer is discarded if it is older than the max age or if
+ * the instance was reseeded with {@link #setSeed(byte[])}, so no bytes drawn before are returned afterwards.
+ * Requests larger than a quarter of the buffer directly use the wrapped instance.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BufferedSecureRandom extends SecureRandom {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_BUFFER_SIZE_BYTE = 512;
+    private static final long DEFAULT_MAX_AGE_MS = 1000;
+
+    private final SecureRandom secureRandom;
+    private final int bufferSize;
+    private final long maxAgeNanos;
+    //the buffers are never serialized, see readResolve()
+    private final transient ThreadLocal<Buffer> bufferHolder = new ThreadLocal<>();
+    private final transient AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Creates a new instance with a 512 byte buffer per thread, discarded after 1 second
+     *
+     * @param secureRandom to draw from
+     */
+    public BufferedSecureRandom(SecureRandom secureRandom) {
+        this(secureRandom, DEFAULT_BUFFER_SIZE_BYTE, DEFAULT_MAX_AGE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param secureRandom to draw from
+     * @param bufferSize   bytes drawn at once per thread
+     * @param maxAge       after which a buffer is discarded and drawn again
+     * @param unit         of the max age
+     */
+    public BufferedSecureRandom(SecureRandom secureRandom, int bufferSize, long maxAge, TimeUnit unit) {
+        super(null, secureRandom.getProvider());
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be greater than 0");
+        }
+        if (maxAge <= 0) {
+            throw new IllegalArgumentException("max age must be greater than 0");
+        }
+        this.secureRandom = Objects.requireNonNull(secureRandom);
+        this.bufferSize = bufferSize;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Wraps given instance, if it is not already buffered
+     *
+     * @param secureRandom to wrap
+     * @return buffered instance
+     */
+    static BufferedSecureRandom wrap(SecureRandom secureRandom) {
+        if (secureRandom instanceof BufferedSecureRandom) {
+            return (BufferedSecureRandom) secureRandom;
+        }
+        return new BufferedSecureRandom(secureRandom);
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        if (bytes.length > bufferSize / 4) {
+            secureRandom.nextBytes(bytes);
+            return;
+        }
+
+        Buffer buffer = bufferHolder.get();
+        if (buffer == null) {
+            buffer = new Buffer(bufferSize);
+            bufferHolder.set(buffer);
+        }
+        buffer.read(bytes);
+    }
+
+    @Override
+    public void setSeed(byte[] seed) {
+        secureRandom.setSeed(seed);
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        //called by the super constructor before the fields are set
+        if (secureRandom != null) {
+            secureRandom.setSeed(seed);
+            generation.incrementAndGet();
+        }
+    }
+
+    @Override
+    public byte[] generateSeed(int numBytes) {
+        return secureRandom.generateSeed(numBytes);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return secureRandom.getAlgorithm();
+    }
+
+    /**
+     * Creates a new instance with empty buffers instead of the deserialized one, whose transient fields are not set
+     *
+     * @return new instance
+     */
+    private Object readResolve() {
+        return new BufferedSecureRandom(secureRandom, bufferSize, maxAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Random bytes of a single thread, handed out from the start to the end
+     */
+    private final class Buffer {
+        private final byte[] bytes;
+        private int position;
+        private long createdNanos;
+        private int bufferGeneration;
+
+        private Buffer(int size) {
+            this.bytes = new byte[size];
+            this.position = size;
+        }
+
+        private void read(byte[] out) {
+            if (bytes.length - position < out.length || bufferGeneration != generation.get()
+                    || System.nanoTime() - createdNanos > maxAgeNanos) {
+                refill();
+            }
+
+            System.arraycopy(bytes, position, out, 0, out.length);
+            Arrays.fill(bytes, position, position + out.length, (byte) 0);
+            position += out.length;
+        }
+
+        private void refill() {
+            bufferGeneration = generation.get();
+            secureRandom.nextBytes(bytes);
+            createdNanos = System.nanoTime();
+            position = 0;
+        }
+    }
+}
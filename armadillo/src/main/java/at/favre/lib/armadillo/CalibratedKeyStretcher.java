@@ -0,0 +1,176 @@
+package at.favre.lib.armadillo;
+
+import java.nio.ByteBuffer;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * A {@link KeyStretchingFunction} whose cost is calibrated to the device: on the first use in a new store, the
+ * functions of the {@link KeyStretchingFunction.Factory} are measured with increasing cost until the cost which takes
+ * about the target duration can be estimated. The chosen cost is persisted in the {@link StoreMetadata}, so it
+ * never changes for existing content.
+ * <p>
+ * Stores created before the calibration was enabled keep using the configured function.
+ * <p>
+ * Format of the persisted value: type (byte; 0 = configured function, 1 = calibrated) | cost (int)
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class CalibratedKeyStretcher implements KeyStretchingFunction {
+    static final String METADATA_NAME = "keyStretchingCost";
+
+    private static final byte TYPE_CONFIGURED = 0;
+    private static final byte TYPE_CALIBRATED = 1;
+    private static final int SAMPLE_OUT_LENGTH_BYTE = 32;
+    private static final int MEASURE_ROUNDS = 3;
+
+    private final KeyStretchingFunction.Factory factory;
+    private final long targetNanos;
+    private final StoreMetadata metadata;
+    private final KeyStretchingFunction configuredFunction;
+    private final boolean existingStore;
+    private final Ticker ticker;
+    private volatile KeyStretchingFunction delegate;
+
+    /**
+     * Creates a new instance
+     *
+     * @param factory            creating the functions with a given cost
+     * @param targetNanos        the duration a stretch operation should take
+     * @param metadata           of the store, to persist the cost
+     * @param configuredFunction used if the store was created without calibration
+     * @param existingStore      true if the store already existed, so it may contain content of the configured function
+     */
+    CalibratedKeyStretcher(KeyStretchingFunction.Factory factory, long targetNanos, StoreMetadata metadata,
+                           KeyStretchingFunction configuredFunction, boolean existingStore) {
+        this(factory, targetNanos, metadata, configuredFunction, existingStore, Ticker.SYSTEM);
+    }
+
+    /**
+     * Same as above, but with the time source of the measurements
+     */
+    CalibratedKeyStretcher(KeyStretchingFunction.Factory factory, long targetNanos, StoreMetadata metadata,
+                           KeyStretchingFunction configuredFunction, boolean existingStore, Ticker ticker) {
+        this.factory = factory;
+        this.targetNanos = targetNanos;
+        this.metadata = metadata;
+        this.configuredFunction = configuredFunction;
+        this.existingStore = existingStore;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public byte[] stretch(byte[] salt, char[] password, int outLengthByte) {
+        return getDelegate().stretch(salt, password, outLengthByte);
+    }
+
+    private KeyStretchingFunction getDelegate() {
+        KeyStretchingFunction current = delegate;
+        if (current == null) {
+            synchronized (this) {
+                current = delegate;
+                if (current == null) {
+                    current = resolve();
+                    delegate = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reads the persisted cost or, if there is none, calibrates and persists it
+     *
+     * @return the function to use for this store
+     */
+    private KeyStretchingFunction resolve() {
+        byte[] persisted = metadata.get(METADATA_NAME);
+        if (persisted == null) {
+            final ByteBuffer value = ByteBuffer.allocate(5);
+            if (existingStore) {
+                value.put(TYPE_CONFIGURED).putInt(0);
+            } else {
+                value.put(TYPE_CALIBRATED).putInt(calibrate());
+            }
+            //another instance of the same store might have been faster
+            persisted = metadata.putIfAbsent(METADATA_NAME, value.array());
+            if (persisted == null) {
+                throw new IllegalStateException("could not persist key stretching cost");
+            }
+        }
+
+        if (persisted.length != 5) {
+            throw new IllegalStateException("invalid persisted key stretching cost " + Bytes.wrap(persisted).encodeHex());
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(persisted);
+        final byte type = buffer.get();
+        final int cost = buffer.getInt();
+        if (type == TYPE_CONFIGURED) {
+            return configuredFunction;
+        }
+        if (type != TYPE_CALIBRATED || cost < factory.getMinCost() || cost > factory.getMaxCost()) {
+            throw new IllegalStateException("invalid persisted key stretching cost " + Bytes.wrap(persisted).encodeHex());
+        }
+        return factory.create(cost);
+    }
+
+    /**
+     * Measures the functions with increasing cost until a measurement takes at least a quarter of the target
+     * duration, then estimates the cost of the target duration from the fastest of a few measurements with
+     * that cost. The calibration therefore takes about one to three times the target duration.
+     *
+     * @return the calibrated cost
+     */
+    int calibrate() {
+        final byte[] salt = new byte[16];
+        final char[] password = "calibration".toCharArray();
+
+        int cost = factory.getMinCost();
+        //warm up
+        measure(cost, salt, password);
+        long nanos = measure(cost, salt, password);
+        while (nanos < targetNanos / 4 && cost < factory.getMaxCost()) {
+            final int nextCost = Math.min(factory.getMaxCost(), factory.scaleCost(cost, 4));
+            if (nextCost <= cost) {
+                break;
+            }
+            cost = nextCost;
+            nanos = measure(cost, salt, password);
+        }
+
+        //the cost is persisted, so a single measurement slowed down by e.g. a gc pause must not decide it
+        for (int round = 1; round < MEASURE_ROUNDS; round++) {
+            nanos = Math.min(nanos, measure(cost, salt, password));
+        }
+
+        final int calibrated = Math.max(factory.getMinCost(), Math.min(factory.getMaxCost(),
+                factory.scaleCost(cost, (double) targetNanos / Math.max(1, nanos))));
+        Timber.d("calibrated key stretching cost %d (measured %d ns with cost %d)", calibrated, nanos, cost);
+        return calibrated;
+    }
+
+    private long measure(int cost, byte[] salt, char[] password) {
+        final KeyStretchingFunction function = factory.create(cost);
+        final long start = ticker.nanoTime();
+        Bytes.wrap(function.stretch(salt, password, SAMPLE_OUT_LENGTH_BYTE)).mutable().secureWipe();
+        return ticker.nanoTime() - start;
+    }
+
+    /**
+     * The time source of the measurements
+     */
+    interface Ticker {
+        Ticker SYSTEM = new Ticker() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        /**
+         * @return current value of a monotonic clock in nanoseconds, see {@link System#nanoTime()}
+         */
+        long nanoTime();
+    }
+}
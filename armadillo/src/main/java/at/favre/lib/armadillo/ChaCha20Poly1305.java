@@ -0,0 +1,327 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+
+/**
+ * A pure Java implementation of the ChaCha20-Poly1305 AEAD construction as defined in
+ * <a href="https://tools.ietf.org/html/rfc8439">RFC 8439</a>. Used by {@link ChaCha20Poly1305Encryption}
+ * if the platform does not provide it (before Android P).
+ * <p>
+ * ChaCha20 only uses additions, rotations and xor on 32 bit words, so it is fast and constant time without
+ * special cpu instructions; Poly1305 is implemented with 26 bit limbs so all products fit into a long.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class ChaCha20Poly1305 {
+    static final int KEY_LENGTH_BYTE = 32;
+    static final int NONCE_LENGTH_BYTE = 12;
+    static final int TAG_LENGTH_BYTE = 16;
+
+    private static final int BLOCK_LENGTH_BYTE = 64;
+    private static final int[] SIGMA = {0x61707865, 0x3320646e, 0x79622d32, 0x6b206574};
+
+    private ChaCha20Poly1305() {
+    }
+
+    /**
+     * Encrypts the input and writes the cipher text followed by the tag to the output
+     *
+     * @param key            32 byte key
+     * @param nonce          array containing the 12 byte nonce
+     * @param nonceOffset    start of the nonce
+     * @param associatedData authenticated, but not encrypted
+     * @param in             plaintext
+     * @param inOffset       start of the plain text
+     * @param length         of the plain text
+     * @param out            output, must have space for length + {@link #TAG_LENGTH_BYTE} bytes; may be the input array
+     * @param outOffset      start of the output
+     */
+    static void seal(byte[] key, byte[] nonce, int nonceOffset, @Nullable byte[] associatedData,
+                     byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+        final int[] state = initState(key, nonce, nonceOffset);
+        final byte[] polyKey = polyKey(state);
+        try {
+            xorKeyStream(state, in, inOffset, length, out, outOffset);
+            tag(polyKey, associatedData, out, outOffset, length, out, outOffset + length);
+        } finally {
+            Arrays.fill(polyKey, (byte) 0);
+            Arrays.fill(state, 0);
+        }
+    }
+
+    /**
+     * Verifies the tag and decrypts the cipher text
+     *
+     * @param key            32 byte key
+     * @param nonce          array containing the 12 byte nonce
+     * @param nonceOffset    start of the nonce
+     * @param associatedData must be the same as used for encryption
+     * @param in             cipher text followed by the tag
+     * @param inOffset       start of the cipher text
+     * @param length         of the cipher text including the tag
+     * @return the plaintext
+     * @throws AEADBadTagException if the tag does not match
+     */
+    static byte[] open(byte[] key, byte[] nonce, int nonceOffset, @Nullable byte[] associatedData,
+                       byte[] in, int inOffset, int length) throws AEADBadTagException {
+        if (length < TAG_LENGTH_BYTE) {
+            throw new AEADBadTagException("input too short");
+        }
+
+        final int contentLength = length - TAG_LENGTH_BYTE;
+        final int[] state = initState(key, nonce, nonceOffset);
+        final byte[] polyKey = polyKey(state);
+        final byte[] expectedTag = new byte[TAG_LENGTH_BYTE];
+        try {
+            tag(polyKey, associatedData, in, inOffset, contentLength, expectedTag, 0);
+            if (!MessageDigest.isEqual(expectedTag, Arrays.copyOfRange(in, inOffset + contentLength, inOffset + length))) {
+                throw new AEADBadTagException("tag mismatch");
+            }
+
+            final byte[] out = new byte[contentLength];
+            xorKeyStream(state, in, inOffset, contentLength, out, 0);
+            return out;
+        } finally {
+            Arrays.fill(polyKey, (byte) 0);
+            Arrays.fill(state, 0);
+        }
+    }
+
+    private static int[] initState(byte[] key, byte[] nonce, int nonceOffset) {
+        if (key.length != KEY_LENGTH_BYTE) {
+            throw new IllegalArgumentException("key must be " + KEY_LENGTH_BYTE + " bytes");
+        }
+
+        final int[] state = new int[16];
+        System.arraycopy(SIGMA, 0, state, 0, 4);
+        for (int i = 0; i < 8; i++) {
+            state[4 + i] = readIntLE(key, i * 4);
+        }
+        for (int i = 0; i < 3; i++) {
+            state[13 + i] = readIntLE(nonce, nonceOffset + i * 4);
+        }
+        return state;
+    }
+
+    /**
+     * The one time Poly1305 key is the first half of the key stream block with counter 0
+     */
+    private static byte[] polyKey(int[] state) {
+        final int[] block = new int[16];
+        state[12] = 0;
+        chachaBlock(state, block);
+
+        final byte[] polyKey = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            writeIntLE(block[i], polyKey, i * 4);
+        }
+        Arrays.fill(block, 0);
+        return polyKey;
+    }
+
+    /**
+     * Xors the key stream starting with block counter 1 into the output
+     */
+    private static void xorKeyStream(int[] state, byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+        final int[] block = new int[16];
+        state[12] = 1;
+        for (int done = 0; done < length; done += BLOCK_LENGTH_BYTE) {
+            chachaBlock(state, block);
+            state[12]++;
+
+            final int blockLength = Math.min(BLOCK_LENGTH_BYTE, length - done);
+            for (int i = 0; i < blockLength; i++) {
+                out[outOffset + done + i] = (byte) (in[inOffset + done + i] ^ (block[i >> 2] >>> ((i & 3) << 3)));
+            }
+        }
+        Arrays.fill(block, 0);
+    }
+
+    private static void chachaBlock(int[] input, int[] x) {
+        System.arraycopy(input, 0, x, 0, 16);
+        for (int i = 0; i < 10; i++) {
+            quarterRound(x, 0, 4, 8, 12);
+            quarterRound(x, 1, 5, 9, 13);
+            quarterRound(x, 2, 6, 10, 14);
+            quarterRound(x, 3, 7, 11, 15);
+            quarterRound(x, 0, 5, 10, 15);
+            quarterRound(x, 1, 6, 11, 12);
+            quarterRound(x, 2, 7, 8, 13);
+            quarterRound(x, 3, 4, 9, 14);
+        }
+        for (int i = 0; i < 16; i++) {
+            x[i] += input[i];
+        }
+    }
+
+    private static void quarterRound(int[] x, int a, int b, int c, int d) {
+        x[a] += x[b];
+        x[d] = Integer.rotateLeft(x[d] ^ x[a], 16);
+        x[c] += x[d];
+        x[b] = Integer.rotateLeft(x[b] ^ x[c], 12);
+        x[a] += x[b];
+        x[d] = Integer.rotateLeft(x[d] ^ x[a], 8);
+        x[c] += x[d];
+        x[b] = Integer.rotateLeft(x[b] ^ x[c], 7);
+    }
+
+    /**
+     * Calculates the Poly1305 tag over aad | pad16 | cipher text | pad16 | len(aad) | len(cipher text)
+     */
+    private static void tag(byte[] polyKey, @Nullable byte[] associatedData, byte[] cipherText, int offset, int length,
+                            byte[] out, int outOffset) {
+        final Poly1305 poly1305 = new Poly1305(polyKey);
+        if (associatedData != null) {
+            poly1305.updatePadded(associatedData, 0, associatedData.length);
+        }
+        poly1305.updatePadded(cipherText, offset, length);
+
+        final byte[] lengths = new byte[16];
+        final long aadLength = associatedData != null ? associatedData.length : 0;
+        writeIntLE((int) aadLength, lengths, 0);
+        writeIntLE((int) (aadLength >>> 32), lengths, 4);
+        writeIntLE(length, lengths, 8);
+        poly1305.updatePadded(lengths, 0, 16);
+        poly1305.finish(out, outOffset);
+    }
+
+    private static int readIntLE(byte[] in, int offset) {
+        return (in[offset] & 0xff) | (in[offset + 1] & 0xff) << 8 | (in[offset + 2] & 0xff) << 16 | (in[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeIntLE(int value, byte[] out, int offset) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Poly1305 with 26 bit limbs. Only supports full 16 byte blocks, which is all the AEAD construction needs
+     * since every part is padded to 16 bytes.
+     */
+    private static final class Poly1305 {
+        private static final int MASK = 0x3ffffff;
+
+        private final int r0, r1, r2, r3, r4;
+        private final int s1, s2, s3, s4;
+        private final int pad0, pad1, pad2, pad3;
+        private int h0, h1, h2, h3, h4;
+
+        private Poly1305(byte[] key) {
+            final int t0 = readIntLE(key, 0);
+            final int t1 = readIntLE(key, 4);
+            final int t2 = readIntLE(key, 8);
+            final int t3 = readIntLE(key, 12);
+
+            //clamped r
+            r0 = t0 & 0x3ffffff;
+            r1 = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+            r2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+            r3 = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+            r4 = (t3 >>> 8) & 0x00fffff;
+
+            s1 = r1 * 5;
+            s2 = r2 * 5;
+            s3 = r3 * 5;
+            s4 = r4 * 5;
+
+            pad0 = readIntLE(key, 16);
+            pad1 = readIntLE(key, 20);
+            pad2 = readIntLE(key, 24);
+            pad3 = readIntLE(key, 28);
+        }
+
+        private void updatePadded(byte[] data, int offset, int length) {
+            final int fullBlocksEnd = offset + (length & ~15);
+            for (int i = offset; i < fullBlocksEnd; i += 16) {
+                block(data, i);
+            }
+            if (fullBlocksEnd != offset + length) {
+                final byte[] last = new byte[16];
+                System.arraycopy(data, fullBlocksEnd, last, 0, offset + length - fullBlocksEnd);
+                block(last, 0);
+            }
+        }
+
+        private void block(byte[] data, int offset) {
+            final int t0 = readIntLE(data, offset);
+            final int t1 = readIntLE(data, offset + 4);
+            final int t2 = readIntLE(data, offset + 8);
+            final int t3 = readIntLE(data, offset + 12);
+
+            h0 += t0 & MASK;
+            h1 += ((t0 >>> 26) | (t1 << 6)) & MASK;
+            h2 += ((t1 >>> 20) | (t2 << 12)) & MASK;
+            h3 += ((t2 >>> 14) | (t3 << 18)) & MASK;
+            h4 += (t3 >>> 8) | (1 << 24);
+
+            final long d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+            long d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+            long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+            long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+            long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+            h0 = (int) d0 & MASK;
+            d1 += d0 >>> 26;
+            h1 = (int) d1 & MASK;
+            d2 += d1 >>> 26;
+            h2 = (int) d2 & MASK;
+            d3 += d2 >>> 26;
+            h3 = (int) d3 & MASK;
+            d4 += d3 >>> 26;
+            h4 = (int) d4 & MASK;
+            final long c = (d4 >>> 26) * 5 + h0;
+            h0 = (int) c & MASK;
+            h1 += (int) (c >>> 26);
+        }
+
+        private void finish(byte[] out, int offset) {
+            //full carry
+            h2 += h1 >>> 26;
+            h1 &= MASK;
+            h3 += h2 >>> 26;
+            h2 &= MASK;
+            h4 += h3 >>> 26;
+            h3 &= MASK;
+            h0 += (h4 >>> 26) * 5;
+            h4 &= MASK;
+            h1 += h0 >>> 26;
+            h0 &= MASK;
+
+            //compute h - p and select it if it is not negative
+            int g0 = h0 + 5;
+            int g1 = h1 + (g0 >>> 26);
+            g0 &= MASK;
+            int g2 = h2 + (g1 >>> 26);
+            g1 &= MASK;
+            int g3 = h3 + (g2 >>> 26);
+            g2 &= MASK;
+            final int g4 = h4 + (g3 >>> 26) - (1 << 26);
+            g3 &= MASK;
+
+            final int selectG = (g4 >>> 31) - 1;
+            final int selectH = ~selectG;
+            h0 = (h0 & selectH) | (g0 & selectG);
+            h1 = (h1 & selectH) | (g1 & selectG);
+            h2 = (h2 & selectH) | (g2 & selectG);
+            h3 = (h3 & selectH) | (g3 & selectG);
+            h4 = (h4 & selectH) | (g4 & selectG);
+
+            //h mod 2^128 + pad
+            long f = ((h0 | (h1 << 26)) & 0xffffffffL) + (pad0 & 0xffffffffL);
+            writeIntLE((int) f, out, offset);
+            f = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (pad1 & 0xffffffffL) + (f >>> 32);
+            writeIntLE((int) f, out, offset + 4);
+            f = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (pad2 & 0xffffffffL) + (f >>> 32);
+            writeIntLE((int) f, out, offset + 8);
+            f = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (pad3 & 0xffffffffL) + (f >>> 32);
+            writeIntLE((int) f, out, offset + 12);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.security.InvalidKeyException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Implements ChaCha20-Poly1305 (see https://tools.ietf.org/html/rfc8439), an authenticated encryption
+ * which does not need any special cpu instructions to be fast and constant time. On devices without AES
+ * hardware acceleration this is considerably faster than {@link AesGcmEncryption}.
+ * <p>
+ * The cipher provided by the platform is used if available (since Android P), otherwise a pure Java
+ * implementation ({@link ChaCha20Poly1305}) which produces the same output. Every encryption uses a new
+ * 12 byte random nonce. ChaCha20 always uses 256 bit keys, regardless of the key strength.
+ * <p>
+ * The nonce, encrypted content and auth tag will be encoded to the same format as {@link AesGcmEncryption}:
+ * <p>
+ * out = byte[] {x y y y y y y y y y y y y z z z ...}
+ * <p>
+ * x = nonce length as byte
+ * y = nonce bytes
+ * z = content bytes followed by the 16 byte tag
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+final class ChaCha20Poly1305Encryption implements AuthenticatedEncryption {
+    private static final String[] ALGORITHMS = {"ChaCha20-Poly1305", "ChaCha20/Poly1305/NoPadding"};
+    private static final String KEY_ALGORITHM = "ChaCha20";
+
+    private final SecureRandom secureRandom;
+    private final Provider provider;
+    @Nullable
+    private final String algorithm;
+    private final ThreadLocal<Cipher> cipherHolder = new ThreadLocal<>();
+
+    public ChaCha20Poly1305Encryption() {
+        this(new SecureRandom(), null);
+    }
+
+    public ChaCha20Poly1305Encryption(SecureRandom secureRandom) {
+        this(secureRandom, null);
+    }
+
+    public ChaCha20Poly1305Encryption(SecureRandom secureRandom, Provider provider) {
+        this(secureRandom, provider, true);
+    }
+
+    /**
+     * @param useProvidedCipher if false, always uses the pure Java implementation
+     */
+    ChaCha20Poly1305Encryption(SecureRandom secureRandom, Provider provider, boolean useProvidedCipher) {
+        this.secureRandom = secureRandom;
+        this.provider = provider;
+        this.algorithm = useProvidedCipher ? findAlgorithm(provider) : null;
+    }
+
+    /**
+     * @return true if the cipher of the platform is used instead of the pure Java implementation
+     */
+    boolean usesProvidedCipher() {
+        return algorithm != null;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        return encrypt(rawEncryptionKey, rawData, associatedData, 0);
+    }
+
+    /**
+     * Writes the nonce and the output of the cipher directly into the returned array (no intermediate copies).
+     */
+    @Override
+    public byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
+        if (rawEncryptionKey.length != ChaCha20Poly1305.KEY_LENGTH_BYTE) {
+            throw new IllegalArgumentException("key length must be " + ChaCha20Poly1305.KEY_LENGTH_BYTE + " byte");
+        }
+
+        final byte[] nonce = new byte[ChaCha20Poly1305.NONCE_LENGTH_BYTE];
+        secureRandom.nextBytes(nonce);
+
+        final byte[] out = encrypt(rawEncryptionKey, nonce, rawData, associatedData, headerLength + 1 + nonce.length);
+        out[headerLength] = (byte) nonce.length;
+        System.arraycopy(nonce, 0, out, headerLength + 1, nonce.length);
+        return out;
+    }
+
+    @Override
+    public byte[] encryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] rawData, @Nullable byte[] associatedData, int headerLength) throws AuthenticatedEncryptionException {
+        if (rawEncryptionKey.length != ChaCha20Poly1305.KEY_LENGTH_BYTE) {
+            throw new IllegalArgumentException("key length must be " + ChaCha20Poly1305.KEY_LENGTH_BYTE + " byte");
+        }
+        if (nonce.length != ChaCha20Poly1305.NONCE_LENGTH_BYTE) {
+            throw new IllegalArgumentException("nonce length must be " + ChaCha20Poly1305.NONCE_LENGTH_BYTE + " byte");
+        }
+        return encrypt(rawEncryptionKey, nonce, rawData, associatedData, headerLength);
+    }
+
+    private byte[] encrypt(byte[] rawEncryptionKey, byte[] nonce, byte[] rawData, @Nullable byte[] associatedData,
+                           int contentOffset) throws AuthenticatedEncryptionException {
+        try {
+            byte[] out = new byte[contentOffset + rawData.length + ChaCha20Poly1305.TAG_LENGTH_BYTE];
+
+            if (algorithm == null) {
+                ChaCha20Poly1305.seal(rawEncryptionKey, nonce, 0, associatedData, rawData, 0, rawData.length, out, contentOffset);
+                return out;
+            }
+
+            final Cipher cipher = getCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(rawEncryptionKey, KEY_ALGORITHM), new IvParameterSpec(nonce));
+            if (associatedData != null) {
+                cipher.updateAAD(associatedData);
+            }
+            final int written = cipher.doFinal(rawData, 0, rawData.length, out, contentOffset);
+            if (contentOffset + written != out.length) {
+                out = Arrays.copyOf(out, contentOffset + written);
+            }
+            return out;
+        } catch (Exception e) {
+            throw new AuthenticatedEncryptionException("could not encrypt", e);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(byte[] rawEncryptionKey, byte[] encryptedData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        final int nonceLength = encryptedData.length > 0 ? encryptedData[0] : -1;
+        if (nonceLength != ChaCha20Poly1305.NONCE_LENGTH_BYTE || 1 + nonceLength > encryptedData.length) {
+            throw new AuthenticatedEncryptionException("could not decrypt", new IllegalArgumentException("invalid nonce length " + nonceLength));
+        }
+        return decrypt(rawEncryptionKey, encryptedData, 1, encryptedData, 1 + nonceLength, associatedData);
+    }
+
+    @Override
+    public byte[] decryptWithNonce(byte[] rawEncryptionKey, byte[] nonce, byte[] encryptedData, int offset, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        if (nonce.length != ChaCha20Poly1305.NONCE_LENGTH_BYTE) {
+            throw new IllegalArgumentException("nonce length must be " + ChaCha20Poly1305.NONCE_LENGTH_BYTE + " byte");
+        }
+        return decrypt(rawEncryptionKey, nonce, 0, encryptedData, offset, associatedData);
+    }
+
+    private byte[] decrypt(byte[] rawEncryptionKey, byte[] nonce, int nonceOffset, byte[] encryptedData, int contentOffset,
+                           @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+        try {
+            final byte[] decrypted;
+            if (algorithm == null) {
+                decrypted = ChaCha20Poly1305.open(rawEncryptionKey, nonce, nonceOffset, associatedData,
+                        encryptedData, contentOffset, encryptedData.length - contentOffset);
+            } else {
+                final Cipher cipher = getDecryptionCipher(new SecretKeySpec(rawEncryptionKey, KEY_ALGORITHM),
+                        new IvParameterSpec(nonce, nonceOffset, ChaCha20Poly1305.NONCE_LENGTH_BYTE));
+                if (associatedData != null) {
+                    cipher.updateAAD(associatedData);
+                }
+                decrypted = cipher.doFinal(encryptedData, contentOffset, encryptedData.length - contentOffset);
+            }
+
+            Arrays.fill(rawEncryptionKey, (byte) 0);
+
+            return decrypted;
+        } catch (Exception e) {
+            throw new AuthenticatedEncryptionException("could not decrypt", e);
+        }
+    }
+
+    @Override
+    public int nonceLength() {
+        return ChaCha20Poly1305.NONCE_LENGTH_BYTE;
+    }
+
+    @Override
+    public int byteSizeLength(@KeyStrength int keyStrengthType) {
+        return ChaCha20Poly1305.KEY_LENGTH_BYTE;
+    }
+
+    /**
+     * Gets the cipher instance confined to the current thread, see {@link AesGcmEncryption}
+     *
+     * @return cipher only used by the current thread
+     */
+    private Cipher getCipher() {
+        Cipher cipher = cipherHolder.get();
+        if (cipher == null) {
+            try {
+                cipher = createCipher(algorithm, provider);
+            } catch (Exception e) {
+                throw new IllegalStateException("could not get cipher instance", e);
+            }
+            cipherHolder.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Gets the cipher of the current thread initialized for decryption. Some providers refuse to initialize a
+     * cipher with the key and nonce of its previous initialization, even for decryption (e.g. when reading content
+     * which was just encrypted by the same thread), so in that case a new instance is used.
+     */
+    private Cipher getDecryptionCipher(SecretKeySpec key, IvParameterSpec nonce) throws Exception {
+        Cipher cipher = getCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, nonce);
+        } catch (InvalidKeyException e) {
+            cipher = createCipher(algorithm, provider);
+            cipher.init(Cipher.DECRYPT_MODE, key, nonce);
+            cipherHolder.set(cipher);
+        }
+        return cipher;
+    }
+
+    @Nullable
+    private static String findAlgorithm(@Nullable Provider provider) {
+        for (String algorithm : ALGORITHMS) {
+            try {
+                createCipher(algorithm, provider);
+                return algorithm;
+            } catch (Exception ignore) {
+                //try next name
+            }
+        }
+        return null;
+    }
+
+    private static Cipher createCipher(String algorithm, @Nullable Provider provider) throws Exception {
+        if (provider != null) {
+            return Cipher.getInstance(algorithm, provider);
+        }
+        return Cipher.getInstance(algorithm);
+    }
+}
@@ -0,0 +1,187 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Defines how the encrypted content of a {@link SecureSharedPreferences} is laid out in the underlying
+ * {@link KeyValueStorage}. All keys used here are hashed content keys (see {@link EncryptionProtocol#deriveContentKey(String)}).
+ * <p>
+ * The store always uses the current {@link EncryptionProtocol} which will be replaced if the storage salt
+ * changes (i.e. after a clear). Writes carry a sequence number, so a batch which finishes late will never
+ * overwrite changes of a newer batch or survive a newer clear.
+ *
+ * @author Patrick Favre-Bulle
+ */
+abstract class ContentStore {
+    final KeyValueStorage storage;
+    final String storageSaltKey;
+    final String metadataKey;
+    @Nullable
+    final char[] password;
+    final RecoveryPolicy recoveryPolicy;
+    final Executor executor;
+    final Object writeLock = new Object();
+    volatile EncryptionProtocol encryptionProtocol;
+
+    private final Map<String, Long> lastWrittenSequence = new ConcurrentHashMap<>();
+    private long lastClearSequence;
+
+    ContentStore(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                 RecoveryPolicy recoveryPolicy, Executor executor) {
+        this.storage = storage;
+        this.storageSaltKey = storageSaltKey;
+        this.metadataKey = metadataKey;
+        this.password = password;
+        this.recoveryPolicy = recoveryPolicy;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the protocol used for all further operations; called initially and every time the storage salt changes
+     *
+     * @param encryptionProtocol to use
+     */
+    void setEncryptionProtocol(EncryptionProtocol encryptionProtocol) {
+        this.encryptionProtocol = encryptionProtocol;
+    }
+
+    /**
+     * Gets the decrypted single value
+     *
+     * @param keyHash hashed content key
+     * @return plaintext (caller owns the array) or null if not found or not decryptable
+     */
+    @Nullable
+    abstract byte[] get(String keyHash);
+
+    /**
+     * Gets the decrypted elements of a string set
+     *
+     * @param keyHash hashed content key
+     * @return plaintext elements (caller owns the arrays) or null if not found
+     */
+    @Nullable
+    abstract List<byte[]> getSet(String keyHash);
+
+    abstract boolean contains(String keyHash);
+
+    /**
+     * All hashed content keys of this store, not including internal entries
+     *
+     * @return set of keys
+     */
+    abstract Set<String> getKeyHashes();
+
+    /**
+     * Reads and decrypts all given keys at once. Not existing or not decryptable keys will be omitted.
+     *
+     * @param keyHashes hashed content keys to read
+     * @param values    will be filled with the single values
+     * @param setValues will be filled with the string set values
+     */
+    abstract void getAll(Collection<String> keyHashes, Map<String, byte[]> values, Map<String, List<byte[]>> setValues);
+
+    /**
+     * Encrypts and persists given batch of changes. The batch will not be modified.
+     *
+     * @param sequence    the order of the batch; changes of a batch will never overwrite changes of a newer one
+     * @param batch       the changes to persist
+     * @param clear       if all content should be removed first
+     * @param synchronous if the underlying editor should use commit() instead of apply()
+     * @return the result of the underlying commit()
+     */
+    abstract boolean write(long sequence, Map<String, Mutation> batch, boolean clear, boolean synchronous);
+
+    /**
+     * Checks if a batch with given sequence is still relevant and registers its clear. Must hold {@link #writeLock}.
+     *
+     * @param sequence of the batch
+     * @param clear    if the batch clears the store
+     * @return false if the batch was superseded by a newer clear and must not be written
+     */
+    boolean beginWrite(long sequence, boolean clear) {
+        if (sequence <= lastClearSequence) {
+            return false;
+        }
+        if (clear) {
+            lastClearSequence = sequence;
+            lastWrittenSequence.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the change of given key may be written and registers it. Must hold {@link #writeLock}.
+     *
+     * @param keyHash  hashed content key
+     * @param sequence of the batch
+     * @return false if a newer batch already wrote this key
+     */
+    boolean claimWrite(String keyHash, long sequence) {
+        final Long lastSequence = lastWrittenSequence.get(keyHash);
+        if (lastSequence != null && lastSequence > sequence) {
+            return false;
+        }
+        lastWrittenSequence.put(keyHash, sequence);
+        return true;
+    }
+
+    /**
+     * Checks if given batch was the last one to write the key, i.e. if it was neither skipped nor overwritten
+     * by a newer batch or clear. Does not need {@link #writeLock}.
+     *
+     * @param keyHash  hashed content key
+     * @param sequence of the batch
+     * @return true if the persisted value of the key is the one of given batch
+     */
+    boolean isLastWrite(String keyHash, long sequence) {
+        final Long lastSequence = lastWrittenSequence.get(keyHash);
+        return lastSequence != null && lastSequence == sequence;
+    }
+
+    /**
+     * Applies the {@link RecoveryPolicy} to content which could not be decrypted
+     *
+     * @param key the underlying key of the broken content
+     * @param e   the cause
+     * @return always null, if the policy does not throw
+     */
+    @Nullable
+    byte[] handleDecryptionError(String key, EncryptionProtocolException e) {
+        if (recoveryPolicy.shouldRemoveBrokenContent()) {
+            storage.edit().remove(key).apply();
+        }
+        if (recoveryPolicy.shouldThrowRuntimeException()) {
+            throw new SecureSharedPreferenceCryptoException("could not decrypt " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * Removes all content with given editor, but keeps the {@link StoreMetadata} which does not depend on the storage salt
+     *
+     * @param editor to clear
+     */
+    void clear(KeyValueStorage.Editor editor) {
+        final byte[] metadata = storage.get(metadataKey);
+        editor.clear();
+        if (metadata != null) {
+            editor.put(metadataKey, metadata);
+        }
+    }
+
+    /**
+     * Creates a new instance of a {@link ContentStore}
+     */
+    interface Factory {
+        ContentStore create(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                            RecoveryPolicy recoveryPolicy, Executor executor);
+    }
+}
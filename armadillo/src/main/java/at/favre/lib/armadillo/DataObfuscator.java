@@ -2,6 +2,8 @@ package at.favre.lib.armadillo;
 
 import android.support.annotation.NonNull;
 
+import java.util.Arrays;
+
 /**
  * Data obfuscation which obfuscates the given byte arrays.
  * Obfuscation is the deliberate act of creating data that is difficult for humans to understand.
@@ -26,6 +28,40 @@ public interface DataObfuscator {
      */
     void deobfuscate(@NonNull byte[] obfuscated);
 
+    /**
+     * Obfuscates the given range of the byte array in place.
+     * <p>
+     * The default implementation copies the range; implementations should override this to work directly
+     * on the given array.
+     *
+     * @param original out parameter
+     * @param offset   start of the range
+     * @param length   of the range
+     */
+    default void obfuscate(@NonNull byte[] original, int offset, int length) {
+        final byte[] range = Arrays.copyOfRange(original, offset, offset + length);
+        obfuscate(range);
+        System.arraycopy(range, 0, original, offset, length);
+        Arrays.fill(range, (byte) 0);
+    }
+
+    /**
+     * De-Obfuscates the given range of the byte array in place.
+     * <p>
+     * The default implementation copies the range; implementations should override this to work directly
+     * on the given array.
+     *
+     * @param obfuscated out parameter
+     * @param offset     start of the range
+     * @param length     of the range
+     */
+    default void deobfuscate(@NonNull byte[] obfuscated, int offset, int length) {
+        final byte[] range = Arrays.copyOfRange(obfuscated, offset, offset + length);
+        deobfuscate(range);
+        System.arraycopy(range, 0, obfuscated, offset, length);
+        Arrays.fill(range, (byte) 0);
+    }
+
     /**
      * Clears the internal key reference
      */
@@ -0,0 +1,114 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * An immutable, decrypted copy of a selection of entries of a {@link SecureSharedPreferences}
+ * created by {@link SecureSharedPreferences#getAllDecrypted(java.util.Collection)}.
+ * <p>
+ * Since the store does not persist the type of a value, the typed getters interpret the plaintext
+ * the same way the getters of {@link SecureSharedPreferences} do. The snapshot holds plaintext
+ * in memory, so call {@link #wipe()} as soon as it is not needed anymore.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class DecryptedSnapshot {
+    private final Map<String, byte[]> values;
+    private final Map<String, List<byte[]>> setValues;
+
+    DecryptedSnapshot(Map<String, byte[]> values, Map<String, List<byte[]>> setValues) {
+        this.values = values;
+        this.setValues = setValues;
+    }
+
+    /**
+     * All original keys which could be found and decrypted
+     *
+     * @return unmodifiable set of keys
+     */
+    public Set<String> keySet() {
+        Set<String> keys = new HashSet<>(values.keySet());
+        keys.addAll(setValues.keySet());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * @return the keys of all single (non-set) values, backed by the snapshot
+     */
+    Set<String> singleValueKeySet() {
+        return values.keySet();
+    }
+
+    public int size() {
+        return values.size() + setValues.size();
+    }
+
+    public boolean contains(String key) {
+        return values.containsKey(key) || setValues.containsKey(key);
+    }
+
+    @Nullable
+    public String getString(String key, @Nullable String defaultValue) {
+        byte[] value = values.get(key);
+        return value != null ? Bytes.wrap(value).encodeUtf8() : defaultValue;
+    }
+
+    @Nullable
+    public Set<String> getStringSet(String key, @Nullable Set<String> defaultValues) {
+        List<byte[]> set = setValues.get(key);
+        if (set == null) {
+            return defaultValues;
+        }
+
+        Set<String> decodedSet = new HashSet<>(set.size());
+        for (byte[] value : set) {
+            decodedSet.add(Bytes.wrap(value).encodeUtf8());
+        }
+        return decodedSet;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        byte[] value = values.get(key);
+        return value != null ? Bytes.wrap(value).toInt() : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        byte[] value = values.get(key);
+        return value != null ? Bytes.wrap(value).toLong() : defaultValue;
+    }
+
+    public float getFloat(String key, float defaultValue) {
+        byte[] value = values.get(key);
+        return value != null ? Bytes.wrap(value).toFloat() : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        byte[] value = values.get(key);
+        return value != null ? value[0] != 0 : defaultValue;
+    }
+
+    /**
+     * Overwrites all held plaintext; the snapshot will be empty afterwards
+     */
+    public void wipe() {
+        for (byte[] value : values.values()) {
+            Bytes.wrap(value).mutable().secureWipe();
+        }
+        for (List<byte[]> set : setValues.values()) {
+            for (byte[] value : set) {
+                Bytes.wrap(value).mutable().secureWipe();
+            }
+        }
+        values.clear();
+        setValues.clear();
+    }
+}
@@ -0,0 +1,184 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * A bounded least-recently-used cache for decrypted values, keyed by the hashed content key.
+ * <p>
+ * Reading an entry from {@link SecureSharedPreferences} requires the full decryption pipeline
+ * (key derivation, optional key stretching, de-obfuscation, authenticated decryption, decompression)
+ * which is wasteful if the same unchanged value is read over and over. This cache keeps
+ * the plaintext of the most recently used entries in memory.
+ * <p>
+ * Since plaintext in memory is a security trade-off, the cache can be configured with an
+ * idle timeout: if no access happens during the timeout, all cached values are wiped.
+ * Evicted or removed values are always wiped.
+ * <p>
+ * All methods are thread safe. Returned arrays are always copies.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class DecryptedValueCache {
+    private static ScheduledExecutorService scheduler;
+
+    private final int maxEntries;
+    private final long idleTimeoutNanos;
+    private final Map<String, byte[]> cache;
+    private final Metrics metrics;
+    private long lastAccessNanos;
+    private boolean wipeScheduled;
+
+    /**
+     * Creates a new cache
+     *
+     * @param maxEntries  max count of entries held, the least recently used will be evicted if exceeded
+     * @param idleTimeout after how long of no access all values should be wiped; 0 to disable
+     * @param unit        of the idle timeout
+     */
+    DecryptedValueCache(int maxEntries, long idleTimeout, TimeUnit unit) {
+        this(maxEntries, idleTimeout, unit, MetricsListener.NONE);
+    }
+
+    /**
+     * Creates a new cache reporting hits and misses
+     *
+     * @param maxEntries      max count of entries held, the least recently used will be evicted if exceeded
+     * @param idleTimeout     after how long of no access all values should be wiped; 0 to disable
+     * @param unit            of the idle timeout
+     * @param metricsListener receives every cache hit and miss
+     */
+    DecryptedValueCache(int maxEntries, long idleTimeout, TimeUnit unit, MetricsListener metricsListener) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("max entries must be greater than 0");
+        }
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("idle timeout must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.metrics = new Metrics(metricsListener);
+        this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                if (size() > DecryptedValueCache.this.maxEntries) {
+                    wipe(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a copy of the cached plaintext
+     *
+     * @param keyHash the hashed content key
+     * @return copy of the plaintext or null if not cached
+     */
+    @Nullable
+    synchronized byte[] get(String keyHash) {
+        touch();
+        byte[] value = cache.get(keyHash);
+        if (value == null) {
+            metrics.cacheMiss();
+            return null;
+        }
+        metrics.cacheHit();
+        return Bytes.from(value).array();
+    }
+
+    /**
+     * Put the plaintext for given key. A copy of the array will be saved.
+     *
+     * @param keyHash   the hashed content key
+     * @param plaintext to cache
+     */
+    synchronized void put(String keyHash, byte[] plaintext) {
+        touch();
+        wipe(cache.put(keyHash, Bytes.from(plaintext).array()));
+    }
+
+    /**
+     * Removes and wipes the value for given key if it exists
+     *
+     * @param keyHash the hashed content key
+     */
+    synchronized void remove(String keyHash) {
+        wipe(cache.remove(keyHash));
+    }
+
+    /**
+     * Removes and wipes all cached values
+     */
+    synchronized void clear() {
+        Iterator<byte[]> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            wipe(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    private void touch() {
+        if (idleTimeoutNanos == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastAccessNanos >= idleTimeoutNanos) {
+            clear();
+        }
+        lastAccessNanos = now;
+
+        if (!wipeScheduled) {
+            scheduleWipe(idleTimeoutNanos);
+        }
+    }
+
+    private void scheduleWipe(long delayNanos) {
+        wipeScheduled = true;
+        getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                onIdleCheck();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void onIdleCheck() {
+        long idleFor = System.nanoTime() - lastAccessNanos;
+        if (idleFor >= idleTimeoutNanos) {
+            clear();
+            wipeScheduled = false;
+        } else {
+            scheduleWipe(idleTimeoutNanos - idleFor);
+        }
+    }
+
+    private static void wipe(@Nullable byte[] value) {
+        if (value != null) {
+            Bytes.wrap(value).mutable().secureWipe();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, ArmadilloExecutors.newDaemonThreadFactory("armadillo-cache-wipe"));
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+}
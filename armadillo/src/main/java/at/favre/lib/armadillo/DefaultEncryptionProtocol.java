@@ -4,12 +4,17 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.HKDF;
-import timber.log.Timber;
 
 /**
  * The Armadillo Encryption Protocol. The whole protocol logic, orchestrating all the other parts.
@@ -19,36 +24,65 @@ import timber.log.Timber;
  */
 
 final class DefaultEncryptionProtocol implements EncryptionProtocol {
+    private static final int STRETCHED_PASSWORD_LENGTH_BYTE = 32;
+    private static final int CONTENT_KEY_CACHE_MAX_SIZE = 512;
+    private static final byte[] KDF_INFO = "DefaultEncryptionProtocol".getBytes();
+    private static final int CONTENT_SALT_LENGTH_BYTE = 16;
+    /**
+     * First byte of the encrypted content if it was encrypted with a nonce derived from the content salt; the
+     * authenticated encryptions otherwise start with the length of the included nonce
+     */
+    private static final byte IMPLICIT_NONCE_MARKER = 0;
+
     private final byte[] preferenceSalt;
+    private final HkdfEngine hkdf;
     private final EncryptionFingerprint fingerprint;
-    private final KeyStretchingFunction keyStretchingFunction;
-    private final AuthenticatedEncryption authenticatedEncryption;
-    private final DataObfuscator.Factory dataObfuscatorFactory;
+    private final EncryptionProtocolConfig defaultConfig;
+    private final List<EncryptionProtocolConfig> additionalDecryptionConfigs;
     private final StringMessageDigest stringMessageDigest;
-    private final Compressor compressor;
     private final SecureRandom secureRandom;
-    private final int keyLengthBit;
-    private final int protocolVersion;
-
-    private DefaultEncryptionProtocol(int protocolVersion, byte[] preferenceSalt, EncryptionFingerprint fingerprint,
-                                      StringMessageDigest stringMessageDigest, AuthenticatedEncryption authenticatedEncryption,
-                                      @AuthenticatedEncryption.KeyStrength int keyStrength, KeyStretchingFunction keyStretchingFunction,
-                                      DataObfuscator.Factory dataObfuscatorFactory, SecureRandom secureRandom, Compressor compressor) {
-        this.protocolVersion = protocolVersion;
+    private final Metrics metrics;
+    private final Map<KeyStretchingFunction, StretchedPassword> storeStretchedPasswords = new IdentityHashMap<>();
+    private final Map<EncryptionProtocolConfig, StoreKey> storeKeys = new ConcurrentHashMap<>();
+    private final Map<String, String> contentKeyCache = new ConcurrentHashMap<>();
+    private final Map<EncryptionProtocolConfig, byte[]> associatedData = new IdentityHashMap<>();
+
+    private DefaultEncryptionProtocol(EncryptionProtocolConfig defaultConfig, List<EncryptionProtocolConfig> additionalDecryptionConfigs,
+                                      byte[] preferenceSalt, EncryptionFingerprint fingerprint,
+                                      StringMessageDigest stringMessageDigest, SecureRandom secureRandom, Metrics metrics) {
+        this.defaultConfig = defaultConfig;
+        this.additionalDecryptionConfigs = additionalDecryptionConfigs;
         this.preferenceSalt = preferenceSalt;
-        this.authenticatedEncryption = authenticatedEncryption;
-        this.keyStretchingFunction = keyStretchingFunction;
+        this.hkdf = new HkdfEngine(HkdfEngine.HMAC_SHA512, preferenceSalt);
         this.fingerprint = fingerprint;
         this.stringMessageDigest = stringMessageDigest;
-        this.compressor = compressor;
-        this.keyLengthBit = authenticatedEncryption.byteSizeLength(keyStrength) * 8;
-        this.dataObfuscatorFactory = dataObfuscatorFactory;
         this.secureRandom = secureRandom;
+        this.metrics = metrics;
+        //only read after construction, so it does not need to be synchronized
+        this.associatedData.put(defaultConfig, Bytes.from(defaultConfig.protocolVersion).array());
+        for (EncryptionProtocolConfig config : additionalDecryptionConfigs) {
+            this.associatedData.put(config, Bytes.from(config.protocolVersion).array());
+        }
     }
 
+    /**
+     * The derived content key only depends on the original key and the storage salt, so it will be
+     * memoized for the lifetime of this instance (i.e. until the storage salt changes). The memo is bounded and
+     * will be reset if it exceeds {@link #CONTENT_KEY_CACHE_MAX_SIZE}.
+     */
     @Override
     public String deriveContentKey(String originalContentKey) {
-        return stringMessageDigest.derive(Bytes.from(originalContentKey).append(preferenceSalt).encodeUtf8(), "contentKey");
+        String contentKey = contentKeyCache.get(originalContentKey);
+        if (contentKey == null) {
+            final long start = metrics.start();
+            contentKey = stringMessageDigest.derive(Bytes.from(originalContentKey).append(preferenceSalt).encodeUtf8(), "contentKey");
+            metrics.stage(MetricsListener.STAGE_CONTENT_KEY_DIGEST, start, 0);
+            if (contentKeyCache.size() >= CONTENT_KEY_CACHE_MAX_SIZE) {
+                contentKeyCache.clear();
+            }
+            contentKeyCache.put(originalContentKey, contentKey);
+        }
+        return contentKey;
     }
 
     @Override
@@ -58,39 +92,115 @@ final class DefaultEncryptionProtocol implements EncryptionProtocol {
 
     @Override
     public byte[] encrypt(@NonNull String contentKey, char[] password, byte[] rawContent) throws EncryptionProtocolException {
-        long start = System.currentTimeMillis();
         byte[] fingerprintBytes = new byte[0];
         byte[] key = new byte[0];
+        final EncryptionProtocolConfig config = defaultConfig;
 
         try {
-            byte[] contentSalt = Bytes.random(16, secureRandom).array();
+            final byte[] contentSalt = createContentSalt(config);
+
+            fingerprintBytes = getFingerprintBytes();
+            key = contentEncryptionKey(config, contentKey, fingerprintBytes, contentSalt, new SingleUsePasswordSource(password));
+
+            long start = metrics.start();
+            final byte[] compressed = config.compressor.compress(rawContent);
+            metrics.stage(MetricsListener.STAGE_COMPRESSION, start, rawContent.length);
+
+            start = metrics.start();
+            final int headerLength = headerLength(contentSalt);
+            final byte[] associatedData = this.associatedData.get(config);
+            final byte[] out;
+            if (config.nonceCounter != null) {
+                //the marker is the first byte after the header, which is left 0
+                out = config.authenticatedEncryption.encryptWithNonce(key, nonceFor(config, contentSalt), compressed,
+                        associatedData, headerLength + 1);
+            } else {
+                out = config.authenticatedEncryption.encrypt(key, compressed, associatedData, headerLength);
+            }
+            metrics.stage(MetricsListener.STAGE_ENCRYPTION, start, compressed.length);
+            if (compressed != rawContent) {
+                wipe(compressed);
+            }
 
-            fingerprintBytes = fingerprint.getBytes();
-            key = keyDerivationFunction(contentKey, fingerprintBytes, contentSalt, preferenceSalt, password);
-            byte[] encrypted = authenticatedEncryption.encrypt(key, compressor.compress(rawContent), Bytes.from(protocolVersion).array());
+            final int encryptedLength = out.length - headerLength;
+            writeHeader(out, config.protocolVersion, contentSalt, encryptedLength);
 
-            DataObfuscator obfuscator = dataObfuscatorFactory.create(Bytes.from(contentKey).append(fingerprintBytes).array());
-            obfuscator.obfuscate(encrypted);
+            start = metrics.start();
+            DataObfuscator obfuscator = config.dataObfuscatorFactory.create(obfuscationKey(contentKey, fingerprintBytes));
+            obfuscator.obfuscate(out, headerLength, encryptedLength);
             obfuscator.clearKey();
+            metrics.stage(MetricsListener.STAGE_OBFUSCATION, start, encryptedLength);
 
-            return encode(contentSalt, encrypted);
-        } catch (AuthenticatedEncryptionException e) {
+            return out;
+        } catch (AuthenticatedEncryptionException | IllegalStateException e) {
             throw new EncryptionProtocolException(e);
         } finally {
-            Bytes.wrap(fingerprintBytes).mutable().secureWipe();
-            Bytes.wrap(key).mutable().secureWipe();
-            Timber.v("encrypt took %d ms", System.currentTimeMillis() - start);
+            wipe(fingerprintBytes);
+            wipe(key);
+        }
+    }
+
+    /**
+     * The key of the data obfuscator: content key (utf-8) | fingerprint, assembled in a single array which is
+     * owned (and wiped) by the obfuscator
+     */
+    private static byte[] obfuscationKey(String contentKey, byte[] fingerprint) {
+        final byte[] contentKeyBytes = contentKey.getBytes(StandardCharsets.UTF_8);
+        final byte[] key = Arrays.copyOf(contentKeyBytes, contentKeyBytes.length + fingerprint.length);
+        System.arraycopy(fingerprint, 0, key, contentKeyBytes.length, fingerprint.length);
+        Arrays.fill(contentKeyBytes, (byte) 0);
+        return key;
+    }
+
+    /**
+     * Overwrites given array with zeros. {@code MutableBytes#secureWipe()} creates a new {@link SecureRandom} for
+     * every call (provider lookup included), which allocated more than the whole rest of an encryption.
+     */
+    private static void wipe(byte[] bytes) {
+        Arrays.fill(bytes, (byte) 0);
+    }
+
+    /**
+     * Creates a random content salt or, if a nonce counter is used, the next counter value followed by random bytes
+     */
+    private byte[] createContentSalt(EncryptionProtocolConfig config) {
+        final byte[] contentSalt = Bytes.random(CONTENT_SALT_LENGTH_BYTE, secureRandom).array();
+        if (config.nonceCounter != null) {
+            ByteBuffer.wrap(contentSalt).putLong(config.nonceCounter.next());
         }
+        return contentSalt;
     }
 
-    private byte[] encode(byte[] contentSalt, byte[] encrypted) {
-        ByteBuffer buffer = ByteBuffer.allocate(4 + 1 + contentSalt.length + 4 + encrypted.length);
+    /**
+     * The nonce for content encrypted with {@link EncryptionProtocolConfig#nonceCounter}: the counter value (the first
+     * 8 bytes of the content salt) prefixed with zeros. Since the key is derived from the content salt as well, this
+     * is only a second guarantee that a key and nonce pair is never reused, even if the random number generator fails.
+     */
+    private static byte[] nonceFor(EncryptionProtocolConfig config, byte[] contentSalt) {
+        final int nonceLength = config.authenticatedEncryption.nonceLength();
+        if (nonceLength < 8 || contentSalt.length < 8) {
+            throw new IllegalStateException("cannot derive nonce of length " + nonceLength);
+        }
+        final byte[] nonce = new byte[nonceLength];
+        System.arraycopy(contentSalt, 0, nonce, nonceLength - 8, 8);
+        return nonce;
+    }
+
+    /**
+     * Format: protocol version (int), content salt length (byte), content salt, encrypted length (int), then the
+     * obfuscated output of the {@link AuthenticatedEncryption}. The header is written in front of the encrypted
+     * content directly into the output array of the encryption, so no further copy is needed.
+     */
+    private static int headerLength(byte[] contentSalt) {
+        return 4 + 1 + contentSalt.length + 4;
+    }
+
+    private static void writeHeader(byte[] out, int protocolVersion, byte[] contentSalt, int encryptedLength) {
+        ByteBuffer buffer = ByteBuffer.wrap(out);
         buffer.putInt(protocolVersion);
         buffer.put((byte) contentSalt.length);
         buffer.put(contentSalt);
-        buffer.putInt(encrypted.length);
-        buffer.put(encrypted);
-        return buffer.array();
+        buffer.putInt(encryptedLength);
     }
 
     @Override
@@ -100,17 +210,35 @@ final class DefaultEncryptionProtocol implements EncryptionProtocol {
 
     @Override
     public byte[] decrypt(@NonNull String contentKey, char[] password, byte[] encryptedContent) throws EncryptionProtocolException {
-        long start = System.currentTimeMillis();
         byte[] fingerprintBytes = new byte[0];
-        byte[] key = new byte[0];
 
         try {
-            fingerprintBytes = fingerprint.getBytes();
+            fingerprintBytes = getFingerprintBytes();
+            return decrypt(contentKey, fingerprintBytes, new SingleUsePasswordSource(password), encryptedContent);
+        } finally {
+            wipe(fingerprintBytes);
+        }
+    }
 
+    private byte[] getFingerprintBytes() {
+        final long start = metrics.start();
+        final byte[] fingerprintBytes = fingerprint.getBytes();
+        metrics.stage(MetricsListener.STAGE_FINGERPRINT, start, fingerprintBytes.length);
+        return fingerprintBytes;
+    }
+
+    @Override
+    public DecryptionSession openDecryptionSession(@Nullable char[] password) {
+        return new Session(password);
+    }
+
+    private byte[] decrypt(String contentKey, byte[] fingerprintBytes, StretchedPasswordSource passwordSource,
+                           byte[] encryptedContent) throws EncryptionProtocolException {
+        byte[] key = new byte[0];
+
+        try {
             ByteBuffer buffer = ByteBuffer.wrap(encryptedContent);
-            if (buffer.getInt() != protocolVersion) {
-                throw new SecurityException("illegal protocol version");
-            }
+            final EncryptionProtocolConfig config = getConfigForVersion(buffer.getInt());
 
             byte[] contentSalt = new byte[buffer.get()];
             buffer.get(contentSalt);
@@ -118,62 +246,378 @@ final class DefaultEncryptionProtocol implements EncryptionProtocol {
             byte[] encrypted = new byte[buffer.getInt()];
             buffer.get(encrypted);
 
-            DataObfuscator obfuscator = dataObfuscatorFactory.create(Bytes.from(contentKey).append(fingerprintBytes).array());
+            long start = metrics.start();
+            DataObfuscator obfuscator = config.dataObfuscatorFactory.create(obfuscationKey(contentKey, fingerprintBytes));
             obfuscator.deobfuscate(encrypted);
             obfuscator.clearKey();
-            key = keyDerivationFunction(contentKey, fingerprintBytes, contentSalt, preferenceSalt, password);
+            metrics.stage(MetricsListener.STAGE_DEOBFUSCATION, start, encrypted.length);
+
+            key = contentEncryptionKey(config, contentKey, fingerprintBytes, contentSalt, passwordSource);
+
+            start = metrics.start();
+            final byte[] associatedData = this.associatedData.get(config);
+            final byte[] compressed;
+            if (encrypted.length > 0 && encrypted[0] == IMPLICIT_NONCE_MARKER && config.authenticatedEncryption.nonceLength() > 0) {
+                compressed = config.authenticatedEncryption.decryptWithNonce(key, nonceFor(config, contentSalt), encrypted, 1, associatedData);
+            } else {
+                compressed = config.authenticatedEncryption.decrypt(key, encrypted, associatedData);
+            }
+            metrics.stage(MetricsListener.STAGE_DECRYPTION, start, encrypted.length);
 
-            return compressor.decompress(authenticatedEncryption.decrypt(key, encrypted, Bytes.from(protocolVersion).array()));
+            start = metrics.start();
+            final byte[] decompressed = config.compressor.decompress(compressed);
+            metrics.stage(MetricsListener.STAGE_DECOMPRESSION, start, compressed.length);
+            return decompressed;
         } catch (AuthenticatedEncryptionException e) {
             throw new EncryptionProtocolException(e);
         } finally {
-            Bytes.wrap(fingerprintBytes).mutable().secureWipe();
-            Bytes.wrap(key).mutable().secureWipe();
-            Timber.v("decrypt took %d ms", System.currentTimeMillis() - start);
+            wipe(key);
+        }
+    }
+
+    private EncryptionProtocolConfig getConfigForVersion(int protocolVersion) {
+        if (defaultConfig.protocolVersion == protocolVersion) {
+            return defaultConfig;
+        }
+
+        for (EncryptionProtocolConfig config : additionalDecryptionConfigs) {
+            if (config.protocolVersion == protocolVersion) {
+                return config;
+            }
+        }
+        throw new SecurityException("illegal protocol version");
+    }
+
+    /**
+     * Derives the key of the authenticated encryption for a single content with the key schedule of given config
+     */
+    private byte[] contentEncryptionKey(EncryptionProtocolConfig config, String contentKey, byte[] fingerprint, byte[] contentSalt,
+                                        StretchedPasswordSource passwordSource) {
+        if (config.keySchedule == EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY) {
+            return expandStoreKey(config, getStoreKey(config, fingerprint, passwordSource), contentKey, contentSalt);
+        }
+
+        final byte[] stretchedPassword = passwordSource.getStretchedPassword(config);
+        try {
+            return keyDerivationFunction(config, contentKey, fingerprint, contentSalt, stretchedPassword);
+        } finally {
+            passwordSource.release(stretchedPassword);
         }
     }
 
-    private byte[] keyDerivationFunction(String contentKey, byte[] fingerprint, byte[] contentSalt, byte[] preferenceSalt, @Nullable char[] password) {
-        Bytes ikm = Bytes.wrap(fingerprint).append(contentSalt).append(Bytes.from(contentKey, Normalizer.Form.NFKD));
+    private byte[] keyDerivationFunction(EncryptionProtocolConfig config, String contentKey, byte[] fingerprint, byte[] contentSalt, @Nullable byte[] stretchedPassword) {
+        final byte[] contentKeyBytes = Bytes.from(contentKey, Normalizer.Form.NFKD).array();
+        final byte[] ikm = new byte[fingerprint.length + contentSalt.length + contentKeyBytes.length
+                + (stretchedPassword != null ? stretchedPassword.length : 0)];
+
+        //ikm = fingerprint | content salt | content key (| stretched password), assembled in a single array
+        int offset = 0;
+        System.arraycopy(fingerprint, 0, ikm, offset, fingerprint.length);
+        offset += fingerprint.length;
+        System.arraycopy(contentSalt, 0, ikm, offset, contentSalt.length);
+        offset += contentSalt.length;
+        System.arraycopy(contentKeyBytes, 0, ikm, offset, contentKeyBytes.length);
+        offset += contentKeyBytes.length;
+        if (stretchedPassword != null) {
+            System.arraycopy(stretchedPassword, 0, ikm, offset, stretchedPassword.length);
+        }
 
-        if (password != null) {
-            ikm.append(keyStretchingFunction.stretch(contentSalt, password, 32));
+        final long start = metrics.start();
+        try {
+            final int keyLength = config.authenticatedEncryption.byteSizeLength(config.keyStrength);
+            final byte[] key = hkdf.extractAndExpand(ikm, KDF_INFO, keyLength);
+            metrics.stage(MetricsListener.STAGE_KEY_DERIVATION, start, keyLength);
+            return key;
+        } finally {
+            wipe(ikm);
         }
+    }
 
-        return HKDF.fromHmacSha512().extractAndExpand(preferenceSalt, ikm.array(), "DefaultEncryptionProtocol".getBytes(), keyLengthBit / 8);
+    /**
+     * Key schedule {@link EncryptionProtocolConfig#KEY_SCHEDULE_STORE_KEY}: a single HKDF expand step of the store key
+     * with info = kdf info | content salt length (byte) | content salt | content key
+     */
+    private byte[] expandStoreKey(EncryptionProtocolConfig config, HkdfEngine.Expander storeKey, String contentKey, byte[] contentSalt) {
+        final byte[] contentKeyBytes = Bytes.from(contentKey, Normalizer.Form.NFKD).array();
+        final byte[] info = new byte[KDF_INFO.length + 1 + contentSalt.length + contentKeyBytes.length];
+        ByteBuffer.wrap(info).put(KDF_INFO).put((byte) contentSalt.length).put(contentSalt).put(contentKeyBytes);
+
+        final long start = metrics.start();
+        final int keyLength = config.authenticatedEncryption.byteSizeLength(config.keyStrength);
+        final byte[] key = storeKey.expand(info, keyLength);
+        metrics.stage(MetricsListener.STAGE_KEY_DERIVATION, start, keyLength);
+        return key;
+    }
+
+    /**
+     * Gets the store key of the config, i.e. the HKDF extract of fingerprint | stretched password (if set) with the
+     * storage salt. It is derived once per store and password and kept for the lifetime of this instance, like the
+     * stretched password.
+     *
+     * @param config         of the protocol version
+     * @param fingerprint    of the device/app
+     * @param passwordSource provides the password and its stretched version
+     * @return expander of the store key
+     */
+    private HkdfEngine.Expander getStoreKey(EncryptionProtocolConfig config, byte[] fingerprint, StretchedPasswordSource passwordSource) {
+        final char[] password = passwordSource.getPassword();
+        StoreKey storeKey = storeKeys.get(config);
+        if (storeKey != null && storeKey.isFor(password)) {
+            return storeKey.expander;
+        }
+
+        synchronized (storeKeys) {
+            storeKey = storeKeys.get(config);
+            if (storeKey == null || !storeKey.isFor(password)) {
+                final byte[] stretchedPassword = passwordSource.getStretchedPassword(config);
+                final byte[] ikm = new byte[fingerprint.length + (stretchedPassword != null ? stretchedPassword.length : 0)];
+                System.arraycopy(fingerprint, 0, ikm, 0, fingerprint.length);
+                if (stretchedPassword != null) {
+                    System.arraycopy(stretchedPassword, 0, ikm, fingerprint.length, stretchedPassword.length);
+                }
+                try {
+                    storeKey = new StoreKey(password, hkdf.expander(hkdf.extract(ikm)));
+                } finally {
+                    wipe(ikm);
+                    passwordSource.release(stretchedPassword);
+                }
+                storeKeys.put(config, storeKey);
+            }
+            return storeKey.expander;
+        }
+    }
+
+    private static final class StoreKey {
+        @Nullable
+        private final char[] password;
+        private final HkdfEngine.Expander expander;
+
+        private StoreKey(@Nullable char[] password, HkdfEngine.Expander expander) {
+            this.password = password;
+            this.expander = expander;
+        }
+
+        private boolean isFor(@Nullable char[] otherPassword) {
+            return password == otherPassword;
+        }
+    }
+
+    /**
+     * Gets the stretched password to add to the key material for given config
+     *
+     * @param config   of the protocol version
+     * @param password provided by the user
+     * @return the stretched password (caller should wipe it after usage) or null if the password is not part of the key
+     */
+    @Nullable
+    private byte[] getStretchedPasswordFor(EncryptionProtocolConfig config, @Nullable char[] password) {
+        //the legacy per-entry schedule discarded the stretched password (immutable Bytes#append), so to be able to
+        //read such content, the password must not be part of the key material for this schedule
+        if (password != null && config.keySchedule != EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY) {
+            return getStoreStretchedPassword(config.keyStretchingFunction, password);
+        }
+        return null;
+    }
+
+    /**
+     * Stretches the password with the storage scoped salt. Since this is deterministic for the lifetime
+     * of this instance, the result will be kept in memory (obfuscated) so the expensive key stretching is
+     * only done once per store.
+     *
+     * @param keyStretchingFunction to use
+     * @param password              provided by the user
+     * @return a copy of the stretched password, caller should wipe it after usage
+     */
+    private byte[] getStoreStretchedPassword(KeyStretchingFunction keyStretchingFunction, char[] password) {
+        synchronized (storeStretchedPasswords) {
+            StretchedPassword cached = storeStretchedPasswords.get(keyStretchingFunction);
+            if (cached == null || !cached.isFor(password)) {
+                //the obfuscator takes ownership of the array and masks it in place, so it must not be wiped here
+                final long start = metrics.start();
+                byte[] stretched = keyStretchingFunction.stretch(preferenceSalt, password, STRETCHED_PASSWORD_LENGTH_BYTE);
+                metrics.stage(MetricsListener.STAGE_KEY_STRETCHING, start, stretched.length);
+                cached = new StretchedPassword(password, new ByteArrayRuntimeObfuscator.Default(stretched, secureRandom));
+                storeStretchedPasswords.put(keyStretchingFunction, cached);
+            }
+            return cached.stretched.getBytes();
+        }
+    }
+
+    private static final class StretchedPassword {
+        private final char[] password;
+        private final ByteArrayRuntimeObfuscator stretched;
+
+        private StretchedPassword(char[] password, ByteArrayRuntimeObfuscator stretched) {
+            this.password = password;
+            this.stretched = stretched;
+        }
+
+        private boolean isFor(char[] otherPassword) {
+            return password == otherPassword;
+        }
+    }
+
+    /**
+     * Provides the stretched password for a given config during decryption
+     */
+    private interface StretchedPasswordSource {
+        @Nullable
+        char[] getPassword();
+
+        @Nullable
+        byte[] getStretchedPassword(EncryptionProtocolConfig config);
+
+        void release(@Nullable byte[] stretchedPassword);
+    }
+
+    /**
+     * Gets a fresh copy for every decryption which will be wiped right after usage
+     */
+    private final class SingleUsePasswordSource implements StretchedPasswordSource {
+        @Nullable
+        private final char[] password;
+
+        private SingleUsePasswordSource(@Nullable char[] password) {
+            this.password = password;
+        }
+
+        @Nullable
+        @Override
+        public char[] getPassword() {
+            return password;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getStretchedPassword(EncryptionProtocolConfig config) {
+            return getStretchedPasswordFor(config, password);
+        }
+
+        @Override
+        public void release(@Nullable byte[] stretchedPassword) {
+            if (stretchedPassword != null) {
+                wipe(stretchedPassword);
+            }
+        }
+    }
+
+    /**
+     * Unmasks the fingerprint and the stretched passwords only once and keeps them until closed.
+     */
+    private final class Session implements DecryptionSession, StretchedPasswordSource {
+        @Nullable
+        private final char[] password;
+        private final byte[] fingerprintBytes;
+        private final Map<EncryptionProtocolConfig, byte[]> stretchedPasswords = new IdentityHashMap<>();
+        private volatile boolean closed;
+
+        private Session(@Nullable char[] password) {
+            this.password = password;
+            this.fingerprintBytes = getFingerprintBytes();
+        }
+
+        @Override
+        public byte[] decrypt(@NonNull String contentKey, byte[] encryptedContent) throws EncryptionProtocolException {
+            if (closed) {
+                throw new IllegalStateException("session already closed");
+            }
+            return DefaultEncryptionProtocol.this.decrypt(contentKey, fingerprintBytes, this, encryptedContent);
+        }
+
+        @Nullable
+        @Override
+        public char[] getPassword() {
+            return password;
+        }
+
+        @Nullable
+        @Override
+        public byte[] getStretchedPassword(EncryptionProtocolConfig config) {
+            synchronized (stretchedPasswords) {
+                if (!stretchedPasswords.containsKey(config)) {
+                    stretchedPasswords.put(config, getStretchedPasswordFor(config, password));
+                }
+                return stretchedPasswords.get(config);
+            }
+        }
+
+        @Override
+        public void release(@Nullable byte[] stretchedPassword) {
+            //wiped on close
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            wipe(fingerprintBytes);
+            synchronized (stretchedPasswords) {
+                for (byte[] stretchedPassword : stretchedPasswords.values()) {
+                    if (stretchedPassword != null) {
+                        wipe(stretchedPassword);
+                    }
+                }
+                stretchedPasswords.clear();
+            }
+        }
     }
 
     public static final class Factory implements EncryptionProtocol.Factory {
 
-        private final int protocolVersion;
+        private final EncryptionProtocolConfig defaultConfig;
+        private final List<EncryptionProtocolConfig> additionalDecryptionConfigs;
+        private final DataObfuscator.Factory storageSaltObfuscatorFactory;
         private final EncryptionFingerprint fingerprint;
         private final StringMessageDigest stringMessageDigest;
-        private final AuthenticatedEncryption authenticatedEncryption;
-        @AuthenticatedEncryption.KeyStrength
-        private final int keyStrength;
-        private final KeyStretchingFunction keyStretchingFunction;
-        private final DataObfuscator.Factory dataObfuscatorFactory;
         private final SecureRandom secureRandom;
-        private final Compressor compressor;
+        private final Metrics metrics;
+
+        Factory(EncryptionProtocolConfig defaultConfig, List<EncryptionProtocolConfig> additionalDecryptionConfigs,
+                EncryptionFingerprint fingerprint, StringMessageDigest stringMessageDigest, SecureRandom secureRandom) {
+            this(defaultConfig, additionalDecryptionConfigs, defaultConfig.dataObfuscatorFactory, fingerprint, stringMessageDigest, secureRandom);
+        }
 
-        Factory(int protocolVersion, EncryptionFingerprint fingerprint, StringMessageDigest stringMessageDigest,
-                AuthenticatedEncryption authenticatedEncryption, int keyStrength,
-                KeyStretchingFunction keyStretchingFunction, DataObfuscator.Factory dataObfuscatorFactory,
-                SecureRandom secureRandom, @Nullable Compressor compressor) {
-            this.protocolVersion = protocolVersion;
+        /**
+         * Creates a new factory
+         *
+         * @param defaultConfig                used to encrypt and decrypt content of its version
+         * @param additionalDecryptionConfigs  used to decrypt content of other versions
+         * @param storageSaltObfuscatorFactory used to obfuscate the storage salt; since the salt is not versioned, this
+         *                                     must never change for an existing store
+         * @param fingerprint                  of the device/app
+         * @param stringMessageDigest          used to derive the content keys
+         * @param secureRandom                 used for salts and ivs
+         */
+        Factory(EncryptionProtocolConfig defaultConfig, List<EncryptionProtocolConfig> additionalDecryptionConfigs,
+                DataObfuscator.Factory storageSaltObfuscatorFactory, EncryptionFingerprint fingerprint,
+                StringMessageDigest stringMessageDigest, SecureRandom secureRandom) {
+            this(defaultConfig, additionalDecryptionConfigs, storageSaltObfuscatorFactory, fingerprint, stringMessageDigest,
+                    secureRandom, MetricsListener.NONE);
+        }
+
+        /**
+         * Same as {@link #Factory(EncryptionProtocolConfig, List, DataObfuscator.Factory, EncryptionFingerprint, StringMessageDigest, SecureRandom)}
+         *
+         * @param metricsListener receives the duration of every stage of the protocol
+         */
+        Factory(EncryptionProtocolConfig defaultConfig, List<EncryptionProtocolConfig> additionalDecryptionConfigs,
+                DataObfuscator.Factory storageSaltObfuscatorFactory, EncryptionFingerprint fingerprint,
+                StringMessageDigest stringMessageDigest, SecureRandom secureRandom, MetricsListener metricsListener) {
+            this.defaultConfig = defaultConfig;
+            this.storageSaltObfuscatorFactory = storageSaltObfuscatorFactory;
+            this.additionalDecryptionConfigs = new ArrayList<>(additionalDecryptionConfigs.size());
+            for (EncryptionProtocolConfig config : additionalDecryptionConfigs) {
+                this.additionalDecryptionConfigs.add(config.inherit(defaultConfig));
+            }
             this.fingerprint = fingerprint;
             this.stringMessageDigest = stringMessageDigest;
-            this.authenticatedEncryption = authenticatedEncryption;
-            this.keyStrength = keyStrength;
-            this.keyStretchingFunction = keyStretchingFunction;
-            this.dataObfuscatorFactory = dataObfuscatorFactory;
             this.secureRandom = secureRandom;
-            this.compressor = compressor;
+            this.metrics = metricsListener == MetricsListener.NONE ? Metrics.DISABLED : new Metrics(metricsListener);
         }
 
         @Override
         public EncryptionProtocol create(byte[] preferenceSalt) {
-            return new DefaultEncryptionProtocol(protocolVersion, preferenceSalt, fingerprint, stringMessageDigest, authenticatedEncryption, keyStrength, keyStretchingFunction, dataObfuscatorFactory, secureRandom, compressor);
+            return new DefaultEncryptionProtocol(defaultConfig, additionalDecryptionConfigs, preferenceSalt, fingerprint,
+                    stringMessageDigest, secureRandom, metrics);
         }
 
         @Override
@@ -183,7 +627,7 @@ final class DefaultEncryptionProtocol implements EncryptionProtocol {
 
         @Override
         public DataObfuscator createDataObfuscator() {
-            return dataObfuscatorFactory.create(fingerprint.getBytes());
+            return storageSaltObfuscatorFactory.create(fingerprint.getBytes());
         }
 
         @Override
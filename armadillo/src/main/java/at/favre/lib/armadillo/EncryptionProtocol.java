@@ -1,6 +1,7 @@
 package at.favre.lib.armadillo;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import java.security.SecureRandom;
 
@@ -71,6 +72,37 @@ interface EncryptionProtocol {
      */
     byte[] decrypt(@NonNull String contentKey, char[] password, byte[] encryptedContent) throws EncryptionProtocolException;
 
+    /**
+     * Opens a session to decrypt many contents of this store at once. Work which is the same for every content
+     * (e.g. unmasking the fingerprint or stretching the password) is only done once per session instead of
+     * for every content. The session is thread safe and must be closed after usage to wipe the held key material.
+     *
+     * @param password provided by user or null
+     * @return new session
+     */
+    DecryptionSession openDecryptionSession(@Nullable char[] password);
+
+    /**
+     * A session holding the store scoped key material to decrypt many contents.
+     */
+    interface DecryptionSession {
+
+        /**
+         * Same as {@link EncryptionProtocol#decrypt(String, char[], byte[])} with the password of the session
+         *
+         * @param contentKey       key from {@link #deriveContentKey(String)} also used to derive the encryption key
+         * @param encryptedContent to decrypt etc.
+         * @return original data
+         * @throws EncryptionProtocolException when decryption was not possible
+         */
+        byte[] decrypt(@NonNull String contentKey, byte[] encryptedContent) throws EncryptionProtocolException;
+
+        /**
+         * Wipes all held key material; the session cannot be used afterwards
+         */
+        void close();
+    }
+
     /**
      * Factory creating a new instance of {@link EncryptionProtocol}
      */
@@ -0,0 +1,226 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Objects;
+
+/**
+ * The configuration of a specific version of the {@link DefaultEncryptionProtocol}. Every encrypted
+ * content persists the protocol version it was created with, so when reading, the protocol is able
+ * to choose the correct config (and therefore primitives and key schedule) for decryption.
+ * <p>
+ * Components which are not explicitly set (i.e. are null) will be inherited from the main config
+ * configured with the {@link Armadillo.Builder}.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class EncryptionProtocolConfig {
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({KEY_SCHEDULE_LEGACY, KEY_SCHEDULE_STORE_STRETCHING, KEY_SCHEDULE_STORE_KEY})
+    @interface KeySchedule {
+    }
+
+    /**
+     * The legacy key schedule used by protocol version 0. Note that in this version the stretched user
+     * password did not end up in the key material, so it only exists to be able to read old data.
+     */
+    public static final int KEY_SCHEDULE_LEGACY = 0;
+
+    /**
+     * The user password is stretched only once per store with the storage scoped salt. Per entry only
+     * a cheap HKDF derivation with the content salt is done.
+     */
+    public static final int KEY_SCHEDULE_STORE_STRETCHING = 1;
+
+    /**
+     * Like {@link #KEY_SCHEDULE_STORE_STRETCHING}, but the fingerprint and stretched user password are also extracted
+     * only once per store into a store key. Per entry only a single HKDF expand step with the content salt and
+     * content key is done, with a {@link javax.crypto.Mac} which is already keyed with the store key.
+     */
+    public static final int KEY_SCHEDULE_STORE_KEY = 2;
+
+    /**
+     * The protocol version of the data format prior to the introduction of {@link #KEY_SCHEDULE_STORE_STRETCHING}
+     */
+    public static final int PROTOCOL_VERSION_LEGACY = 0;
+
+    /**
+     * The first protocol version using {@link #KEY_SCHEDULE_STORE_STRETCHING}, obfuscated with {@link HkdfXorObfuscator}
+     * (if not configured otherwise). Can always be read.
+     */
+    public static final int PROTOCOL_VERSION_STORE_STRETCHING = 1;
+
+    /**
+     * Same as {@link #PROTOCOL_VERSION_STORE_STRETCHING} but obfuscated with {@link AesCtrObfuscator} (if not configured
+     * otherwise). Can always be read.
+     */
+    public static final int PROTOCOL_VERSION_AES_CTR_OBFUSCATION = 2;
+
+    /**
+     * The protocol version used per default; same as {@link #PROTOCOL_VERSION_AES_CTR_OBFUSCATION} but using
+     * {@link #KEY_SCHEDULE_STORE_KEY}
+     */
+    public static final int PROTOCOL_VERSION_DEFAULT = 3;
+
+    final int protocolVersion;
+    @KeySchedule
+    final int keySchedule;
+    @Nullable
+    final Integer keyStrength;
+    @Nullable
+    final AuthenticatedEncryption authenticatedEncryption;
+    @Nullable
+    final KeyStretchingFunction keyStretchingFunction;
+    @Nullable
+    final DataObfuscator.Factory dataObfuscatorFactory;
+    @Nullable
+    final Compressor compressor;
+    @Nullable
+    final NonceCounter nonceCounter;
+
+    private EncryptionProtocolConfig(int protocolVersion, @KeySchedule int keySchedule, @Nullable Integer keyStrength,
+                                     @Nullable AuthenticatedEncryption authenticatedEncryption, @Nullable KeyStretchingFunction keyStretchingFunction,
+                                     @Nullable DataObfuscator.Factory dataObfuscatorFactory, @Nullable Compressor compressor,
+                                     @Nullable NonceCounter nonceCounter) {
+        this.protocolVersion = protocolVersion;
+        this.keySchedule = keySchedule;
+        this.keyStrength = keyStrength;
+        this.authenticatedEncryption = authenticatedEncryption;
+        this.keyStretchingFunction = keyStretchingFunction;
+        this.dataObfuscatorFactory = dataObfuscatorFactory;
+        this.compressor = compressor;
+        this.nonceCounter = nonceCounter;
+    }
+
+    /**
+     * The key schedule a protocol version was created with: the built-in versions use their own, every other
+     * (custom) version was created with {@link #KEY_SCHEDULE_LEGACY} before key schedules were introduced.
+     *
+     * @param protocolVersion the version persisted with the data
+     * @return key schedule of the version
+     */
+    @KeySchedule
+    static int keyScheduleOf(int protocolVersion) {
+        switch (protocolVersion) {
+            case PROTOCOL_VERSION_DEFAULT:
+                return KEY_SCHEDULE_STORE_KEY;
+            case PROTOCOL_VERSION_STORE_STRETCHING:
+            case PROTOCOL_VERSION_AES_CTR_OBFUSCATION:
+                return KEY_SCHEDULE_STORE_STRETCHING;
+            default:
+                return KEY_SCHEDULE_LEGACY;
+        }
+    }
+
+    /**
+     * Checks if given version is one of the built-in versions '0' to '3' which have a fixed key schedule
+     *
+     * @param protocolVersion to check
+     * @return true if reserved
+     */
+    static boolean isReservedVersion(int protocolVersion) {
+        return protocolVersion >= PROTOCOL_VERSION_LEGACY && protocolVersion <= PROTOCOL_VERSION_DEFAULT;
+    }
+
+    /**
+     * Creates a new builder for a config with given protocol version
+     *
+     * @param protocolVersion the version persisted with the data
+     * @return builder
+     */
+    public static Builder newBuilder(int protocolVersion) {
+        return new Builder(protocolVersion);
+    }
+
+    /**
+     * Creates a copy of this config where all unset components are taken from given config
+     *
+     * @param defaults to get missing components from
+     * @return new fully set config
+     */
+    EncryptionProtocolConfig inherit(EncryptionProtocolConfig defaults) {
+        return new EncryptionProtocolConfig(protocolVersion, keySchedule,
+                keyStrength != null ? keyStrength : defaults.keyStrength,
+                authenticatedEncryption != null ? authenticatedEncryption : defaults.authenticatedEncryption,
+                keyStretchingFunction != null ? keyStretchingFunction : defaults.keyStretchingFunction,
+                dataObfuscatorFactory != null ? dataObfuscatorFactory : defaults.dataObfuscatorFactory,
+                compressor != null ? compressor : defaults.compressor,
+                nonceCounter);
+    }
+
+    public static final class Builder {
+        private final int protocolVersion;
+        @KeySchedule
+        private int keySchedule;
+        private Integer keyStrength;
+        private AuthenticatedEncryption authenticatedEncryption;
+        private KeyStretchingFunction keyStretchingFunction;
+        private DataObfuscator.Factory dataObfuscatorFactory;
+        private Compressor compressor;
+        private NonceCounter nonceCounter;
+
+        private Builder(int protocolVersion) {
+            this.protocolVersion = protocolVersion;
+            this.keySchedule = keyScheduleOf(protocolVersion);
+        }
+
+        /**
+         * Set how the keys are derived for this version. See {@link #KEY_SCHEDULE_LEGACY},
+         * {@link #KEY_SCHEDULE_STORE_STRETCHING} and {@link #KEY_SCHEDULE_STORE_KEY}. Per default the
+         * built-in versions use their own and custom versions use {@link #KEY_SCHEDULE_LEGACY}.
+         *
+         * @param keySchedule to use
+         * @return builder
+         */
+        public Builder keySchedule(@KeySchedule int keySchedule) {
+            this.keySchedule = keySchedule;
+            return this;
+        }
+
+        public Builder keyStrength(@AuthenticatedEncryption.KeyStrength int keyStrength) {
+            this.keyStrength = keyStrength;
+            return this;
+        }
+
+        public Builder authenticatedEncryption(AuthenticatedEncryption authenticatedEncryption) {
+            this.authenticatedEncryption = Objects.requireNonNull(authenticatedEncryption);
+            return this;
+        }
+
+        public Builder keyStretchingFunction(KeyStretchingFunction keyStretchingFunction) {
+            this.keyStretchingFunction = Objects.requireNonNull(keyStretchingFunction);
+            return this;
+        }
+
+        public Builder dataObfuscatorFactory(DataObfuscator.Factory dataObfuscatorFactory) {
+            this.dataObfuscatorFactory = Objects.requireNonNull(dataObfuscatorFactory);
+            return this;
+        }
+
+        public Builder compressor(Compressor compressor) {
+            this.compressor = Objects.requireNonNull(compressor);
+            return this;
+        }
+
+        /**
+         * Encrypt with nonces derived from given counter instead of random ones. Only used for encryption, content
+         * is always decryptable regardless of this setting.
+         *
+         * @param nonceCounter of the store
+         * @return builder
+         */
+        Builder nonceCounter(NonceCounter nonceCounter) {
+            this.nonceCounter = Objects.requireNonNull(nonceCounter);
+            return this;
+        }
+
+        public EncryptionProtocolConfig build() {
+            return new EncryptionProtocolConfig(protocolVersion, keySchedule, keyStrength, authenticatedEncryption,
+                    keyStretchingFunction, dataObfuscatorFactory, compressor, nonceCounter);
+        }
+    }
+}
@@ -3,7 +3,6 @@ package at.favre.lib.armadillo;
 import java.text.Normalizer;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.HKDF;
 
 /**
  * This is a implementation for a key derivation function with disabled key stretching function.
@@ -13,9 +12,23 @@ import at.favre.lib.crypto.HKDF;
  */
 
 public final class FastKeyStretcher implements KeyStretchingFunction {
+    private volatile HkdfEngine hkdf;
+
     @Override
     public byte[] stretch(byte[] salt, char[] password, int outLengthByte) {
-        return HKDF.fromHmacSha256().extractAndExpand(salt, Bytes.from(String.valueOf(password), Normalizer.Form.NFKD).array()
+        return getHkdf(salt).extractAndExpand(Bytes.from(String.valueOf(password), Normalizer.Form.NFKD).array()
                 , "FastKeyStretcher".getBytes(), outLengthByte);
     }
+
+    /**
+     * Reuses the engine as long as the salt does not change, which is usually the case since the salt is per store
+     */
+    private HkdfEngine getHkdf(byte[] salt) {
+        HkdfEngine current = hkdf;
+        if (current == null || !current.hasSalt(salt)) {
+            current = new HkdfEngine(HkdfEngine.HMAC_SHA256, salt);
+            hkdf = current;
+        }
+        return current;
+    }
 }
@@ -0,0 +1,175 @@
+package at.favre.lib.armadillo;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link MetricsListener} aggregating the durations of every stage in a histogram with power-of-two
+ * buckets (so percentiles have a resolution of factor 2), plus the total duration, byte count and the
+ * cache hits and misses. Recording is lock-free and does not allocate.
+ * <p>
+ * Use {@link #dump()} to get a human readable summary, e.g.
+ *
+ * <pre>
+ * HistogramMetricsListener metrics = new HistogramMetricsListener();
+ * SharedPreferences preferences = Armadillo.create(context, "myPrefs")
+ *      .encryptionFingerprint(context)
+ *      .metricsListener(metrics)
+ *      .build();
+ * ...
+ * Log.d(TAG, metrics.dump());
+ * </pre>
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HistogramMetricsListener implements MetricsListener {
+    private static final String[] STAGE_NAMES = {"content key digest", "fingerprint", "key stretching", "key derivation",
+            "compression", "decompression", "encryption", "decryption", "obfuscation", "deobfuscation", "encoding",
+            "decoding", "storage read", "storage write"};
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(STAGE_NAMES.length * BUCKET_COUNT);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(STAGE_NAMES.length);
+    private final AtomicLongArray totalBytes = new AtomicLongArray(STAGE_NAMES.length);
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    @Override
+    public void onStage(@Stage int stage, long durationNanos, int byteCount) {
+        buckets.incrementAndGet(stage * BUCKET_COUNT + bucket(durationNanos));
+        totalNanos.addAndGet(stage, durationNanos);
+        totalBytes.addAndGet(stage, byteCount);
+    }
+
+    @Override
+    public void onCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void onCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    /**
+     * @param stage see {@link MetricsListener}
+     * @return how often the stage was completed
+     */
+    public long getCount(@Stage int stage) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(stage * BUCKET_COUNT + i);
+        }
+        return count;
+    }
+
+    /**
+     * @param stage see {@link MetricsListener}
+     * @return the sum of all durations of the stage in nanoseconds
+     */
+    public long getTotalNanos(@Stage int stage) {
+        return totalNanos.get(stage);
+    }
+
+    /**
+     * @param stage see {@link MetricsListener}
+     * @return the sum of all processed bytes of the stage
+     */
+    public long getTotalBytes(@Stage int stage) {
+        return totalBytes.get(stage);
+    }
+
+    /**
+     * Gets the approximated percentile of the durations of a stage. Since durations are recorded in
+     * power-of-two buckets, the upper bound of the bucket containing the percentile is returned.
+     *
+     * @param stage      see {@link MetricsListener}
+     * @param percentile between 0 and 100, e.g. 50 for the median
+     * @return upper bound of the duration in nanoseconds or 0 if the stage was never completed
+     */
+    public long getPercentileNanos(@Stage int stage, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(stage * BUCKET_COUNT + i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKET_COUNT - 1);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Resets all recorded values. Not atomic in respect to concurrent recordings.
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            totalNanos.set(i, 0);
+            totalBytes.set(i, 0);
+        }
+        cacheHits.set(0);
+        cacheMisses.set(0);
+    }
+
+    /**
+     * Creates a table of all recorded stages with count, total, mean, median and 99th percentile
+     * duration (in microseconds) and processed bytes, followed by the cache hits and misses.
+     *
+     * @return human readable summary
+     */
+    public String dump() {
+        final StringBuilder sb = new StringBuilder(String.format(Locale.US, "%-20s %10s %12s %10s %10s %10s %12s%n",
+                "stage", "count", "total us", "mean us", "p50 us", "p99 us", "bytes"));
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            final long count = getCount(stage);
+            if (count == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-20s %10d %12.1f %10.1f %10.1f %10.1f %12d%n",
+                    STAGE_NAMES[stage], count, getTotalNanos(stage) / 1000d, getTotalNanos(stage) / 1000d / count,
+                    getPercentileNanos(stage, 50) / 1000d, getPercentileNanos(stage, 99) / 1000d, getTotalBytes(stage)));
+        }
+        sb.append(String.format(Locale.US, "cache hits %d, misses %d", getCacheHits(), getCacheMisses()));
+        return sb.toString();
+    }
+
+    /**
+     * Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i - 1]; negative durations (clock issues) count as 0
+     */
+    private static int bucket(long durationNanos) {
+        return durationNanos <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(durationNanos));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
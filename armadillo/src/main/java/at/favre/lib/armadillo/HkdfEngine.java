@@ -0,0 +1,273 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HKDF (see https://tools.ietf.org/html/rfc5869) with a fixed extract salt, producing the same output as
+ * {@link at.favre.lib.crypto.HKDF}, but without looking up new {@link Mac} instances from the providers for
+ * every derivation:
+ * <ul>
+ * <li>extract uses one {@link Mac} per thread which is keyed with the salt only once; since a {@link Mac}
+ * resets to its initial key after every {@link Mac#doFinal()}, it can be reused as is</li>
+ * <li>expand uses one {@link Mac} per thread and algorithm (shared by all instances), which is re-keyed with
+ * the pseudo random key and keyed with an empty key again afterwards, so it does not keep the last key</li>
+ * <li>if the pseudo random key is fixed as well, an {@link Expander} keeps it in its macs and skips the key
+ * setup</li>
+ * </ul>
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class HkdfEngine {
+    static final String HMAC_SHA256 = "HmacSHA256";
+    static final String HMAC_SHA512 = "HmacSHA512";
+
+    private static final ThreadLocal<Mac> EXPAND_HMAC_SHA256 = new ThreadLocal<>();
+    private static final ThreadLocal<Mac> EXPAND_HMAC_SHA512 = new ThreadLocal<>();
+
+    private final String algorithm;
+    private final int macLength;
+    @Nullable
+    private final byte[] salt;
+    private final SecretKeySpec extractKey;
+    private final SecretKeySpec emptyKey;
+    private final ThreadLocal<Mac> extractHolder = new ThreadLocal<>();
+    private final ThreadLocal<Mac> expandHolder;
+
+    /**
+     * Creates a new instance
+     *
+     * @param algorithm of the hmac, e.g. {@link #HMAC_SHA512}
+     * @param salt      used for all extract calls; if null or empty, a zero byte array with the length of
+     *                  the mac is used (as defined by the rfc)
+     */
+    HkdfEngine(String algorithm, @Nullable byte[] salt) {
+        this.algorithm = Objects.requireNonNull(algorithm);
+        this.macLength = createMac().getMacLength();
+        this.salt = salt != null ? Arrays.copyOf(salt, salt.length) : null;
+        this.extractKey = new SecretKeySpec(salt == null || salt.length == 0 ? new byte[macLength] : salt, algorithm);
+        this.emptyKey = new SecretKeySpec(new byte[macLength], algorithm);
+        if (HMAC_SHA256.equals(algorithm)) {
+            this.expandHolder = EXPAND_HMAC_SHA256;
+        } else if (HMAC_SHA512.equals(algorithm)) {
+            this.expandHolder = EXPAND_HMAC_SHA512;
+        } else {
+            this.expandHolder = new ThreadLocal<>();
+        }
+    }
+
+    /**
+     * @param salt to compare
+     * @return true if this instance uses given extract salt
+     */
+    boolean hasSalt(@Nullable byte[] salt) {
+        return Arrays.equals(this.salt, salt);
+    }
+
+    /**
+     * @return byte length of the used mac
+     */
+    int getMacLength() {
+        return macLength;
+    }
+
+    /**
+     * HKDF extract step: PRK = HMAC(salt, ikm)
+     *
+     * @param inputKeyingMaterial the secret input
+     * @return the pseudo random key with the length of the mac
+     */
+    byte[] extract(byte[] inputKeyingMaterial) {
+        Objects.requireNonNull(inputKeyingMaterial);
+
+        Mac mac = extractHolder.get();
+        if (mac == null) {
+            mac = createMac();
+            try {
+                mac.init(extractKey);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not init mac", e);
+            }
+            extractHolder.set(mac);
+        }
+        return mac.doFinal(inputKeyingMaterial);
+    }
+
+    /**
+     * HKDF expand step: T(i) = HMAC(PRK, T(i-1) | info | i), written directly into the returned array
+     *
+     * @param pseudoRandomKey the output of the extract step, at least the length of the mac
+     * @param info            optional context
+     * @param outLengthByte   of the returned key, at most 255 times the mac length
+     * @return the derived key
+     */
+    byte[] expand(byte[] pseudoRandomKey, @Nullable byte[] info, int outLengthByte) {
+        Objects.requireNonNull(pseudoRandomKey);
+
+        final Mac mac = keyedMac(pseudoRandomKey);
+        try {
+            return expand(mac, info, outLengthByte);
+        } finally {
+            release(mac);
+        }
+    }
+
+    /**
+     * Creates an expander for given pseudo random key, e.g. a key which is extracted once per store and then
+     * expanded for every entry
+     *
+     * @param pseudoRandomKey the output of the extract step, will be wiped
+     * @return expander keeping the key in its macs
+     */
+    Expander expander(byte[] pseudoRandomKey) {
+        Objects.requireNonNull(pseudoRandomKey);
+        try {
+            return new Expander(algorithm, new SecretKeySpec(pseudoRandomKey, algorithm));
+        } finally {
+            Arrays.fill(pseudoRandomKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Extract and expand in one step; the intermediate pseudo random key is wiped
+     *
+     * @param inputKeyingMaterial the secret input
+     * @param info                optional context
+     * @param outLengthByte       of the returned key
+     * @return the derived key
+     */
+    byte[] extractAndExpand(byte[] inputKeyingMaterial, @Nullable byte[] info, int outLengthByte) {
+        final byte[] prk = extract(inputKeyingMaterial);
+        try {
+            return expand(prk, info, outLengthByte);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    /**
+     * Gets the expand {@link Mac} of the current thread keyed with given key. For callers computing the
+     * expand step themselves; must be given back with {@link #release(Mac)} before the next call.
+     *
+     * @param key to init the mac with
+     * @return keyed mac only used by the current thread
+     */
+    Mac keyedMac(byte[] key) {
+        Mac mac = expandHolder.get();
+        if (mac == null) {
+            mac = createMac();
+            expandHolder.set(mac);
+        }
+        try {
+            mac.init(new SecretKeySpec(key, algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not init mac", e);
+        }
+        return mac;
+    }
+
+    /**
+     * Keys the mac returned by {@link #keyedMac(byte[])} with an empty key again
+     *
+     * @param mac to release
+     */
+    void release(Mac mac) {
+        try {
+            mac.init(emptyKey);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not wipe mac", e);
+        }
+    }
+
+    private Mac createMac() {
+        return createMac(algorithm);
+    }
+
+    private static Mac createMac(String algorithm) {
+        try {
+            return Mac.getInstance(algorithm);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not get mac instance", e);
+        }
+    }
+
+    /**
+     * T(i) = HMAC(PRK, T(i-1) | info | i) with the given mac, which is keyed with the pseudo random key
+     */
+    private static byte[] expand(Mac mac, @Nullable byte[] info, int outLengthByte) {
+        final int macLength = mac.getMacLength();
+        if (outLengthByte <= 0 || outLengthByte > 255 * macLength) {
+            throw new IllegalArgumentException("out length must be between 1 and " + (255 * macLength) + " bytes");
+        }
+
+        final byte[] out = new byte[outLengthByte];
+        final byte[] block = new byte[macLength];
+        try {
+            int position = 0;
+            for (int i = 1; position < outLengthByte; i++) {
+                if (i > 1) {
+                    mac.update(block);
+                }
+                if (info != null) {
+                    mac.update(info);
+                }
+                mac.update((byte) i);
+                mac.doFinal(block, 0);
+
+                final int length = Math.min(macLength, outLengthByte - position);
+                System.arraycopy(block, 0, out, position, length);
+                position += length;
+            }
+            return out;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not expand", e);
+        } finally {
+            Arrays.fill(block, (byte) 0);
+        }
+    }
+
+    /**
+     * HKDF expand step for a fixed pseudo random key: every thread keys its own {@link Mac} only once and, as
+     * with extract, reuses it, so a derivation costs a single hmac computation without any key setup (for
+     * output lengths up to the mac length). The key therefore stays in the macs for the lifetime of this instance.
+     * <p>
+     * This class is thread safe.
+     */
+    static final class Expander {
+        private final String algorithm;
+        private final SecretKeySpec pseudoRandomKey;
+        private final ThreadLocal<Mac> macHolder = new ThreadLocal<>();
+
+        private Expander(String algorithm, SecretKeySpec pseudoRandomKey) {
+            this.algorithm = algorithm;
+            this.pseudoRandomKey = pseudoRandomKey;
+        }
+
+        /**
+         * @param info          context, e.g. the salt and id of an entry
+         * @param outLengthByte of the returned key, at most 255 times the mac length
+         * @return the derived key
+         */
+        byte[] expand(@Nullable byte[] info, int outLengthByte) {
+            Mac mac = macHolder.get();
+            if (mac == null) {
+                mac = createMac(algorithm);
+                try {
+                    mac.init(pseudoRandomKey);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("could not init mac", e);
+                }
+                macHolder.set(mac);
+            }
+            return HkdfEngine.expand(mac, info, outLengthByte);
+        }
+    }
+}
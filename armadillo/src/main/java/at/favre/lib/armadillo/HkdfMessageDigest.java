@@ -4,7 +4,6 @@ import java.text.Normalizer;
 import java.util.Objects;
 
 import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.HKDF;
 
 /**
  * A hash backed by HKDF using Hmac Sha512
@@ -13,7 +12,7 @@ import at.favre.lib.crypto.HKDF;
  */
 
 final class HkdfMessageDigest implements StringMessageDigest {
-    private final byte[] salt;
+    private final HkdfEngine hkdf;
     private final int outLength;
 
     /**
@@ -23,7 +22,7 @@ final class HkdfMessageDigest implements StringMessageDigest {
      * @param outByteLength the byte length created by the derive function
      */
     HkdfMessageDigest(byte[] salt, int outByteLength) {
-        this.salt = salt;
+        this.hkdf = new HkdfEngine(HkdfEngine.HMAC_SHA512, salt);
         this.outLength = outByteLength;
     }
 
@@ -32,7 +31,7 @@ final class HkdfMessageDigest implements StringMessageDigest {
         Objects.requireNonNull(providedMessage);
         Objects.requireNonNull(usageName);
 
-        return Bytes.wrap(HKDF.fromHmacSha512().extractAndExpand(salt, Bytes.from(providedMessage, Normalizer.Form.NFKD).array(),
+        return Bytes.wrap(hkdf.extractAndExpand(Bytes.from(providedMessage, Normalizer.Form.NFKD).array(),
                 Bytes.from(usageName, Normalizer.Form.NFKD).array(), outLength)).encodeHex();
     }
 }
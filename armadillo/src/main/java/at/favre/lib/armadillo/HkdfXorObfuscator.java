@@ -2,11 +2,11 @@ package at.favre.lib.armadillo;
 
 import android.support.annotation.NonNull;
 
-import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Objects;
 
-import at.favre.lib.bytes.Bytes;
-import at.favre.lib.crypto.HKDF;
+import javax.crypto.Mac;
 
 /**
  * A simple obfuscator using HKDF to derive keys for individual blocks and uses
@@ -22,6 +22,8 @@ import at.favre.lib.crypto.HKDF;
  */
 public final class HkdfXorObfuscator implements DataObfuscator {
     private static final int BLOCK_SIZE_BYTE = 128;
+    private static final int HMAC_LENGTH_BYTE = 64;
+    private static final HkdfEngine HKDF = new HkdfEngine(HkdfEngine.HMAC_SHA512, null);
 
     private final byte[] key;
 
@@ -31,29 +33,60 @@ public final class HkdfXorObfuscator implements DataObfuscator {
 
     @Override
     public void obfuscate(@NonNull byte[] original) {
+        Objects.requireNonNull(original);
+        obfuscate(original, 0, original.length);
+    }
+
+    /**
+     * Xors the range with the key stream. The key stream is HKDF-HmacSha512 (extract with 64 zero bytes as salt,
+     * then expand to {@link #BLOCK_SIZE_BYTE} per block with the block counter as info), but computed
+     * directly with the {@link Mac} of the {@link HkdfEngine} into a single block buffer instead of allocating new arrays for every block.
+     */
+    @Override
+    public void obfuscate(@NonNull byte[] original, int offset, int length) {
         Objects.requireNonNull(original);
         Objects.requireNonNull(this.key);
+        if (offset < 0 || length < 0 || offset + length > original.length) {
+            throw new IndexOutOfBoundsException("invalid range " + offset + "+" + length + " for length " + original.length);
+        }
 
-        byte[] okm = HKDF.fromHmacSha512().extract(new byte[64], key);
+        final byte[] block = new byte[BLOCK_SIZE_BYTE];
+        final byte[] info = new byte[4];
+        final byte[] prk = HKDF.extract(key);
+        final Mac mac = HKDF.keyedMac(prk);
 
-        int ctr = 0;
-        int byteIter = 0;
-        ByteBuffer buffer = ByteBuffer.wrap(original);
-        byte[] temp;
-        byte[] roundKey;
-        while (buffer.hasRemaining()) {
-            temp = new byte[Math.min(BLOCK_SIZE_BYTE, buffer.remaining())];
-            roundKey = HKDF.fromHmacSha512().expand(okm, Bytes.from(ctr++).array(), temp.length);
-            buffer.get(temp);
+        try {
+            final int end = offset + length;
+            int ctr = 0;
+            for (int position = offset; position < end; position += BLOCK_SIZE_BYTE) {
+                final int blockLength = Math.min(BLOCK_SIZE_BYTE, end - position);
+                info[0] = (byte) (ctr >>> 24);
+                info[1] = (byte) (ctr >>> 16);
+                info[2] = (byte) (ctr >>> 8);
+                info[3] = (byte) ctr;
+                ctr++;
 
-            for (int i = 0; i < temp.length; i++) {
-                original[byteIter++] = (byte) (temp[i] ^ roundKey[i]);
+                //T(i) = HMAC(PRK, T(i-1) | info | i)
+                for (int i = 0; i * HMAC_LENGTH_BYTE < blockLength; i++) {
+                    if (i > 0) {
+                        mac.update(block, (i - 1) * HMAC_LENGTH_BYTE, HMAC_LENGTH_BYTE);
+                    }
+                    mac.update(info);
+                    mac.update((byte) (i + 1));
+                    mac.doFinal(block, i * HMAC_LENGTH_BYTE);
+                }
+
+                for (int i = 0; i < blockLength; i++) {
+                    original[position + i] ^= block[i];
+                }
             }
-            Bytes.wrap(temp).mutable().fill((byte) 0);
-            Bytes.wrap(roundKey).mutable().fill((byte) 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("could not obfuscate", e);
+        } finally {
+            Arrays.fill(block, (byte) 0);
+            Arrays.fill(prk, (byte) 0);
+            HKDF.release(mac);
         }
-
-        Bytes.wrap(okm).mutable().fill((byte) 0);
     }
 
     @Override
@@ -61,9 +94,14 @@ public final class HkdfXorObfuscator implements DataObfuscator {
         obfuscate(obfuscated);
     }
 
+    @Override
+    public void deobfuscate(@NonNull byte[] obfuscated, int offset, int length) {
+        obfuscate(obfuscated, offset, length);
+    }
+
     @Override
     public void clearKey() {
-        Bytes.wrap(key).mutable().secureWipe();
+        Arrays.fill(key, (byte) 0);
     }
 
     public static final class Factory implements DataObfuscator.Factory {
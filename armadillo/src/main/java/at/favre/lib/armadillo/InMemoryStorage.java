@@ -0,0 +1,121 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * A thread safe {@link KeyValueStorage} only holding the data in memory. Useful for tests, benchmarks
+ * or as a base for custom backends. All arrays are copied on the way in and out.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class InMemoryStorage implements KeyValueStorage {
+    private final Map<String, Object> internalMap = new ConcurrentHashMap<>();
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        final Object value = internalMap.get(key);
+        return value instanceof byte[] ? Bytes.from((byte[]) value).array() : null;
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        final Object value = internalMap.get(key);
+        if (!(value instanceof List)) {
+            return null;
+        }
+        return copy((List<?>) value);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return internalMap.containsKey(key);
+    }
+
+    @Override
+    public Set<String> keys() {
+        return new HashSet<>(internalMap.keySet());
+    }
+
+    @Override
+    public Editor edit() {
+        return new InMemoryEditor();
+    }
+
+    private synchronized void executeTransaction(Map<String, Object> changes, boolean clear) {
+        if (clear) {
+            internalMap.clear();
+        }
+
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                internalMap.remove(entry.getKey());
+            } else {
+                internalMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static List<byte[]> copy(Collection<?> values) {
+        final List<byte[]> copies = new ArrayList<>(values.size());
+        for (Object value : values) {
+            copies.add(Bytes.from((byte[]) value).array());
+        }
+        return copies;
+    }
+
+    private final class InMemoryEditor implements Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            changes.put(key, Bytes.from(value).array());
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            changes.put(key, copy(values));
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            executeTransaction(changes, clear);
+            changes.clear();
+            clear = false;
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
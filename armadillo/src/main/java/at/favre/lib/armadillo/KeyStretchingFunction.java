@@ -29,4 +29,38 @@ public interface KeyStretchingFunction {
      * @return byte array with length of outLengthByte
      */
     byte[] stretch(byte[] salt, char[] password, int outLengthByte);
+
+    /**
+     * Creates key stretching functions with a given cost parameter (e.g. iterations or log2 rounds), so the
+     * cost can be calibrated to the device (see {@link Armadillo.Builder#calibrateKeyStretching(Factory, long, java.util.concurrent.TimeUnit)}).
+     */
+    interface Factory {
+
+        /**
+         * Creates a new function with given cost
+         *
+         * @param cost between {@link #getMinCost()} and {@link #getMaxCost()}
+         * @return new instance
+         */
+        KeyStretchingFunction create(int cost);
+
+        /**
+         * @return the lowest cost which should be used
+         */
+        int getMinCost();
+
+        /**
+         * @return the highest supported cost
+         */
+        int getMaxCost();
+
+        /**
+         * Estimates the cost for a given change in duration, e.g. for a factor of 2 the cost which takes twice as long.
+         *
+         * @param cost   the current cost
+         * @param factor of the duration
+         * @return the estimated cost, may be out of the supported range
+         */
+        int scaleCost(int cost, double factor);
+    }
 }
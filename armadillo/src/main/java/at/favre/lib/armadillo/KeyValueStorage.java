@@ -0,0 +1,84 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The storage backend the encrypted content of a {@link SecureSharedPreferences} is persisted in.
+ * It only ever sees hashed keys and encrypted (or obfuscated) values as raw bytes.
+ * <p>
+ * A value is either a single byte array or a collection of byte arrays (used for string sets).
+ * Implementations must be thread safe; returned arrays are owned by the caller and arrays passed to
+ * the editor may be modified by the caller after the call returns, so implementations should copy if
+ * they hold them in memory.
+ * <p>
+ * See {@link SharedPreferencesStorage} for the Android default and {@link InMemoryStorage}.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public interface KeyValueStorage {
+
+    /**
+     * Gets the single value of given key
+     *
+     * @param key to get
+     * @return value or null if not found or the key contains a set
+     */
+    @Nullable
+    byte[] get(String key);
+
+    /**
+     * Gets the set value of given key
+     *
+     * @param key to get
+     * @return values or null if not found or the key contains a single value
+     */
+    @Nullable
+    List<byte[]> getSet(String key);
+
+    boolean contains(String key);
+
+    /**
+     * Enumerates all persisted keys
+     *
+     * @return a copy of all keys
+     */
+    Set<String> keys();
+
+    /**
+     * Create a new editor to batch changes
+     *
+     * @return new editor
+     */
+    Editor edit();
+
+    /**
+     * Batches changes which will be persisted atomically with {@link #commit()} or {@link #apply()}.
+     * Like with {@link android.content.SharedPreferences.Editor}, a clear is always done first,
+     * regardless of the order of calls.
+     */
+    interface Editor {
+        Editor put(String key, byte[] value);
+
+        Editor putSet(String key, Collection<byte[]> values);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        /**
+         * Persists the changes synchronously
+         *
+         * @return true if the new values were successfully written
+         */
+        boolean commit();
+
+        /**
+         * Makes the changes visible immediately, but may persist them asynchronously
+         */
+        void apply();
+    }
+}
@@ -0,0 +1,688 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * A {@link KeyValueStorage} persisting into a single append-only log file. Every commit or apply appends
+ * one record containing the changed keys and their raw values (no Base64), so the cost of a write only depends
+ * on the size of the change, not on the size of the whole store (as opposed to {@link android.content.SharedPreferences}
+ * which rewrites the whole xml file).
+ * <p>
+ * An in-memory index maps every key to the position of its latest value in the file; values are read from the file
+ * on demand. Every record is protected by a CRC32 checksum - an incomplete or corrupt record at the end of the
+ * file (e.g. after a crash during a write) is discarded on open, so a batch is either fully visible or not at all.
+ * <p>
+ * Overwritten and removed values stay in the file as dead records. If their share of the file exceeds the configured
+ * threshold, the file is compacted on the given executor: live values are copied to a new file which replaces the
+ * old one with an atomic rename. Writes are not blocked while the bulk of the data is copied.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class LogFileStorage implements KeyValueStorage, Closeable {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DURABILITY_NONE, DURABILITY_COMMIT, DURABILITY_ALWAYS})
+    public @interface Durability {
+    }
+
+    /**
+     * Never force writes to the disk, leave it to the operating system. Fastest, but the latest
+     * changes may be lost on power loss (the file will still be consistent).
+     */
+    public static final int DURABILITY_NONE = 0;
+
+    /**
+     * Force {@link Editor#commit()} to the disk before returning; {@link Editor#apply()} only writes
+     * to the file. This resembles the guarantees of {@link android.content.SharedPreferences}.
+     */
+    public static final int DURABILITY_COMMIT = 1;
+
+    /**
+     * Force every change to the disk before returning
+     */
+    public static final int DURABILITY_ALWAYS = 2;
+
+    private static final int MAGIC = 0x41524c47;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    private static final int RECORD_OVERHEAD = 8;
+    private static final byte FLAG_CLEAR = 1;
+    private static final byte TYPE_VALUE = 0;
+    private static final byte TYPE_SET = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final long MIN_COMPACTION_FILE_LENGTH = 16 * 1024;
+    private static final int COMPACTION_RECORD_LENGTH = 64 * 1024;
+
+    private final File file;
+    @Durability
+    private final int durability;
+    private final double compactionThreshold;
+    private final Executor executor;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private Index index;
+    private long length;
+    private boolean closed;
+
+    /**
+     * Opens or creates the log file with {@link #DURABILITY_COMMIT}, compacting if more than half of the file
+     * is dead records
+     *
+     * @param file the log file; its parent directory must exist
+     * @throws IOException if the file could not be opened or is not a log storage file
+     */
+    public LogFileStorage(File file) throws IOException {
+        this(file, DURABILITY_COMMIT, 0.5, ArmadilloExecutors.defaultExecutor());
+    }
+
+    /**
+     * Opens or creates the log file
+     *
+     * @param file                the log file; its parent directory must exist
+     * @param durability          when to force writes to the disk
+     * @param compactionThreshold share of dead bytes (0-1) which triggers a compaction
+     * @param executor            used to run the compaction
+     * @throws IOException if the file could not be opened or is not a log storage file
+     */
+    public LogFileStorage(File file, @Durability int durability, double compactionThreshold, Executor executor) throws IOException {
+        if (compactionThreshold <= 0 || compactionThreshold > 1) {
+            throw new IllegalArgumentException("compaction threshold must be in (0,1]");
+        }
+        this.file = Objects.requireNonNull(file);
+        this.durability = durability;
+        this.compactionThreshold = compactionThreshold;
+        this.executor = Objects.requireNonNull(executor);
+        open();
+    }
+
+    private void open() throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        index = new Index();
+
+        try {
+            final long fileLength = channel.size();
+            if (fileLength == 0) {
+                writeFully(channel, fileHeader(), 0);
+                length = FILE_HEADER_LENGTH;
+            } else {
+                checkFileHeader(channel);
+                length = replay(channel, FILE_HEADER_LENGTH, fileLength, index);
+                if (length < fileLength) {
+                    Timber.w("discard %d bytes of incomplete or corrupt records in %s", fileLength - length, file);
+                    channel.truncate(length);
+                }
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        lock.readLock().lock();
+        try {
+            final Entry entry = getEntry(key);
+            return entry != null && entry.type == TYPE_VALUE ? read(channel, entry).array() : null;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read " + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        lock.readLock().lock();
+        try {
+            final Entry entry = getEntry(key);
+            if (entry == null || entry.type != TYPE_SET) {
+                return null;
+            }
+
+            final ByteBuffer payload = read(channel, entry);
+            final int count = payload.getInt();
+            final List<byte[]> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final byte[] value = new byte[payload.getInt()];
+                payload.get(value);
+                values.add(value);
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read " + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return getEntry(key) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> keys() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return new HashSet<>(index.entries.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new LogEditor();
+    }
+
+    /**
+     * Rewrites the file only containing the live values. This will be done automatically in the background, so
+     * usually there is no need to call this.
+     *
+     * @throws IOException if the new file could not be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            final Index snapshot;
+            final long snapshotLength;
+            final FileChannel snapshotChannel;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                snapshot = index.copy();
+                snapshotLength = length;
+                snapshotChannel = channel;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            final File compactedFile = new File(file.getPath() + ".compact");
+            final RandomAccessFile compactedRandomAccessFile = new RandomAccessFile(compactedFile, "rw");
+            boolean success = false;
+            try {
+                final FileChannel compactedChannel = compactedRandomAccessFile.getChannel();
+                compactedChannel.truncate(0);
+                final long compactedLength = writeLiveValues(snapshotChannel, snapshot, compactedChannel);
+
+                lock.writeLock().lock();
+                try {
+                    ensureOpen();
+                    //copy everything which was appended in the meantime
+                    long position = snapshotLength;
+                    compactedChannel.position(compactedLength);
+                    while (position < length) {
+                        position += channel.transferTo(position, length - position, compactedChannel);
+                    }
+
+                    final Index compactedIndex = new Index();
+                    final long newLength = replay(compactedChannel, FILE_HEADER_LENGTH, compactedChannel.size(), compactedIndex);
+                    compactedChannel.force(true);
+
+                    if (!compactedFile.renameTo(file)) {
+                        throw new IOException("could not replace " + file + " with compacted file");
+                    }
+
+                    Timber.d("compacted %s from %d to %d bytes", file, length, newLength);
+                    randomAccessFile.close();
+                    randomAccessFile = compactedRandomAccessFile;
+                    channel = compactedChannel;
+                    index = compactedIndex;
+                    length = newLength;
+                    success = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                if (!success) {
+                    compactedRandomAccessFile.close();
+                    //noinspection ResultOfMethodCallIgnored
+                    compactedFile.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!closed) {
+                closed = true;
+                randomAccessFile.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Current size of the log file in bytes
+     *
+     * @return length
+     */
+    long length() {
+        lock.readLock().lock();
+        try {
+            return length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    private Entry getEntry(String key) {
+        ensureOpen();
+        return index.entries.get(key);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("storage already closed");
+        }
+    }
+
+    private boolean append(Map<String, Object> changes, boolean clear, boolean force) {
+        if (changes.isEmpty() && !clear) {
+            return true;
+        }
+
+        final ByteBuffer record = encodeRecord(changes, clear);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            final long position = length;
+            try {
+                writeFully(channel, record, position);
+                if (force) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                Timber.e(e, "could not append to %s", file);
+                try {
+                    channel.truncate(position);
+                } catch (IOException ignore) {
+                }
+                return false;
+            }
+
+            record.position(4);
+            record.limit(record.capacity() - 4);
+            index.apply(record.slice(), position + 4);
+            length = position + record.capacity();
+
+            scheduleCompactionIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (length < MIN_COMPACTION_FILE_LENGTH || length - index.liveBytes <= compactionThreshold * length
+                || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    Timber.e(e, "could not compact %s", file);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the header and all live values of given index to the target, split up into records of roughly
+     * {@link #COMPACTION_RECORD_LENGTH}
+     *
+     * @return length of the written file
+     */
+    private static long writeLiveValues(FileChannel source, Index snapshot, FileChannel target) throws IOException {
+        long position = writeFully(target, fileHeader(), 0);
+        final Map<String, Object> chunk = new LinkedHashMap<>();
+        int chunkLength = 0;
+
+        for (Map.Entry<String, Entry> entry : snapshot.entries.entrySet()) {
+            final ByteBuffer payload = read(source, entry.getValue());
+            if (entry.getValue().type == TYPE_VALUE) {
+                chunk.put(entry.getKey(), payload.array());
+            } else {
+                chunk.put(entry.getKey(), payload);
+            }
+            chunkLength += entry.getValue().size;
+
+            if (chunkLength >= COMPACTION_RECORD_LENGTH) {
+                position += writeFully(target, encodeRecord(chunk, false), position);
+                chunk.clear();
+                chunkLength = 0;
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            position += writeFully(target, encodeRecord(chunk, false), position);
+        }
+        return position;
+    }
+
+    /**
+     * Reads all valid records of the channel into the index
+     *
+     * @return the position after the last valid record
+     */
+    private static long replay(FileChannel channel, long start, long end, Index index) throws IOException {
+        final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        final CRC32 crc = new CRC32();
+        long position = start;
+
+        while (position + RECORD_OVERHEAD <= end) {
+            lengthBuffer.clear();
+            readFully(channel, lengthBuffer, position);
+            final int bodyLength = lengthBuffer.getInt(0);
+            if (bodyLength < 5 || position + RECORD_OVERHEAD + bodyLength > end) {
+                break;
+            }
+
+            final ByteBuffer record = ByteBuffer.allocate(bodyLength + 4);
+            readFully(channel, record, position + 4);
+            crc.reset();
+            crc.update(record.array(), 0, bodyLength);
+            if ((int) crc.getValue() != record.getInt(bodyLength)) {
+                break;
+            }
+
+            record.position(0);
+            record.limit(bodyLength);
+            index.apply(record, position + 4);
+            position += RECORD_OVERHEAD + bodyLength;
+        }
+        return position;
+    }
+
+    /**
+     * Format: body length (int), body, crc32 of body (int). Body: flags (byte), entry count (int) then
+     * per entry: key length (int), key (utf-8), type (byte), payload length (int) and payload; for sets
+     * the payload is the element count (int) and per element its length (int) and value.
+     *
+     * @param changes values are either byte[], a collection of byte[], an already encoded set payload as
+     *                {@link ByteBuffer} or null for removal
+     * @param clear   if the record clears all prior content
+     * @return the whole record, ready to be written
+     */
+    private static ByteBuffer encodeRecord(Map<String, Object> changes, boolean clear) {
+        final List<byte[]> keys = new ArrayList<>(changes.size());
+        int bodyLength = 5;
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            final byte[] key = Bytes.from(entry.getKey()).array();
+            keys.add(key);
+            bodyLength += 4 + key.length + 1 + 4 + payloadLength(entry.getValue());
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + bodyLength);
+        record.putInt(bodyLength);
+        record.put(clear ? FLAG_CLEAR : 0);
+        record.putInt(changes.size());
+
+        int i = 0;
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            final byte[] key = keys.get(i++);
+            final Object value = entry.getValue();
+            record.putInt(key.length);
+            record.put(key);
+            if (value == null) {
+                record.put(TYPE_REMOVE);
+                record.putInt(0);
+            } else if (value instanceof byte[]) {
+                record.put(TYPE_VALUE);
+                record.putInt(((byte[]) value).length);
+                record.put((byte[]) value);
+            } else if (value instanceof ByteBuffer) {
+                record.put(TYPE_SET);
+                record.putInt(((ByteBuffer) value).remaining());
+                record.put(((ByteBuffer) value).duplicate());
+            } else {
+                final Collection<?> elements = (Collection<?>) value;
+                record.put(TYPE_SET);
+                record.putInt(payloadLength(value));
+                record.putInt(elements.size());
+                for (Object element : elements) {
+                    record.putInt(((byte[]) element).length);
+                    record.put((byte[]) element);
+                }
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, bodyLength);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static int payloadLength(@Nullable Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        }
+
+        int length = 4;
+        for (Object element : (Collection<?>) value) {
+            length += 4 + ((byte[]) element).length;
+        }
+        return length;
+    }
+
+    private static ByteBuffer fileHeader() {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static void checkFileHeader(FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("not a log storage file");
+        }
+        if (header.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("unsupported log storage format version " + header.getInt(4));
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, Entry entry) throws IOException {
+        final ByteBuffer payload = ByteBuffer.allocate(entry.length);
+        readFully(channel, payload, entry.position);
+        payload.flip();
+        return payload;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return length;
+    }
+
+    /**
+     * Maps every key to the location of its latest value
+     */
+    private static final class Index {
+        private final Map<String, Entry> entries = new HashMap<>();
+        private long liveBytes;
+
+        /**
+         * Applies a record body (see {@link #encodeRecord(Map, boolean)}) to the index
+         *
+         * @param body         the record body
+         * @param bodyPosition the position of the body in the file
+         */
+        private void apply(ByteBuffer body, long bodyPosition) {
+            if ((body.get() & FLAG_CLEAR) != 0) {
+                entries.clear();
+                liveBytes = 0;
+            }
+
+            final int count = body.getInt();
+            for (int i = 0; i < count; i++) {
+                final int start = body.position();
+                final byte[] key = new byte[body.getInt()];
+                body.get(key);
+                final byte type = body.get();
+                final int payloadLength = body.getInt();
+                final long payloadPosition = bodyPosition + body.position();
+                body.position(body.position() + payloadLength);
+
+                final Entry old;
+                if (type == TYPE_REMOVE) {
+                    old = entries.remove(Bytes.wrap(key).encodeUtf8());
+                } else {
+                    final Entry entry = new Entry(payloadPosition, payloadLength, type, body.position() - start);
+                    old = entries.put(Bytes.wrap(key).encodeUtf8(), entry);
+                    liveBytes += entry.size;
+                }
+
+                if (old != null) {
+                    liveBytes -= old.size;
+                }
+            }
+        }
+
+        private Index copy() {
+            final Index copy = new Index();
+            copy.entries.putAll(entries);
+            copy.liveBytes = liveBytes;
+            return copy;
+        }
+    }
+
+    private static final class Entry {
+        private final long position;
+        private final int length;
+        private final byte type;
+        /**
+         * Bytes used by the whole entry in the record
+         */
+        private final int size;
+
+        private Entry(long position, int length, byte type, int size) {
+            this.position = position;
+            this.length = length;
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    private final class LogEditor implements Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            changes.put(key, Bytes.from(value).array());
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            final List<byte[]> copies = new ArrayList<>(values.size());
+            for (byte[] value : values) {
+                copies.add(Bytes.from(value).array());
+            }
+            changes.put(key, copies);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return persist(durability != DURABILITY_NONE);
+        }
+
+        @Override
+        public void apply() {
+            persist(durability == DURABILITY_ALWAYS);
+        }
+
+        private boolean persist(boolean force) {
+            final boolean result = append(changes, clear, force);
+            changes.clear();
+            clear = false;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * A read optimized {@link KeyValueStorage} using a binary file with a sorted index of all keys, which is
+ * accessed through a read-only {@link java.nio.MappedByteBuffer}. Opening the file only maps it and checks its
+ * header, a lookup is a binary search over the index followed by copying the requested value out of the mapping.
+ * Nothing is parsed or held in memory up front, so open time does not depend on the size of the store and
+ * resident memory is proportional to what is actually read (the pages are managed by the operating system).
+ * <p>
+ * Writes rewrite the whole file into a temporary file which then replaces the old file with an atomic rename,
+ * so this backend suits stores which are read often but written rarely. {@link Editor#apply()} behaves like
+ * {@link Editor#commit()}. The file must not exceed 2 GiB.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MappedFileStorage implements KeyValueStorage {
+    private static final int MAGIC = 0x41524d46;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int SLOT_LENGTH = 17;
+    private static final byte TYPE_VALUE = 0;
+    private static final byte TYPE_SET = 1;
+    private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] o1, byte[] o2) {
+            final int length = Math.min(o1.length, o2.length);
+            for (int i = 0; i < length; i++) {
+                final int cmp = (o1[i] & 0xff) - (o2[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return o1.length - o2.length;
+        }
+    };
+
+    private final File file;
+    private final Object writeLock = new Object();
+    private volatile Mapping mapping;
+
+    /**
+     * Opens the file by mapping it into memory; it will be created with the first write if it does not exist
+     *
+     * @param file the storage file; its parent directory must exist
+     * @throws IOException if the file could not be mapped or is not a mapped storage file
+     */
+    public MappedFileStorage(File file) throws IOException {
+        this.file = Objects.requireNonNull(file);
+        this.mapping = file.exists() ? Mapping.open(file) : Mapping.EMPTY;
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        final Mapping current = mapping;
+        final int slot = current.find(Bytes.from(key).array());
+        if (slot < 0 || current.type(slot) != TYPE_VALUE) {
+            return null;
+        }
+        return current.value(slot).array();
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        final Mapping current = mapping;
+        final int slot = current.find(Bytes.from(key).array());
+        if (slot < 0 || current.type(slot) != TYPE_SET) {
+            return null;
+        }
+
+        final ByteBuffer payload = current.value(slot);
+        final int count = payload.getInt();
+        final List<byte[]> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] value = new byte[payload.getInt()];
+            payload.get(value);
+            values.add(value);
+        }
+        return values;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mapping.find(Bytes.from(key).array()) >= 0;
+    }
+
+    @Override
+    public Set<String> keys() {
+        final Mapping current = mapping;
+        final Set<String> keys = new HashSet<>(current.count);
+        for (int i = 0; i < current.count; i++) {
+            keys.add(Bytes.wrap(current.key(i)).encodeUtf8());
+        }
+        return keys;
+    }
+
+    @Override
+    public Editor edit() {
+        return new MappedEditor();
+    }
+
+    private boolean write(Map<String, Object> changes, boolean clear) {
+        if (changes.isEmpty() && !clear) {
+            return true;
+        }
+
+        synchronized (writeLock) {
+            final Mapping current = mapping;
+            //values are either byte[], List of byte[] or an encoded set as ByteBuffer
+            final TreeMap<byte[], Object> content = new TreeMap<>(KEY_ORDER);
+            final Map<byte[], Byte> types = new TreeMap<>(KEY_ORDER);
+
+            if (!clear) {
+                for (int i = 0; i < current.count; i++) {
+                    final byte[] key = current.key(i);
+                    content.put(key, current.value(i));
+                    types.put(key, current.type(i));
+                }
+            }
+
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                final byte[] key = Bytes.from(entry.getKey()).array();
+                if (entry.getValue() == null) {
+                    content.remove(key);
+                    types.remove(key);
+                } else {
+                    content.put(key, entry.getValue());
+                    types.put(key, entry.getValue() instanceof byte[] ? TYPE_VALUE : TYPE_SET);
+                }
+            }
+
+            final File tempFile = new File(file.getPath() + ".tmp");
+            try {
+                writeFile(tempFile, content, types);
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("could not replace " + file);
+                }
+                mapping = Mapping.open(file);
+                return true;
+            } catch (IOException e) {
+                Timber.e(e, "could not write %s", file);
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Format: magic (int), version (int), entry count (int), then one slot per entry sorted by the utf-8 bytes of the key:
+     * key offset (int), key length (int), type (byte), value offset (int), value length (int); followed by the keys and
+     * values. Set values are encoded as element count (int) and per element its length (int) and value.
+     */
+    private static void writeFile(File target, TreeMap<byte[], Object> content, Map<byte[], Byte> types) throws IOException {
+        final FileOutputStream fileOutputStream = new FileOutputStream(target);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 32 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(content.size());
+
+            long offset = HEADER_LENGTH + (long) SLOT_LENGTH * content.size();
+            for (Map.Entry<byte[], Object> entry : content.entrySet()) {
+                final int valueLength = valueLength(entry.getValue());
+                if (offset + entry.getKey().length + valueLength > Integer.MAX_VALUE) {
+                    throw new IOException("storage file would exceed 2 GiB");
+                }
+                out.writeInt((int) offset);
+                out.writeInt(entry.getKey().length);
+                out.writeByte(types.get(entry.getKey()));
+                out.writeInt((int) offset + entry.getKey().length);
+                out.writeInt(valueLength);
+                offset += entry.getKey().length + valueLength;
+            }
+
+            for (Map.Entry<byte[], Object> entry : content.entrySet()) {
+                out.write(entry.getKey());
+                final Object value = entry.getValue();
+                if (value instanceof byte[]) {
+                    out.write((byte[]) value);
+                } else if (value instanceof ByteBuffer) {
+                    final ByteBuffer buffer = (ByteBuffer) value;
+                    out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    final Collection<?> elements = (Collection<?>) value;
+                    out.writeInt(elements.size());
+                    for (Object element : elements) {
+                        out.writeInt(((byte[]) element).length);
+                        out.write((byte[]) element);
+                    }
+                }
+            }
+
+            out.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    private static int valueLength(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        }
+
+        int length = 4;
+        for (Object element : (Collection<?>) value) {
+            length += 4 + ((byte[]) element).length;
+        }
+        return length;
+    }
+
+    /**
+     * An immutable view of the mapped file. Only absolute reads or reads on duplicates are used, so it can be
+     * shared by all threads.
+     */
+    private static final class Mapping {
+        private static final Mapping EMPTY = new Mapping(ByteBuffer.allocate(0), 0);
+
+        private final ByteBuffer buffer;
+        private final int count;
+
+        private Mapping(ByteBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+        }
+
+        private static Mapping open(File file) throws IOException {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = randomAccessFile.getChannel();
+                final long size = channel.size();
+                if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                    throw new IOException("not a mapped storage file");
+                }
+
+                //the mapping stays valid after the channel is closed
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("not a mapped storage file");
+                }
+                if (buffer.getInt(4) != FORMAT_VERSION) {
+                    throw new IOException("unsupported mapped storage format version " + buffer.getInt(4));
+                }
+
+                final int count = buffer.getInt(8);
+                if (count < 0 || HEADER_LENGTH + (long) SLOT_LENGTH * count > size) {
+                    throw new IOException("corrupt mapped storage file");
+                }
+                return new Mapping(buffer, count);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        /**
+         * Binary search over the sorted slots comparing the key directly in the mapping
+         *
+         * @return index of the slot or -1 if not found
+         */
+        private int find(byte[] key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareKey(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compareKey(int slot, byte[] key) {
+            final int keyOffset = buffer.getInt(slotOffset(slot));
+            final int keyLength = buffer.getInt(slotOffset(slot) + 4);
+            final int length = Math.min(keyLength, key.length);
+            for (int i = 0; i < length; i++) {
+                final int cmp = (buffer.get(keyOffset + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return keyLength - key.length;
+        }
+
+        private byte[] key(int slot) {
+            final byte[] key = new byte[buffer.getInt(slotOffset(slot) + 4)];
+            final ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(buffer.getInt(slotOffset(slot)));
+            duplicate.get(key);
+            return key;
+        }
+
+        private byte type(int slot) {
+            return buffer.get(slotOffset(slot) + 8);
+        }
+
+        /**
+         * Copies the value out of the mapping
+         *
+         * @return heap buffer containing only the value
+         */
+        private ByteBuffer value(int slot) {
+            final byte[] value = new byte[buffer.getInt(slotOffset(slot) + 13)];
+            final ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(buffer.getInt(slotOffset(slot) + 9));
+            duplicate.get(value);
+            return ByteBuffer.wrap(value);
+        }
+
+        private static int slotOffset(int slot) {
+            return HEADER_LENGTH + slot * SLOT_LENGTH;
+        }
+    }
+
+    private final class MappedEditor implements Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            changes.put(key, Bytes.from(value).array());
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            final List<byte[]> copies = new ArrayList<>(values.size());
+            for (byte[] value : values) {
+                copies.add(Bytes.from(value).array());
+            }
+            changes.put(key, copies);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            final boolean result = write(changes, clear);
+            changes.clear();
+            clear = false;
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
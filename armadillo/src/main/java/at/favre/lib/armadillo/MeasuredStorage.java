@@ -0,0 +1,115 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A decorator for any {@link KeyValueStorage} reporting reads and written batches to a {@link MetricsListener}
+ * (see {@link MetricsListener#STAGE_STORAGE_READ} and {@link MetricsListener#STAGE_STORAGE_WRITE}).
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class MeasuredStorage implements KeyValueStorage {
+    private final KeyValueStorage storage;
+    private final Metrics metrics;
+
+    MeasuredStorage(KeyValueStorage storage, Metrics metrics) {
+        this.storage = Objects.requireNonNull(storage);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        final long start = metrics.start();
+        final byte[] value = storage.get(key);
+        metrics.stage(MetricsListener.STAGE_STORAGE_READ, start, value != null ? value.length : 0);
+        return value;
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        final long start = metrics.start();
+        final List<byte[]> values = storage.getSet(key);
+        metrics.stage(MetricsListener.STAGE_STORAGE_READ, start, values != null ? byteCount(values) : 0);
+        return values;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return storage.contains(key);
+    }
+
+    @Override
+    public Set<String> keys() {
+        return storage.keys();
+    }
+
+    @Override
+    public Editor edit() {
+        return new MeasuredEditor(storage.edit());
+    }
+
+    private static int byteCount(Collection<byte[]> values) {
+        int count = 0;
+        for (byte[] value : values) {
+            count += value.length;
+        }
+        return count;
+    }
+
+    private final class MeasuredEditor implements Editor {
+        private final Editor editor;
+        private int byteCount;
+
+        MeasuredEditor(Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            editor.put(key, value);
+            byteCount += value.length;
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            editor.putSet(key, values);
+            byteCount += byteCount(values);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            final long start = metrics.start();
+            final boolean result = editor.commit();
+            metrics.stage(MetricsListener.STAGE_STORAGE_WRITE, start, byteCount);
+            return result;
+        }
+
+        @Override
+        public void apply() {
+            final long start = metrics.start();
+            editor.apply();
+            metrics.stage(MetricsListener.STAGE_STORAGE_WRITE, start, byteCount);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package at.favre.lib.armadillo;
+
+import java.util.Objects;
+
+/**
+ * A decorator for any {@link TextEncoding} reporting every call to a {@link MetricsListener}
+ * (see {@link MetricsListener#STAGE_ENCODING} and {@link MetricsListener#STAGE_DECODING}).
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class MeasuredTextEncoding implements TextEncoding {
+    private final TextEncoding textEncoding;
+    private final Metrics metrics;
+
+    MeasuredTextEncoding(TextEncoding textEncoding, Metrics metrics) {
+        this.textEncoding = Objects.requireNonNull(textEncoding);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Override
+    public String encode(byte[] data) {
+        final long start = metrics.start();
+        final String text = textEncoding.encode(data);
+        metrics.stage(MetricsListener.STAGE_ENCODING, start, data.length);
+        return text;
+    }
+
+    @Override
+    public byte[] decode(String text) {
+        final long start = metrics.start();
+        final byte[] data = textEncoding.decode(text);
+        metrics.stage(MetricsListener.STAGE_DECODING, start, data.length);
+        return data;
+    }
+}
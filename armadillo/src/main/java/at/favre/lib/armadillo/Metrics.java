@@ -0,0 +1,52 @@
+package at.favre.lib.armadillo;
+
+/**
+ * Measures stages for a {@link MetricsListener}; if the listener is {@link MetricsListener#NONE}, no clock is read.
+ * <p>
+ * Usage: {@code long start = metrics.start(); ...; metrics.stage(STAGE, start, byteCount);}
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class Metrics {
+    static final Metrics DISABLED = new Metrics(MetricsListener.NONE);
+
+    private final MetricsListener listener;
+    private final boolean enabled;
+
+    Metrics(MetricsListener listener) {
+        this.listener = listener;
+        this.enabled = listener != MetricsListener.NONE;
+    }
+
+    /**
+     * @return the start of a stage or 0 if disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Reports a completed stage
+     *
+     * @param stage     which was completed
+     * @param start     as returned by {@link #start()}
+     * @param byteCount processed bytes
+     */
+    void stage(@MetricsListener.Stage int stage, long start, int byteCount) {
+        if (enabled) {
+            listener.onStage(stage, System.nanoTime() - start, byteCount);
+        }
+    }
+
+    void cacheHit() {
+        if (enabled) {
+            listener.onCacheHit();
+        }
+    }
+
+    void cacheMiss() {
+        if (enabled) {
+            listener.onCacheMiss();
+        }
+    }
+}
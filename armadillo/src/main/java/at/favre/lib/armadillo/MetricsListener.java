@@ -0,0 +1,119 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Receives the duration of every single stage of reading and writing values (see {@link Armadillo.Builder#metricsListener(MetricsListener)}),
+ * to find out where the time goes. The listener is called synchronously in the thread doing the work,
+ * so implementations must be thread safe and fast. See {@link HistogramMetricsListener} for an implementation
+ * aggregating all calls.
+ * <p>
+ * If no listener is set ({@link #NONE}), no time is measured at all.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public interface MetricsListener {
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_CONTENT_KEY_DIGEST, STAGE_FINGERPRINT, STAGE_KEY_STRETCHING, STAGE_KEY_DERIVATION,
+            STAGE_COMPRESSION, STAGE_DECOMPRESSION, STAGE_ENCRYPTION, STAGE_DECRYPTION, STAGE_OBFUSCATION,
+            STAGE_DEOBFUSCATION, STAGE_ENCODING, STAGE_DECODING, STAGE_STORAGE_READ, STAGE_STORAGE_WRITE})
+    @interface Stage {
+    }
+
+    /**
+     * Hashing the key provided by the caller to the content key (only if not memoized); byte count is 0
+     */
+    int STAGE_CONTENT_KEY_DIGEST = 0;
+    /**
+     * Unmasking the {@link EncryptionFingerprint}; byte count is the fingerprint length
+     */
+    int STAGE_FINGERPRINT = 1;
+    /**
+     * Stretching the password with the {@link KeyStretchingFunction} (once per store); byte count is the output length
+     */
+    int STAGE_KEY_STRETCHING = 2;
+    /**
+     * Deriving the content encryption key with HKDF; byte count is the key length
+     */
+    int STAGE_KEY_DERIVATION = 3;
+    /**
+     * Compressing the plaintext; byte count is the plaintext length
+     */
+    int STAGE_COMPRESSION = 4;
+    /**
+     * Decompressing the decrypted content; byte count is the compressed length
+     */
+    int STAGE_DECOMPRESSION = 5;
+    /**
+     * Authenticated encryption; byte count is the length of the (compressed) plaintext
+     */
+    int STAGE_ENCRYPTION = 6;
+    /**
+     * Authenticated decryption; byte count is the length of the encrypted content
+     */
+    int STAGE_DECRYPTION = 7;
+    /**
+     * Obfuscating the encrypted content; byte count is the obfuscated length
+     */
+    int STAGE_OBFUSCATION = 8;
+    /**
+     * De-obfuscating the persisted content; byte count is the obfuscated length
+     */
+    int STAGE_DEOBFUSCATION = 9;
+    /**
+     * Encoding the content as text for the shared preferences; byte count is the content length
+     */
+    int STAGE_ENCODING = 10;
+    /**
+     * Decoding the text of the shared preferences; byte count is the content length
+     */
+    int STAGE_DECODING = 11;
+    /**
+     * Reading a value from the {@link KeyValueStorage} (including decoding); byte count is the read length
+     */
+    int STAGE_STORAGE_READ = 12;
+    /**
+     * Committing or applying a batch to the {@link KeyValueStorage} (including encoding); byte count is the
+     * written length
+     */
+    int STAGE_STORAGE_WRITE = 13;
+
+    /**
+     * Called after a stage is completed
+     *
+     * @param stage         which was completed
+     * @param durationNanos how long the stage took in nanoseconds
+     * @param byteCount     processed bytes, see the stage constants
+     */
+    void onStage(@Stage int stage, long durationNanos, int byteCount);
+
+    /**
+     * Called if a value was found in the decrypted value cache (see {@link Armadillo.Builder#cacheDecryptedValues(int)})
+     */
+    void onCacheHit();
+
+    /**
+     * Called if a value was not found in the decrypted value cache
+     */
+    void onCacheMiss();
+
+    /**
+     * The default: does nothing and disables all measurements
+     */
+    MetricsListener NONE = new MetricsListener() {
+        @Override
+        public void onStage(int stage, long durationNanos, int byteCount) {
+        }
+
+        @Override
+        public void onCacheHit() {
+        }
+
+        @Override
+        public void onCacheMiss() {
+        }
+    };
+}
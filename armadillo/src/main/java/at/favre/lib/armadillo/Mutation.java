@@ -0,0 +1,109 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import at.favre.lib.bytes.Bytes;
+
+/**
+ * A single recorded, not yet persisted change of an entry identified by its hashed content key.
+ * The plaintext is held until the change is persisted and will be wiped afterwards.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class Mutation {
+    static final int TYPE_PUT = 0;
+    static final int TYPE_PUT_SET = 1;
+    static final int TYPE_REMOVE = 2;
+
+    final int type;
+    @Nullable
+    private final byte[] value;
+    private final List<byte[]> setValues;
+
+    private Mutation(int type, @Nullable byte[] value, List<byte[]> setValues) {
+        this.type = type;
+        this.value = value;
+        this.setValues = setValues;
+    }
+
+    static Mutation put(byte[] value) {
+        return new Mutation(TYPE_PUT, value, Collections.<byte[]>emptyList());
+    }
+
+    static Mutation putSet(List<byte[]> values) {
+        return new Mutation(TYPE_PUT_SET, null, values);
+    }
+
+    static Mutation remove() {
+        return new Mutation(TYPE_REMOVE, null, Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * The amount of values which need to be encrypted for this change
+     *
+     * @return count of values
+     */
+    int valueCount() {
+        switch (type) {
+            case TYPE_PUT:
+                return 1;
+            case TYPE_PUT_SET:
+                return setValues.size();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Gets the plaintext value with given index (0 for single values, the index of the set element for sets)
+     *
+     * @param index of the value
+     * @return internal array, do not modify
+     */
+    byte[] getValue(int index) {
+        return type == TYPE_PUT ? value : setValues.get(index);
+    }
+
+    /**
+     * Gets a copy of the single value
+     *
+     * @return copy or null if this is not a single value put
+     */
+    @Nullable
+    byte[] copyValue() {
+        return type == TYPE_PUT ? Bytes.from(value).array() : null;
+    }
+
+    /**
+     * Gets copies of all set values
+     *
+     * @return copies or null if this is not a set put
+     */
+    @Nullable
+    List<byte[]> copySetValues() {
+        if (type != TYPE_PUT_SET) {
+            return null;
+        }
+        List<byte[]> copies = new ArrayList<>(setValues.size());
+        for (byte[] setValue : setValues) {
+            copies.add(Bytes.from(setValue).array());
+        }
+        return copies;
+    }
+
+    /**
+     * Overwrites all held plaintext
+     */
+    void wipe() {
+        if (value != null) {
+            Bytes.wrap(value).mutable().secureWipe();
+        }
+        for (byte[] setValue : setValues) {
+            Bytes.wrap(setValue).mutable().secureWipe();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package at.favre.lib.armadillo;
+
+import java.nio.ByteBuffer;
+
+import timber.log.Timber;
+
+/**
+ * A counter which never returns the same value twice for a store, even across restarts, used to derive the nonces
+ * of the authenticated encryption (see {@link Armadillo.Builder#counterBasedNonce()}).
+ * <p>
+ * To not persist on every call, the counter reserves blocks of values: the end of the current block (the high-water
+ * mark) is persisted in the {@link StoreMetadata} before any value of the block is returned. After a restart,
+ * counting continues at the persisted mark, so unused values of the last block are skipped.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class NonceCounter {
+    static final String METADATA_NAME = "nonceCounter";
+    private static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final StoreMetadata metadata;
+    private final int blockSize;
+    private long next;
+    private long limit;
+
+    NonceCounter(StoreMetadata metadata) {
+        this(metadata, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param metadata  to persist the high-water mark in
+     * @param blockSize count of values reserved with one write
+     */
+    NonceCounter(StoreMetadata metadata, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be greater than 0");
+        }
+        this.metadata = metadata;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Gets the next value, reserving a new block if the current one is used up
+     *
+     * @return value never returned before for this store
+     * @throws IllegalStateException if a new block could not be persisted
+     */
+    synchronized long next() {
+        if (next == limit) {
+            reserve();
+        }
+        return next++;
+    }
+
+    private void reserve() {
+        //another instance of the same store might have reserved blocks in the meantime
+        final long start = Math.max(limit, readHighWaterMark());
+        final long end = start + blockSize;
+        if (end < start) {
+            throw new IllegalStateException("nonce counter exhausted");
+        }
+
+        if (!metadata.put(METADATA_NAME, ByteBuffer.allocate(8).putLong(end).array())) {
+            throw new IllegalStateException("could not persist nonce counter reservation");
+        }
+        Timber.v("reserved nonce counter block [%d, %d)", start, end);
+        next = start;
+        limit = end;
+    }
+
+    private long readHighWaterMark() {
+        final byte[] persisted = metadata.get(METADATA_NAME);
+        if (persisted == null) {
+            return 0;
+        }
+        if (persisted.length != 8) {
+            throw new IllegalStateException("invalid persisted nonce counter");
+        }
+        return ByteBuffer.wrap(persisted).getLong();
+    }
+}
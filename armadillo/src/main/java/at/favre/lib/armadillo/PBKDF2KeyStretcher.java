@@ -74,4 +74,42 @@ public final class PBKDF2KeyStretcher implements KeyStretchingFunction {
         SecretKeyFactory skf = provider != null ? SecretKeyFactory.getInstance(PBKDF2_ALGORITHM, provider) : SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
         return skf.generateSecret(spec).getEncoded();
     }
+
+    /**
+     * Creates instances with given iteration count; the duration grows linearly with the iterations
+     */
+    public static final class Factory implements KeyStretchingFunction.Factory {
+        private final Provider provider;
+
+        public Factory() {
+            this(null);
+        }
+
+        /**
+         * @param provider optional security provider (might be null if default should be chosen)
+         */
+        public Factory(@Nullable Provider provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public KeyStretchingFunction create(int cost) {
+            return new PBKDF2KeyStretcher(cost, provider);
+        }
+
+        @Override
+        public int getMinCost() {
+            return PBKDF2_MIN_ITERATIONS;
+        }
+
+        @Override
+        public int getMaxCost() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int scaleCost(int cost, double factor) {
+            return (int) Math.min(Integer.MAX_VALUE, Math.round(cost * factor));
+        }
+    }
 }
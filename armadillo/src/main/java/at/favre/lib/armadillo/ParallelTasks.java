@@ -0,0 +1,110 @@
+package at.favre.lib.armadillo;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a fixed amount of independent, indexed tasks in parallel on a given executor.
+ * <p>
+ * The calling thread takes part in the work: all threads take the next unprocessed index from a shared
+ * counter, and the caller only waits for tasks which are already running on another thread. Because
+ * of this, the execution can never deadlock, even if the executor is saturated or the caller itself
+ * runs on a thread of the same executor - in the worst case the caller simply processes all tasks itself.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class ParallelTasks {
+
+    /**
+     * A task processing a single index
+     */
+    interface Task {
+        void run(int index);
+    }
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Runs the task for every index in [0, count) and blocks until all are done.
+     *
+     * @param executor to run on
+     * @param count    amount of indexes
+     * @param task     to run for each index
+     * @throws RuntimeException the first exception thrown by any task
+     */
+    static void forEach(Executor executor, final int count, final Task task) {
+        if (count == 0) {
+            return;
+        }
+
+        final Worker worker = new Worker(count, task);
+        final int helpers = Math.min(count, Runtime.getRuntime().availableProcessors()) - 1;
+
+        for (int i = 0; i < helpers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+
+        worker.run();
+        worker.awaitCompletion();
+    }
+
+    private static final class Worker implements Runnable {
+        private final int count;
+        private final Task task;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger done = new AtomicInteger();
+        private volatile RuntimeException error;
+
+        private Worker(int count, Task task) {
+            this.count = count;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            int index;
+            while ((index = next.getAndIncrement()) < count) {
+                try {
+                    if (error == null) {
+                        task.run(index);
+                    }
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    if (done.incrementAndGet() == count) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+
+        private void awaitCompletion() {
+            boolean interrupted = false;
+            synchronized (this) {
+                while (done.get() < count) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
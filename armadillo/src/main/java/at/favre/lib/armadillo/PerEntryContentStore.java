@@ -0,0 +1,257 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The default layout: every value is encrypted on its own with its own content salt and derived key and
+ * persisted under its hashed content key (string sets as set of encrypted values).
+ * Reading a single value is cheap on I/O but needs a key derivation per value.
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class PerEntryContentStore extends ContentStore {
+
+    private PerEntryContentStore(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                                 RecoveryPolicy recoveryPolicy, Executor executor) {
+        super(storage, storageSaltKey, metadataKey, password, recoveryPolicy, executor);
+    }
+
+    @Nullable
+    @Override
+    byte[] get(String keyHash) {
+        final byte[] encryptedValue = storage.get(keyHash);
+        if (encryptedValue == null) {
+            return null;
+        }
+        return decrypt(keyHash, encryptedValue);
+    }
+
+    @Nullable
+    @Override
+    List<byte[]> getSet(String keyHash) {
+        final List<byte[]> encryptedSet = storage.getSet(keyHash);
+        if (encryptedSet == null) {
+            return null;
+        }
+
+        final List<byte[]> decryptedSet = new ArrayList<>(encryptedSet.size());
+        for (byte[] encryptedValue : encryptedSet) {
+            byte[] bytes = decrypt(keyHash, encryptedValue);
+            if (bytes == null) {
+                return decryptedSet;
+            }
+            decryptedSet.add(bytes);
+        }
+        return decryptedSet;
+    }
+
+    @Override
+    boolean contains(String keyHash) {
+        return storage.contains(keyHash);
+    }
+
+    @Override
+    Set<String> getKeyHashes() {
+        final Set<String> keyHashes = storage.keys();
+        keyHashes.remove(storageSaltKey);
+        keyHashes.remove(metadataKey);
+        return keyHashes;
+    }
+
+    /**
+     * Decrypts all entries in parallel on the executor sharing the store scoped key material in
+     * one {@link EncryptionProtocol.DecryptionSession}.
+     */
+    @Override
+    void getAll(Collection<String> keyHashes, Map<String, byte[]> values, Map<String, List<byte[]>> setValues) {
+        final List<String> unitKeyHashes = new ArrayList<>();
+        final List<byte[]> unitEncrypted = new ArrayList<>();
+
+        for (String keyHash : keyHashes) {
+            final byte[] encrypted = storage.get(keyHash);
+            if (encrypted != null) {
+                unitKeyHashes.add(keyHash);
+                unitEncrypted.add(encrypted);
+                continue;
+            }
+
+            final List<byte[]> encryptedSet = storage.getSet(keyHash);
+            if (encryptedSet != null) {
+                setValues.put(keyHash, new ArrayList<byte[]>());
+                for (byte[] encryptedElement : encryptedSet) {
+                    unitKeyHashes.add(keyHash);
+                    unitEncrypted.add(encryptedElement);
+                }
+            }
+        }
+
+        final byte[][] decrypted = new byte[unitKeyHashes.size()][];
+        final EncryptionProtocol.DecryptionSession session = encryptionProtocol.openDecryptionSession(password);
+        try {
+            ParallelTasks.forEach(executor, decrypted.length, new ParallelTasks.Task() {
+                @Override
+                public void run(int index) {
+                    decrypted[index] = decrypt(session, unitKeyHashes.get(index), unitEncrypted.get(index));
+                }
+            });
+        } finally {
+            session.close();
+        }
+
+        for (int i = 0; i < decrypted.length; i++) {
+            if (decrypted[i] == null) {
+                continue;
+            }
+
+            final List<byte[]> set = setValues.get(unitKeyHashes.get(i));
+            if (set != null) {
+                set.add(decrypted[i]);
+            } else {
+                values.put(unitKeyHashes.get(i), decrypted[i]);
+            }
+        }
+    }
+
+    /**
+     * Encrypts all values of the batch in parallel on the executor, then writes them with a single underlying commit.
+     */
+    @Override
+    boolean write(long sequence, Map<String, Mutation> batch, boolean clear, boolean synchronous) {
+        final Map<String, Object> encrypted = encryptBatch(batch);
+
+        synchronized (writeLock) {
+            if (!beginWrite(sequence, clear)) {
+                return true;
+            }
+
+            final KeyValueStorage.Editor editor = storage.edit();
+            if (clear) {
+                clear(editor);
+            }
+
+            for (Map.Entry<String, Object> entry : encrypted.entrySet()) {
+                if (claimWrite(entry.getKey(), sequence)) {
+                    put(editor, entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (synchronous) {
+                return editor.commit();
+            }
+            editor.apply();
+            return true;
+        }
+    }
+
+    private static void put(KeyValueStorage.Editor editor, String keyHash, @Nullable Object encrypted) {
+        if (encrypted == null) {
+            editor.remove(keyHash);
+        } else if (encrypted instanceof byte[]) {
+            editor.put(keyHash, (byte[]) encrypted);
+        } else {
+            editor.putSet(keyHash, asSet(encrypted));
+        }
+    }
+
+    /**
+     * Encrypted string sets are always lists of byte arrays (see {@link #encryptBatch(Map)})
+     */
+    @SuppressWarnings("unchecked")
+    private static List<byte[]> asSet(Object encrypted) {
+        return (List<byte[]>) encrypted;
+    }
+
+    /**
+     * Encrypts all values of the given batch in parallel on the configured executor.
+     *
+     * @param batch to encrypt
+     * @return map of content key to either the encrypted value, the list of encrypted set values or null for removed content
+     */
+    private Map<String, Object> encryptBatch(Map<String, Mutation> batch) {
+        int count = 0;
+        for (Mutation mutation : batch.values()) {
+            count += mutation.valueCount();
+        }
+
+        final String[] keyHashes = new String[count];
+        final byte[][] plainValues = new byte[count][];
+        final byte[][] encryptedValues = new byte[count][];
+
+        int index = 0;
+        for (Map.Entry<String, Mutation> entry : batch.entrySet()) {
+            for (int i = 0; i < entry.getValue().valueCount(); i++) {
+                keyHashes[index] = entry.getKey();
+                plainValues[index++] = entry.getValue().getValue(i);
+            }
+        }
+
+        ParallelTasks.forEach(executor, count, new ParallelTasks.Task() {
+            @Override
+            public void run(int index) {
+                encryptedValues[index] = encrypt(keyHashes[index], plainValues[index]);
+            }
+        });
+
+        final Map<String, Object> encrypted = new LinkedHashMap<>(batch.size());
+        index = 0;
+        for (Map.Entry<String, Mutation> entry : batch.entrySet()) {
+            final Mutation mutation = entry.getValue();
+            if (mutation.type == Mutation.TYPE_PUT) {
+                encrypted.put(entry.getKey(), encryptedValues[index++]);
+            } else if (mutation.type == Mutation.TYPE_PUT_SET) {
+                final List<byte[]> encryptedSet = new ArrayList<>(mutation.valueCount());
+                for (int i = 0; i < mutation.valueCount(); i++) {
+                    encryptedSet.add(encryptedValues[index++]);
+                }
+                encrypted.put(entry.getKey(), encryptedSet);
+            } else {
+                encrypted.put(entry.getKey(), null);
+            }
+        }
+        return encrypted;
+    }
+
+    @NonNull
+    private byte[] encrypt(String keyHash, byte[] content) {
+        try {
+            return encryptionProtocol.encrypt(keyHash, password, content);
+        } catch (EncryptionProtocolException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nullable
+    private byte[] decrypt(String keyHash, @NonNull byte[] encrypted) {
+        try {
+            return encryptionProtocol.decrypt(keyHash, password, encrypted);
+        } catch (EncryptionProtocolException e) {
+            return handleDecryptionError(keyHash, e);
+        }
+    }
+
+    @Nullable
+    private byte[] decrypt(EncryptionProtocol.DecryptionSession session, String keyHash, @NonNull byte[] encrypted) {
+        try {
+            return session.decrypt(keyHash, encrypted);
+        } catch (EncryptionProtocolException e) {
+            return handleDecryptionError(keyHash, e);
+        }
+    }
+
+    static final class Factory implements ContentStore.Factory {
+        @Override
+        public ContentStore create(KeyValueStorage storage, String storageSaltKey, String metadataKey, @Nullable char[] password,
+                                   RecoveryPolicy recoveryPolicy, Executor executor) {
+            return new PerEntryContentStore(storage, storageSaltKey, metadataKey, password, recoveryPolicy, executor);
+        }
+    }
+}
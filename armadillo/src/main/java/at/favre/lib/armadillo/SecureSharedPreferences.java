@@ -1,17 +1,26 @@
 package at.favre.lib.armadillo;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import at.favre.lib.bytes.Bytes;
 import timber.log.Timber;
@@ -22,9 +31,13 @@ import timber.log.Timber;
  * <p>
  * <ul>
  * <li>The storage adds a meta entry containing a storage scoped salt value</li>
+ * <li>The storage may add a meta entry containing store scoped settings (e.g. the selected cipher), which survives clear()</li>
  * <li>getAll() will return the hashed keys and an empty string as content</li>
- * <li>getAll() will NOT include the storage salt (i.e size of the returned map only reflects the user added values)</li>
+ * <li>getAll() will NOT include the storage salt or metadata (i.e size of the returned map only reflects the user added values)</li>
+ * <li>change listeners are called with this instance and the hashed key, in the thread calling commit() or apply()</li>
  * </ul>
+ * <p>
+ * The encrypted data is persisted in a {@link KeyValueStorage}, per default Android's {@link SharedPreferences}.
  *
  * @author Patrick Favre-Bulle
  */
@@ -32,12 +45,19 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     private static final String KEY_RANDOM = "at.favre.lib.securepref.KEY_RANDOM";
 
-    private final SharedPreferences sharedPreferences;
+    private final KeyValueStorage storage;
     private final EncryptionProtocol.Factory factory;
     private final RecoveryPolicy recoveryPolicy;
     private final char[] password;
-    private String preferenceRandomContentKey;
-    private EncryptionProtocol encryptionProtocol;
+    @Nullable
+    private final DecryptedValueCache valueCache;
+    private final Executor executor;
+    private final AtomicLong editSequence = new AtomicLong();
+    private final Map<String, PendingMutation> pendingMutations = new HashMap<>();
+    private final Map<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+    private final ContentStore contentStore;
+    private final String preferenceRandomContentKey;
+    private volatile EncryptionProtocol encryptionProtocol;
 
     public SecureSharedPreferences(Context context, String preferenceName, EncryptionProtocol.Factory encryptionProtocol, char[] password) {
         this(context, preferenceName, encryptionProtocol, new RecoveryPolicy.Default(false, true), password);
@@ -50,35 +70,55 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     public SecureSharedPreferences(SharedPreferences sharedPreferences, EncryptionProtocol.Factory encryptionProtocolFactory,
                                    RecoveryPolicy recoveryPolicy, char[] password) {
+        this(new SharedPreferencesStorage(sharedPreferences), encryptionProtocolFactory, recoveryPolicy, password, null,
+                ArmadilloExecutors.defaultExecutor(), new PerEntryContentStore.Factory());
+    }
+
+    SecureSharedPreferences(KeyValueStorage storage, EncryptionProtocol.Factory encryptionProtocolFactory,
+                            RecoveryPolicy recoveryPolicy, char[] password, @Nullable DecryptedValueCache valueCache, Executor executor,
+                            ContentStore.Factory contentStoreFactory) {
         Timber.d("create new secure shared preferences");
-        this.sharedPreferences = sharedPreferences;
+        this.storage = storage;
         this.recoveryPolicy = recoveryPolicy;
         this.password = password;
         this.factory = encryptionProtocolFactory;
+        this.valueCache = valueCache;
+        this.executor = executor;
+        this.preferenceRandomContentKey = storageSaltKey(factory.getStringMessageDigest());
+        this.contentStore = contentStoreFactory.create(storage, preferenceRandomContentKey,
+                StoreMetadata.storageKey(factory.getStringMessageDigest()), password, recoveryPolicy, executor);
         createProtocol();
     }
 
+    /**
+     * The key of the storage salt in the {@link KeyValueStorage}; it only exists once a store was created
+     *
+     * @param stringMessageDigest used to derive the key
+     * @return storage key
+     */
+    static String storageSaltKey(StringMessageDigest stringMessageDigest) {
+        return stringMessageDigest.derive(KEY_RANDOM, "prefName");
+    }
+
     private void createProtocol() {
         encryptionProtocol = factory.create(
                 getPreferencesRandom(
-                        factory.getStringMessageDigest(),
                         factory.createDataObfuscator(),
                         factory.getSecureRandom()));
+        contentStore.setEncryptionProtocol(encryptionProtocol);
     }
 
-    private byte[] getPreferencesRandom(StringMessageDigest stringMessageDigest, DataObfuscator dataObfuscator, SecureRandom secureRandom) {
-        preferenceRandomContentKey = stringMessageDigest.derive(KEY_RANDOM, "prefName");
-        String base64Random = sharedPreferences.getString(preferenceRandomContentKey, null);
+    private byte[] getPreferencesRandom(DataObfuscator dataObfuscator, SecureRandom secureRandom) {
+        byte[] obfuscatedRandom = storage.get(preferenceRandomContentKey);
         byte[] outBytes;
-        if (base64Random == null) {
+        if (obfuscatedRandom == null) {
             Timber.v("create new preference random");
             byte[] rndBytes = Bytes.random(32, secureRandom).array();
             outBytes = Bytes.from(rndBytes).array();
             dataObfuscator.obfuscate(rndBytes);
-            sharedPreferences.edit().putString(preferenceRandomContentKey, Bytes.wrap(rndBytes).encodeBase64()).apply();
+            storage.edit().put(preferenceRandomContentKey, rndBytes).apply();
             Bytes.wrap(rndBytes).mutable().secureWipe();
         } else {
-            byte[] obfuscatedRandom = Bytes.parseBase64(base64Random).array();
             dataObfuscator.deobfuscate(obfuscatedRandom);
             outBytes = obfuscatedRandom;
         }
@@ -93,11 +133,19 @@ public final class SecureSharedPreferences implements SharedPreferences {
      */
     @Override
     public Map<String, String> getAll() {
-        final Map<String, ?> encryptedMap = sharedPreferences.getAll();
-        final Map<String, String> keyOnlyMap = new HashMap<>(encryptedMap.size());
-        for (String key : encryptedMap.keySet()) {
-            if (!key.equals(preferenceRandomContentKey)) {
-                keyOnlyMap.put(key, "");
+        final Set<String> keyHashes = contentStore.getKeyHashes();
+        final Map<String, String> keyOnlyMap = new HashMap<>(keyHashes.size());
+        for (String keyHash : keyHashes) {
+            keyOnlyMap.put(keyHash, "");
+        }
+
+        synchronized (pendingMutations) {
+            for (Map.Entry<String, PendingMutation> entry : pendingMutations.entrySet()) {
+                if (entry.getValue().mutation.type == Mutation.TYPE_REMOVE) {
+                    keyOnlyMap.remove(entry.getKey());
+                } else {
+                    keyOnlyMap.put(entry.getKey(), "");
+                }
             }
         }
         return keyOnlyMap;
@@ -105,48 +153,80 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     @Override
     public String getString(String key, String defaultValue) {
-        final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final String encryptedValue = sharedPreferences.getString(keyHash, null);
-        if (encryptedValue == null) {
-            return defaultValue;
-        }
-
-        byte[] bytes = decrypt(keyHash, encryptedValue);
+        final byte[] bytes = getDecryptedValue(key);
         if (bytes == null) {
             return defaultValue;
         }
         return Bytes.from(bytes).encodeUtf8();
     }
 
+    /**
+     * Gets the plaintext of the given key either from a not yet persisted change, the cache (if enabled)
+     * or by reading and decrypting the persisted value.
+     *
+     * @param key original content key
+     * @return plaintext or null if not found or not decryptable
+     */
+    @Nullable
+    private byte[] getDecryptedValue(String key) {
+        final String keyHash = encryptionProtocol.deriveContentKey(key);
+
+        synchronized (pendingMutations) {
+            final PendingMutation pending = pendingMutations.get(keyHash);
+            if (pending != null) {
+                return pending.mutation.copyValue();
+            }
+        }
+
+        if (valueCache != null) {
+            final byte[] cached = valueCache.get(keyHash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final byte[] bytes = contentStore.get(keyHash);
+        if (bytes != null && valueCache != null) {
+            valueCache.put(keyHash, bytes);
+        }
+        return bytes;
+    }
+
     @Override
     public Set<String> getStringSet(String key, Set<String> defaultValues) {
         final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final Set<String> encryptedSet = sharedPreferences.getStringSet(keyHash, null);
-        if (encryptedSet == null) {
-            return defaultValues;
+
+        synchronized (pendingMutations) {
+            final PendingMutation pending = pendingMutations.get(keyHash);
+            if (pending != null) {
+                final List<byte[]> values = pending.mutation.copySetValues();
+                if (values == null) {
+                    return defaultValues;
+                }
+                final Set<String> pendingSet = new HashSet<>(values.size());
+                for (byte[] value : values) {
+                    pendingSet.add(Bytes.wrap(value).encodeUtf8());
+                }
+                return pendingSet;
+            }
         }
 
-        final Set<String> decryptedSet = new HashSet<>(encryptedSet.size());
+        final List<byte[]> values = contentStore.getSet(keyHash);
+        if (values == null) {
+            return defaultValues;
+        }
 
-        for (String encryptedValue : encryptedSet) {
-            byte[] bytes = decrypt(keyHash, encryptedValue);
-            if (bytes == null) {
-                return decryptedSet;
-            }
-            decryptedSet.add(Bytes.from(bytes).encodeUtf8());
+        final Set<String> decryptedSet = new HashSet<>(values.size());
+        for (byte[] value : values) {
+            decryptedSet.add(Bytes.wrap(value).encodeUtf8());
+            Bytes.wrap(value).mutable().secureWipe();
         }
         return decryptedSet;
     }
 
     @Override
     public int getInt(String key, int defaultValue) {
-        final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final String encryptedValue = sharedPreferences.getString(keyHash, null);
-        if (encryptedValue == null) {
-            return defaultValue;
-        }
-
-        byte[] bytes = decrypt(keyHash, encryptedValue);
+        final byte[] bytes = getDecryptedValue(key);
         if (bytes == null) {
             return defaultValue;
         }
@@ -155,13 +235,7 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     @Override
     public long getLong(String key, long defaultValue) {
-        final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final String encryptedValue = sharedPreferences.getString(keyHash, null);
-        if (encryptedValue == null) {
-            return defaultValue;
-        }
-
-        byte[] bytes = decrypt(keyHash, encryptedValue);
+        final byte[] bytes = getDecryptedValue(key);
         if (bytes == null) {
             return defaultValue;
         }
@@ -170,13 +244,7 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     @Override
     public float getFloat(String key, float defaultValue) {
-        final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final String encryptedValue = sharedPreferences.getString(keyHash, null);
-        if (encryptedValue == null) {
-            return defaultValue;
-        }
-
-        byte[] bytes = decrypt(keyHash, encryptedValue);
+        final byte[] bytes = getDecryptedValue(key);
         if (bytes == null) {
             return defaultValue;
         }
@@ -185,13 +253,7 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     @Override
     public boolean getBoolean(String key, boolean defaultValue) {
-        final String keyHash = encryptionProtocol.deriveContentKey(key);
-        final String encryptedValue = sharedPreferences.getString(keyHash, null);
-        if (encryptedValue == null) {
-            return defaultValue;
-        }
-
-        byte[] bytes = decrypt(keyHash, encryptedValue);
+        final byte[] bytes = getDecryptedValue(key);
         if (bytes == null) {
             return defaultValue;
         }
@@ -200,22 +262,313 @@ public final class SecureSharedPreferences implements SharedPreferences {
 
     @Override
     public boolean contains(String key) {
-        return sharedPreferences.contains(encryptionProtocol.deriveContentKey(key));
+        final String keyHash = encryptionProtocol.deriveContentKey(key);
+
+        synchronized (pendingMutations) {
+            final PendingMutation pending = pendingMutations.get(keyHash);
+            if (pending != null) {
+                return pending.mutation.type != Mutation.TYPE_REMOVE;
+            }
+        }
+        return contentStore.contains(keyHash);
+    }
+
+    /**
+     * Reads and decrypts all given keys at once. Entries are decrypted in parallel on the configured executor
+     * (see {@link Armadillo.Builder#executor(Executor)}) and work which is the same for every entry of this
+     * store (like unmasking the fingerprint or getting the stretched password) is only done once.
+     * <p>
+     * Since the store only persists hashed keys, the caller has to provide all original keys of interest.
+     * Keys which do not exist (or could not be decrypted with the {@link RecoveryPolicy} not throwing) are not
+     * part of the snapshot.
+     *
+     * @param keys original keys to read
+     * @return decrypted snapshot; call {@link DecryptedSnapshot#wipe()} when done
+     */
+    public DecryptedSnapshot getAllDecrypted(Collection<String> keys) {
+        final Map<String, byte[]> values = new HashMap<>(keys.size());
+        final Map<String, List<byte[]>> setValues = new HashMap<>();
+        final Map<String, String> missingKeys = new HashMap<>();
+
+        for (String key : keys) {
+            final String keyHash = encryptionProtocol.deriveContentKey(key);
+
+            synchronized (pendingMutations) {
+                final PendingMutation pending = pendingMutations.get(keyHash);
+                if (pending != null) {
+                    if (pending.mutation.type == Mutation.TYPE_PUT) {
+                        values.put(key, pending.mutation.copyValue());
+                    } else if (pending.mutation.type == Mutation.TYPE_PUT_SET) {
+                        setValues.put(key, pending.mutation.copySetValues());
+                    }
+                    continue;
+                }
+            }
+
+            final byte[] cached = valueCache != null ? valueCache.get(keyHash) : null;
+            if (cached != null) {
+                values.put(key, cached);
+            } else {
+                missingKeys.put(keyHash, key);
+            }
+        }
+
+        final Map<String, byte[]> storedValues = new HashMap<>(missingKeys.size());
+        final Map<String, List<byte[]>> storedSetValues = new HashMap<>();
+        contentStore.getAll(missingKeys.keySet(), storedValues, storedSetValues);
+
+        for (Map.Entry<String, byte[]> entry : storedValues.entrySet()) {
+            values.put(missingKeys.get(entry.getKey()), entry.getValue());
+            if (valueCache != null) {
+                valueCache.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, List<byte[]>> entry : storedSetValues.entrySet()) {
+            setValues.put(missingKeys.get(entry.getKey()), entry.getValue());
+        }
+        return new DecryptedSnapshot(values, setValues);
+    }
+
+    /**
+     * Reads and decrypts all given string values at once, see {@link #getAllDecrypted(Collection)}. This is
+     * considerably faster than calling {@link #getString(String, String)} for every key.
+     *
+     * @param keys original keys to read
+     * @return map of every found key and its value
+     */
+    public Map<String, String> getStrings(Collection<String> keys) {
+        final DecryptedSnapshot snapshot = getAllDecrypted(keys);
+        try {
+            final Map<String, String> result = new HashMap<>(capacityFor(snapshot.singleValueKeySet().size()));
+            for (String key : snapshot.singleValueKeySet()) {
+                result.put(key, snapshot.getString(key, null));
+            }
+            return result;
+        } finally {
+            snapshot.wipe();
+        }
+    }
+
+    /**
+     * Reads and decrypts all given int values at once, see {@link #getStrings(Collection)}
+     *
+     * @param keys original keys to read
+     * @return map of every found key and its value
+     */
+    public Map<String, Integer> getInts(Collection<String> keys) {
+        final DecryptedSnapshot snapshot = getAllDecrypted(keys);
+        try {
+            final Map<String, Integer> result = new HashMap<>(capacityFor(snapshot.singleValueKeySet().size()));
+            for (String key : snapshot.singleValueKeySet()) {
+                result.put(key, snapshot.getInt(key, 0));
+            }
+            return result;
+        } finally {
+            snapshot.wipe();
+        }
+    }
+
+    /**
+     * Reads and decrypts all given long values at once, see {@link #getStrings(Collection)}
+     *
+     * @param keys original keys to read
+     * @return map of every found key and its value
+     */
+    public Map<String, Long> getLongs(Collection<String> keys) {
+        final DecryptedSnapshot snapshot = getAllDecrypted(keys);
+        try {
+            final Map<String, Long> result = new HashMap<>(capacityFor(snapshot.singleValueKeySet().size()));
+            for (String key : snapshot.singleValueKeySet()) {
+                result.put(key, snapshot.getLong(key, 0));
+            }
+            return result;
+        } finally {
+            snapshot.wipe();
+        }
+    }
+
+    /**
+     * Reads and decrypts all given float values at once, see {@link #getStrings(Collection)}
+     *
+     * @param keys original keys to read
+     * @return map of every found key and its value
+     */
+    public Map<String, Float> getFloats(Collection<String> keys) {
+        final DecryptedSnapshot snapshot = getAllDecrypted(keys);
+        try {
+            final Map<String, Float> result = new HashMap<>(capacityFor(snapshot.singleValueKeySet().size()));
+            for (String key : snapshot.singleValueKeySet()) {
+                result.put(key, snapshot.getFloat(key, 0));
+            }
+            return result;
+        } finally {
+            snapshot.wipe();
+        }
+    }
+
+    /**
+     * Reads and decrypts all given boolean values at once, see {@link #getStrings(Collection)}
+     *
+     * @param keys original keys to read
+     * @return map of every found key and its value
+     */
+    public Map<String, Boolean> getBooleans(Collection<String> keys) {
+        final DecryptedSnapshot snapshot = getAllDecrypted(keys);
+        try {
+            final Map<String, Boolean> result = new HashMap<>(capacityFor(snapshot.singleValueKeySet().size()));
+            for (String key : snapshot.singleValueKeySet()) {
+                result.put(key, snapshot.getBoolean(key, false));
+            }
+            return result;
+        } finally {
+            snapshot.wipe();
+        }
+    }
+
+    /**
+     * @param size expected amount of entries
+     * @return initial capacity of a {@link HashMap} holding them without rehashing
+     */
+    private static int capacityFor(int size) {
+        return size < 3 ? size + 1 : (int) (size / 0.75f) + 1;
     }
 
     @Override
-    public SharedPreferences.Editor edit() {
+    public Editor edit() {
         return new Editor();
     }
 
+    /**
+     * Same as {@link #getString(String, String)}, but decrypts on the configured executor
+     * (see {@link Armadillo.Builder#executor(Executor)}).
+     *
+     * @param key          the name of the preference to retrieve
+     * @param defaultValue value to return if this preference does not exist
+     * @return future with the preference value or defaultValue
+     */
+    public Future<String> getStringAsync(final String key, @Nullable final String defaultValue) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return getString(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getStringSet(String, Set)}, but decrypts on the configured executor.
+     *
+     * @param key           the name of the preference to retrieve
+     * @param defaultValues values to return if this preference does not exist
+     * @return future with the preference values or defaultValues
+     */
+    public Future<Set<String>> getStringSetAsync(final String key, @Nullable final Set<String> defaultValues) {
+        return submit(new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() {
+                return getStringSet(key, defaultValues);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getInt(String, int)}, but decrypts on the configured executor.
+     *
+     * @param key          the name of the preference to retrieve
+     * @param defaultValue value to return if this preference does not exist
+     * @return future with the preference value or defaultValue
+     */
+    public Future<Integer> getIntAsync(final String key, final int defaultValue) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getInt(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getLong(String, long)}, but decrypts on the configured executor.
+     *
+     * @param key          the name of the preference to retrieve
+     * @param defaultValue value to return if this preference does not exist
+     * @return future with the preference value or defaultValue
+     */
+    public Future<Long> getLongAsync(final String key, final long defaultValue) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return getLong(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getFloat(String, float)}, but decrypts on the configured executor.
+     *
+     * @param key          the name of the preference to retrieve
+     * @param defaultValue value to return if this preference does not exist
+     * @return future with the preference value or defaultValue
+     */
+    public Future<Float> getFloatAsync(final String key, final float defaultValue) {
+        return submit(new Callable<Float>() {
+            @Override
+            public Float call() {
+                return getFloat(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getBoolean(String, boolean)}, but decrypts on the configured executor.
+     *
+     * @param key          the name of the preference to retrieve
+     * @param defaultValue value to return if this preference does not exist
+     * @return future with the preference value or defaultValue
+     */
+    public Future<Boolean> getBooleanAsync(final String key, final boolean defaultValue) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getBoolean(key, defaultValue);
+            }
+        });
+    }
+
+    private <T> Future<T> submit(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<>(callable);
+        executor.execute(task);
+        return task;
+    }
+
     @Override
     public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener onSharedPreferenceChangeListener) {
-        sharedPreferences.registerOnSharedPreferenceChangeListener(onSharedPreferenceChangeListener);
+        synchronized (listeners) {
+            listeners.put(onSharedPreferenceChangeListener, this);
+        }
     }
 
     @Override
     public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener onSharedPreferenceChangeListener) {
-        sharedPreferences.unregisterOnSharedPreferenceChangeListener(onSharedPreferenceChangeListener);
+        synchronized (listeners) {
+            listeners.remove(onSharedPreferenceChangeListener);
+        }
+    }
+
+    private void notifyListeners(Collection<String> keyHashes) {
+        final List<OnSharedPreferenceChangeListener> currentListeners;
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            currentListeners = new ArrayList<>(listeners.keySet());
+        }
+
+        for (String keyHash : keyHashes) {
+            for (OnSharedPreferenceChangeListener listener : currentListeners) {
+                listener.onSharedPreferenceChanged(this, keyHash);
+            }
+        }
     }
 
     /**
@@ -225,128 +578,286 @@ public final class SecureSharedPreferences implements SharedPreferences {
      * changes you make in an editor are batched, and not copied back to the
      * original {@link SecureSharedPreferences} until you call {@link #commit()} or
      * {@link #apply()}.
+     * <p>
+     * The put methods only record the plaintext; the whole batch will be encrypted in parallel
+     * on the configured executor when committed and the buffered plaintext is wiped afterwards.
+     * {@link #apply()} does all the encryption in the background while reading from this
+     * store will immediately return the new values.
      */
     public final class Editor implements SharedPreferences.Editor {
-        private final SharedPreferences.Editor internalEditor;
+        private final Map<String, Mutation> mutations = new LinkedHashMap<>();
         private boolean clear = false;
 
-        @SuppressLint("CommitPrefEdits")
         private Editor() {
-            internalEditor = sharedPreferences.edit();
         }
 
         @Override
-        public SharedPreferences.Editor putString(String key, @Nullable String value) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-
+        public Editor putString(String key, @Nullable String value) {
             if (value == null) {
-                internalEditor.remove(encryptionProtocol.deriveContentKey(key));
-            } else {
-                internalEditor.putString(keyHash, encryptToBase64(keyHash, Bytes.from(value).array()));
+                return remove(key);
             }
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.put(Bytes.from(value).array()));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor putStringSet(String key, @Nullable Set<String> values) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
             if (values == null) {
-                internalEditor.remove(encryptionProtocol.deriveContentKey(key));
-            } else {
-                final Set<String> encryptedValues = new HashSet<>(values.size());
-                for (String value : values) {
-                    encryptedValues.add(encryptToBase64(keyHash, Bytes.from(value).array()));
-                }
-                internalEditor.putStringSet(keyHash, encryptedValues);
+                return remove(key);
+            }
+
+            final List<byte[]> plainValues = new ArrayList<>(values.size());
+            for (String value : values) {
+                plainValues.add(Bytes.from(value).array());
             }
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.putSet(plainValues));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor putInt(String key, int value) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-            internalEditor.putString(keyHash, encryptToBase64(keyHash, Bytes.from(value).array()));
+        public Editor putInt(String key, int value) {
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.put(Bytes.from(value).array()));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor putLong(String key, long value) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-            internalEditor.putString(keyHash, encryptToBase64(keyHash, Bytes.from(value).array()));
+        public Editor putLong(String key, long value) {
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.put(Bytes.from(value).array()));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor putFloat(String key, float value) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-            internalEditor.putString(keyHash, encryptToBase64(keyHash, ByteBuffer.allocate(4).putFloat(value).array()));
+        public Editor putFloat(String key, float value) {
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.put(ByteBuffer.allocate(4).putFloat(value).array()));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor putBoolean(String key, boolean value) {
-            final String keyHash = encryptionProtocol.deriveContentKey(key);
-            internalEditor.putString(keyHash, encryptToBase64(keyHash, Bytes.from(value ? (byte) 1 : (byte) 0).array()));
+        public Editor putBoolean(String key, boolean value) {
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.put(Bytes.from(value ? (byte) 1 : (byte) 0).array()));
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor remove(String key) {
-            internalEditor.remove(encryptionProtocol.deriveContentKey(key));
+        public Editor remove(String key) {
+            mutations.put(encryptionProtocol.deriveContentKey(key), Mutation.remove());
             return this;
         }
 
         @Override
-        public SharedPreferences.Editor clear() {
-            internalEditor.clear();
+        public Editor clear() {
             clear = true;
             return this;
         }
 
         @Override
         public boolean commit() {
-            try {
-                return internalEditor.commit();
-            } finally {
-                handlePossibleClear();
-            }
+            return persistBatch(true);
+        }
+
+        /**
+         * Same as {@link #commit()}, but runs on the configured executor
+         * (see {@link Armadillo.Builder#executor(Executor)}).
+         *
+         * @return future with the result of {@link #commit()}
+         */
+        public Future<Boolean> commitAsync() {
+            final Map<String, Mutation> batch = takeMutations();
+            final boolean batchClear = takeClear();
+            return submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    final boolean result = persist(editSequence.incrementAndGet(), batch, batchClear, true);
+                    notifyListeners(batch.keySet());
+                    return result;
+                }
+            });
         }
 
         @Override
         public void apply() {
-            internalEditor.apply();
-            handlePossibleClear();
+            if (clear) {
+                //clearing replaces the storage salt, so this is done synchronously
+                persistBatch(false);
+                return;
+            }
+
+            final Map<String, Mutation> batch = takeMutations();
+            final long sequence = editSequence.incrementAndGet();
+
+            //until persisted, reads are served from the pending changes
+            synchronized (pendingMutations) {
+                for (Map.Entry<String, Mutation> entry : batch.entrySet()) {
+                    pendingMutations.put(entry.getKey(), new PendingMutation(sequence, entry.getValue()));
+                }
+            }
+            notifyListeners(batch.keySet());
+
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            persist(sequence, batch, false, false);
+                        } catch (RuntimeException e) {
+                            Timber.e(e, "could not persist applied changes");
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                Timber.e(e, "could not schedule applied changes");
+                discard(sequence, batch, false);
+            }
         }
 
-        private void handlePossibleClear() {
+        private boolean persistBatch(boolean synchronous) {
+            final Map<String, Mutation> batch = takeMutations();
+            final boolean result = persist(editSequence.incrementAndGet(), batch, takeClear(), synchronous);
+            notifyListeners(batch.keySet());
+            return result;
+        }
+
+        private Map<String, Mutation> takeMutations() {
+            final Map<String, Mutation> batch = new LinkedHashMap<>(mutations);
+            mutations.clear();
+            return batch;
+        }
+
+        private boolean takeClear() {
+            final boolean batchClear = clear;
+            clear = false;
+            return batchClear;
+        }
+    }
+
+    /**
+     * Encrypts and writes given batch of changes with the {@link ContentStore}.
+     *
+     * @param sequence    the order of the batch; changes of a batch will never overwrite changes of a newer one
+     * @param batch       the changes to persist (will be wiped afterwards)
+     * @param clear       if all content should be removed first
+     * @param synchronous if the underlying editor should use commit() instead of apply()
+     * @return the result of the underlying commit()
+     */
+    private boolean persist(long sequence, Map<String, Mutation> batch, boolean clear, boolean synchronous) {
+        final boolean result;
+        try {
+            result = contentStore.write(sequence, batch, clear, synchronous);
+        } catch (RuntimeException e) {
+            discard(sequence, batch, clear);
+            throw e;
+        }
+        if (!result) {
+            discard(sequence, batch, clear);
+            return false;
+        }
+
+        try {
+            //the cache is updated before the pending changes are removed, so reads never see an outdated value
+            synchronized (pendingMutations) {
+                updateCache(sequence, batch, clear);
+
+                final Iterator<Map.Entry<String, PendingMutation>> iterator = pendingMutations.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<String, PendingMutation> entry = iterator.next();
+                    if (entry.getValue().sequence <= sequence && (clear || batch.containsKey(entry.getKey()))) {
+                        iterator.remove();
+                    }
+                }
+            }
+
             if (clear) {
                 createProtocol();
             }
+            return true;
+        } finally {
+            wipe(batch);
         }
     }
 
-    @NonNull
-    private String encryptToBase64(String keyHash, byte[] content) {
+    /**
+     * Removes the pending changes of a batch which could not be persisted and drops its keys from the cache, since
+     * the persisted values are unknown. Changes of newer batches stay pending.
+     *
+     * @param sequence of the failed batch
+     * @param batch    the changes which could not be persisted (will be wiped afterwards)
+     * @param clear    if the batch should have cleared all content
+     */
+    private void discard(long sequence, Map<String, Mutation> batch, boolean clear) {
         try {
-            return Bytes.wrap(encryptionProtocol.encrypt(keyHash, password, content)).encodeBase64();
-        } catch (EncryptionProtocolException e) {
-            throw new IllegalStateException(e);
+            synchronized (pendingMutations) {
+                for (String keyHash : batch.keySet()) {
+                    final PendingMutation pending = pendingMutations.get(keyHash);
+                    if (pending != null && pending.sequence == sequence) {
+                        pendingMutations.remove(keyHash);
+                    }
+                }
+
+                if (valueCache != null) {
+                    if (clear) {
+                        valueCache.clear();
+                    } else {
+                        for (String keyHash : batch.keySet()) {
+                            valueCache.remove(keyHash);
+                        }
+                    }
+                }
+            }
+        } finally {
+            wipe(batch);
         }
     }
 
-    @Nullable
-    private byte[] decrypt(String keyHash, @NonNull String base64Encrypted) {
-        try {
-            return encryptionProtocol.decrypt(keyHash, password, Bytes.parseBase64(base64Encrypted).array());
-        } catch (EncryptionProtocolException e) {
-            if (recoveryPolicy.shouldRemoveBrokenContent()) {
-                sharedPreferences.edit().remove(keyHash).apply();
+    private static void wipe(Map<String, Mutation> batch) {
+        for (Mutation mutation : batch.values()) {
+            mutation.wipe();
+        }
+    }
+
+    /**
+     * Puts the persisted values of a batch into the cache. Must hold the lock of {@link #pendingMutations}.
+     *
+     * @param sequence of the batch
+     * @param batch    the persisted changes
+     * @param clear    if all content was removed first
+     */
+    private void updateCache(long sequence, Map<String, Mutation> batch, boolean clear) {
+        if (valueCache == null) {
+            return;
+        }
+
+        if (clear) {
+            //clearing creates a new storage salt, so every cached key hash is invalid
+            valueCache.clear();
+            return;
+        }
+
+        for (Map.Entry<String, Mutation> entry : batch.entrySet()) {
+            //a newer batch might have already written (and cached) this key, or a newer clear removed it
+            if (!contentStore.isLastWrite(entry.getKey(), sequence)) {
+                continue;
             }
-            if (recoveryPolicy.shouldThrowRuntimeException()) {
-                throw new SecureSharedPreferenceCryptoException("could not decrypt " + keyHash, e);
+
+            final byte[] value = entry.getValue().copyValue();
+            if (value != null) {
+                valueCache.put(entry.getKey(), value);
+                Bytes.wrap(value).mutable().secureWipe();
+            } else {
+                valueCache.remove(entry.getKey());
             }
         }
-        return null;
+    }
+
+    /**
+     * A change which was applied but is not yet persisted
+     */
+    private static final class PendingMutation {
+        private final long sequence;
+        private final Mutation mutation;
+
+        private PendingMutation(long sequence, Mutation mutation) {
+            this.sequence = sequence;
+            this.mutation = mutation;
+        }
     }
 }
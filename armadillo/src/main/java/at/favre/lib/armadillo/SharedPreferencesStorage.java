@@ -0,0 +1,135 @@
+package at.favre.lib.armadillo;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Adapter persisting to Android's {@link SharedPreferences}. Since it only supports strings,
+ * values are encoded with a {@link TextEncoding} (single values with putString, sets with putStringSet);
+ * per default Base64, see {@link Base85TextEncoding} for a denser alternative.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class SharedPreferencesStorage implements KeyValueStorage {
+    private final SharedPreferences sharedPreferences;
+    private final TextEncoding textEncoding;
+
+    public SharedPreferencesStorage(SharedPreferences sharedPreferences) {
+        this(sharedPreferences, new Base64TextEncoding());
+    }
+
+    /**
+     * Creates a new adapter
+     *
+     * @param sharedPreferences to persist to
+     * @param textEncoding      used to encode the bytes; must not change for an existing store
+     */
+    public SharedPreferencesStorage(SharedPreferences sharedPreferences, TextEncoding textEncoding) {
+        this.sharedPreferences = Objects.requireNonNull(sharedPreferences);
+        this.textEncoding = Objects.requireNonNull(textEncoding);
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        final String value;
+        try {
+            value = sharedPreferences.getString(key, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+        return value != null ? textEncoding.decode(value) : null;
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        final Set<String> values;
+        try {
+            values = sharedPreferences.getStringSet(key, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+
+        if (values == null) {
+            return null;
+        }
+
+        final List<byte[]> decoded = new ArrayList<>(values.size());
+        for (String value : values) {
+            decoded.add(textEncoding.decode(value));
+        }
+        return decoded;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return sharedPreferences.contains(key);
+    }
+
+    @Override
+    public Set<String> keys() {
+        return new HashSet<>(sharedPreferences.getAll().keySet());
+    }
+
+    @Override
+    public Editor edit() {
+        return new SharedPreferencesEditor(sharedPreferences.edit());
+    }
+
+    private final class SharedPreferencesEditor implements Editor {
+        private final SharedPreferences.Editor editor;
+
+        private SharedPreferencesEditor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            editor.putString(key, textEncoding.encode(value));
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            final Set<String> encoded = new HashSet<>(values.size());
+            for (byte[] value : values) {
+                encoded.add(textEncoding.encode(value));
+            }
+            editor.putStringSet(key, encoded);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+
+        @SuppressLint("ApplySharedPref")
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+}
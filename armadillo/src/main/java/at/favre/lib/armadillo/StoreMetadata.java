@@ -0,0 +1,150 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * Small named values which are determined once per store (e.g. the selected cipher), persisted as one
+ * internal entry in the {@link KeyValueStorage}. Like the storage salt, the entry is obfuscated, is not
+ * part of the content keys and, unlike the storage salt, is kept if the store is cleared.
+ * <p>
+ * Format: a sequence of {@code name length (1 byte) | name (utf-8) | value length (4 byte) | value}
+ *
+ * @author Patrick Favre-Bulle
+ */
+final class StoreMetadata {
+    private static final String KEY_METADATA = "at.favre.lib.securepref.KEY_METADATA";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final KeyValueStorage storage;
+    private final String storageKey;
+    private final DataObfuscator.Factory dataObfuscatorFactory;
+    private final EncryptionFingerprint fingerprint;
+
+    StoreMetadata(KeyValueStorage storage, StringMessageDigest stringMessageDigest,
+                  DataObfuscator.Factory dataObfuscatorFactory, EncryptionFingerprint fingerprint) {
+        this.storage = storage;
+        this.storageKey = storageKey(stringMessageDigest);
+        this.dataObfuscatorFactory = dataObfuscatorFactory;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * The key of the metadata entry in the {@link KeyValueStorage}
+     *
+     * @param stringMessageDigest used to derive the key
+     * @return storage key
+     */
+    static String storageKey(StringMessageDigest stringMessageDigest) {
+        return stringMessageDigest.derive(KEY_METADATA, "prefName");
+    }
+
+    /**
+     * Gets a value
+     *
+     * @param name of the value
+     * @return the value or null if not set
+     */
+    @Nullable
+    synchronized byte[] get(String name) {
+        return read().get(name);
+    }
+
+    /**
+     * Sets a value and commits it
+     *
+     * @param name  of the value; at most 255 bytes
+     * @param value to set
+     * @return the result of the underlying commit
+     */
+    synchronized boolean put(String name, byte[] value) {
+        final Map<String, byte[]> values = read();
+        values.put(name, Bytes.from(value).array());
+        return write(values);
+    }
+
+    /**
+     * Sets a value and commits it, unless it is already set
+     *
+     * @param name  of the value; at most 255 bytes
+     * @param value to set if absent
+     * @return the already set value, given value if it was committed, or null if the commit failed
+     */
+    @Nullable
+    synchronized byte[] putIfAbsent(String name, byte[] value) {
+        final Map<String, byte[]> values = read();
+        final byte[] current = values.get(name);
+        if (current != null) {
+            return current;
+        }
+        values.put(name, Bytes.from(value).array());
+        return write(values) ? value : null;
+    }
+
+    private Map<String, byte[]> read() {
+        final Map<String, byte[]> values = new LinkedHashMap<>();
+        final byte[] content = storage.get(storageKey);
+        if (content == null) {
+            return values;
+        }
+
+        final DataObfuscator obfuscator = dataObfuscatorFactory.create(fingerprint.getBytes());
+        try {
+            obfuscator.deobfuscate(content);
+            final ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                final byte[] name = new byte[buffer.get() & 0xff];
+                buffer.get(name);
+                final int valueLength = buffer.getInt();
+                if (valueLength < 0 || valueLength > buffer.remaining()) {
+                    throw new IllegalStateException("invalid value length " + valueLength);
+                }
+                final byte[] value = new byte[valueLength];
+                buffer.get(value);
+                values.put(new String(name, UTF_8), value);
+            }
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            Timber.w(e, "could not read store metadata, ignoring it");
+            values.clear();
+        } finally {
+            obfuscator.clearKey();
+        }
+        return values;
+    }
+
+    private boolean write(Map<String, byte[]> values) {
+        int length = 0;
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            length += 1 + entry.getKey().getBytes(UTF_8).length + 4 + entry.getValue().length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            final byte[] name = entry.getKey().getBytes(UTF_8);
+            if (name.length > 255) {
+                throw new IllegalArgumentException("name too long: " + entry.getKey());
+            }
+            buffer.put((byte) name.length).put(name).putInt(entry.getValue().length).put(entry.getValue());
+        }
+
+        final byte[] content = buffer.array();
+        final DataObfuscator obfuscator = dataObfuscatorFactory.create(fingerprint.getBytes());
+        try {
+            obfuscator.obfuscate(content);
+        } finally {
+            obfuscator.clearKey();
+        }
+        final boolean result = storage.edit().put(storageKey, content).commit();
+        Arrays.fill(content, (byte) 0);
+        return result;
+    }
+}
@@ -0,0 +1,26 @@
+package at.favre.lib.armadillo;
+
+/**
+ * Encodes the raw encrypted bytes to text for storage backends which only support strings
+ * (like {@link SharedPreferencesStorage}). The encoding must not change for an existing store.
+ *
+ * @author Patrick Favre-Bulle
+ */
+public interface TextEncoding {
+    /**
+     * Encodes given bytes
+     *
+     * @param data to encode
+     * @return text representation
+     */
+    String encode(byte[] data);
+
+    /**
+     * Decodes text created by {@link #encode(byte[])}
+     *
+     * @param text to decode
+     * @return the original bytes
+     * @throws IllegalArgumentException if the text is not a valid encoding
+     */
+    byte[] decode(String text);
+}
@@ -0,0 +1,361 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+import timber.log.Timber;
+
+/**
+ * A decorator for any {@link KeyValueStorage} which coalesces applied changes. {@link Editor#apply()} only
+ * enqueues the changes; all changes enqueued within the configured window are merged (last write wins per key)
+ * and persisted with a single commit of the underlying storage by one writer. Reads always observe the
+ * enqueued values.
+ * <p>
+ * {@link Editor#commit()} enqueues its changes and then flushes everything synchronously; {@link #flush()}
+ * can be used to do that explicitly (e.g. when the app goes to the background). If the underlying commit
+ * fails, the changes are enqueued again (unless newer changes replaced them) and retried with exponentially
+ * increasing delays, starting with the window (but at least 100 ms). If the retries fail as well, no further ones
+ * are scheduled after {@link #MAX_RETRIES}: the changes stay enqueued and visible to reads and are written with the
+ * next apply, commit or flush. They are lost if the process ends before a write succeeds.
+ *
+ * @author Patrick Favre-Bulle
+ */
+@SuppressWarnings("WeakerAccess")
+public final class WriteBehindStorage implements KeyValueStorage {
+    static final int MAX_RETRIES = 5;
+    private static final long MIN_RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Object REMOVED = new Object();
+
+    private final KeyValueStorage storage;
+    private final long windowNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+
+    /**
+     * Changes not yet handed to the storage; values are byte[], List of byte[] or {@link #REMOVED}
+     */
+    private Map<String, Object> pending = new LinkedHashMap<>();
+    private boolean pendingClear;
+    /**
+     * Changes currently written to the storage, still visible to reads until the write finished
+     */
+    @Nullable
+    private Map<String, Object> inFlight;
+    private boolean inFlightClear;
+    @Nullable
+    private ScheduledFuture<?> scheduledFlush;
+    /**
+     * Failed writes since the last successful one
+     */
+    private int failedWrites;
+
+    /**
+     * Creates a new decorator with its own writer thread
+     *
+     * @param storage the storage to persist to
+     * @param window  time to collect changes after the first apply, before they are written
+     * @param unit    of the window
+     */
+    public WriteBehindStorage(KeyValueStorage storage, long window, TimeUnit unit) {
+        this(storage, window, unit, new ScheduledThreadPoolExecutor(1, ArmadilloExecutors.newDaemonThreadFactory("armadillo-write-behind")));
+    }
+
+    /**
+     * Creates a new decorator
+     *
+     * @param storage   the storage to persist to
+     * @param window    time to collect changes after the first apply, before they are written
+     * @param unit      of the window
+     * @param scheduler used to run the delayed writes
+     */
+    public WriteBehindStorage(KeyValueStorage storage, long window, TimeUnit unit, ScheduledExecutorService scheduler) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.storage = Objects.requireNonNull(storage);
+        this.windowNanos = unit.toNanos(window);
+        this.scheduler = Objects.requireNonNull(scheduler);
+    }
+
+    @Nullable
+    @Override
+    public byte[] get(String key) {
+        final Object value = lookup(key);
+        if (value == null) {
+            return storage.get(key);
+        }
+        return value instanceof byte[] ? Bytes.from((byte[]) value).array() : null;
+    }
+
+    @Nullable
+    @Override
+    public List<byte[]> getSet(String key) {
+        final Object value = lookup(key);
+        if (value == null) {
+            return storage.getSet(key);
+        }
+        return value instanceof List ? copy((List<?>) value) : null;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        final Object value = lookup(key);
+        if (value == null) {
+            return storage.contains(key);
+        }
+        return value != REMOVED;
+    }
+
+    @Override
+    public Set<String> keys() {
+        final Map<String, Object> currentInFlight;
+        final boolean currentInFlightClear;
+        final Map<String, Object> currentPending;
+        final boolean currentPendingClear;
+        synchronized (lock) {
+            currentInFlight = inFlight != null ? new LinkedHashMap<>(inFlight) : null;
+            currentInFlightClear = inFlightClear;
+            currentPending = new LinkedHashMap<>(pending);
+            currentPendingClear = pendingClear;
+        }
+
+        final Set<String> keys = storage.keys();
+        if (currentInFlight != null) {
+            applyTo(keys, currentInFlight, currentInFlightClear);
+        }
+        applyTo(keys, currentPending, currentPendingClear);
+        return keys;
+    }
+
+    @Override
+    public Editor edit() {
+        return new WriteBehindEditor();
+    }
+
+    /**
+     * Writes all enqueued changes to the underlying storage with a single commit
+     *
+     * @return the result of the underlying commit
+     */
+    public boolean flush() {
+        synchronized (flushLock) {
+            final Map<String, Object> batch;
+            final boolean clear;
+            synchronized (lock) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (pending.isEmpty() && !pendingClear) {
+                    return true;
+                }
+
+                batch = pending;
+                clear = pendingClear;
+                inFlight = batch;
+                inFlightClear = clear;
+                pending = new LinkedHashMap<>();
+                pendingClear = false;
+            }
+
+            boolean success = false;
+            try {
+                final Editor editor = storage.edit();
+                if (clear) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, Object> entry : batch.entrySet()) {
+                    if (entry.getValue() == REMOVED) {
+                        editor.remove(entry.getKey());
+                    } else if (entry.getValue() instanceof byte[]) {
+                        editor.put(entry.getKey(), (byte[]) entry.getValue());
+                    } else {
+                        editor.putSet(entry.getKey(), asSet(entry.getValue()));
+                    }
+                }
+                success = editor.commit();
+            } finally {
+                synchronized (lock) {
+                    inFlight = null;
+                    inFlightClear = false;
+                    if (success) {
+                        failedWrites = 0;
+                    } else {
+                        failedWrites++;
+                        requeue(batch, clear);
+                    }
+                }
+            }
+            return success;
+        }
+    }
+
+    /**
+     * Puts a batch which could not be written back in front of the newer pending changes and schedules a retry,
+     * unless {@link #MAX_RETRIES} is exceeded. Must hold {@link #lock}.
+     */
+    private void requeue(Map<String, Object> batch, boolean clear) {
+        if (!pendingClear) {
+            final Map<String, Object> merged = new LinkedHashMap<>(batch);
+            merged.putAll(pending);
+            pending = merged;
+            pendingClear = clear;
+        }
+
+        if (failedWrites > MAX_RETRIES) {
+            Timber.e("could not write coalesced changes %d times, keeping them until the next write", failedWrites);
+            return;
+        }
+        //window, 2 * window, 4 * window, ...
+        final long delayNanos = Math.max(windowNanos, MIN_RETRY_DELAY_NANOS) << (failedWrites - 1);
+        Timber.w("could not write coalesced changes, will retry in %d ms", TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        schedule(delayNanos);
+    }
+
+    private void enqueue(Map<String, Object> changes, boolean clear) {
+        if (changes.isEmpty() && !clear) {
+            return;
+        }
+
+        synchronized (lock) {
+            if (clear) {
+                pending.clear();
+                pendingClear = true;
+            }
+            pending.putAll(changes);
+            schedule(windowNanos);
+        }
+    }
+
+    /**
+     * Schedules a flush if none is scheduled yet. Must hold {@link #lock}.
+     */
+    private void schedule(long delayNanos) {
+        if (scheduledFlush != null) {
+            return;
+        }
+
+        scheduledFlush = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    Timber.e(e, "could not write coalesced changes");
+                }
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the value of the key from the enqueued or in flight changes
+     *
+     * @return the value, {@link #REMOVED} if the key is known to be removed or null if the storage has to be asked
+     */
+    @Nullable
+    private Object lookup(String key) {
+        synchronized (lock) {
+            final Object value = pending.get(key);
+            if (value != null) {
+                return value;
+            }
+            if (pendingClear) {
+                return REMOVED;
+            }
+            if (inFlight != null) {
+                final Object inFlightValue = inFlight.get(key);
+                if (inFlightValue != null) {
+                    return inFlightValue;
+                }
+                if (inFlightClear) {
+                    return REMOVED;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void applyTo(Set<String> keys, Map<String, Object> changes, boolean clear) {
+        if (clear) {
+            keys.clear();
+        }
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                keys.remove(entry.getKey());
+            } else {
+                keys.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Pending string sets are always stored as lists of byte arrays (see {@link WriteBehindEditor#putSet(String, Collection)})
+     */
+    @SuppressWarnings("unchecked")
+    private static List<byte[]> asSet(Object value) {
+        return (List<byte[]>) value;
+    }
+
+    private static List<byte[]> copy(Collection<?> values) {
+        final List<byte[]> copies = new ArrayList<>(values.size());
+        for (Object value : values) {
+            copies.add(Bytes.from((byte[]) value).array());
+        }
+        return copies;
+    }
+
+    private final class WriteBehindEditor implements Editor {
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor put(String key, byte[] value) {
+            changes.put(key, Bytes.from(value).array());
+            return this;
+        }
+
+        @Override
+        public Editor putSet(String key, Collection<byte[]> values) {
+            changes.put(key, copy(values));
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            apply();
+            return flush();
+        }
+
+        @Override
+        public void apply() {
+            enqueue(new LinkedHashMap<>(changes), clear);
+            changes.clear();
+            clear = false;
+        }
+    }
+}
@@ -7,15 +7,24 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import at.favre.lib.bytes.Bytes;
 
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 /**
@@ -224,6 +233,31 @@ public abstract class ASecureSharedPreferencesTest {
                 .keyStretchingFunction(new FastKeyStretcher()).build());
     }
 
+    @Test
+    public void simpleStringGetWithCalibratedKeyStretching() throws Exception {
+        SharedPreferences sharedPreferences = create("calibrated", "superSecret".toCharArray())
+                .calibrateKeyStretching(new PBKDF2KeyStretcher.Factory(), 20, TimeUnit.MILLISECONDS).build();
+        preferenceSmokeTest(sharedPreferences);
+        String t = putAndTestString(sharedPreferences, "s", 12);
+
+        sharedPreferences = create("calibrated", "superSecret".toCharArray())
+                .calibrateKeyStretching(new PBKDF2KeyStretcher.Factory(), 20, TimeUnit.MILLISECONDS).build();
+        assertEquals(t, sharedPreferences.getString("s", null));
+    }
+
+    @Test
+    public void calibratedKeyStretchingOnExistingStore() throws Exception {
+        SharedPreferences sharedPreferences = create("calibratedExisting", "superSecret".toCharArray())
+                .keyStretchingFunction(new FastKeyStretcher()).build();
+        String t = putAndTestString(sharedPreferences, "s", 12);
+
+        sharedPreferences = create("calibratedExisting", "superSecret".toCharArray())
+                .keyStretchingFunction(new FastKeyStretcher())
+                .calibrateKeyStretching(new PBKDF2KeyStretcher.Factory(), 20, TimeUnit.MILLISECONDS).build();
+        assertEquals(t, sharedPreferences.getString("s", null));
+        putAndTestString(sharedPreferences, "s2", 24);
+    }
+
     @Test
     public void testWithCompression() throws Exception {
         preferenceSmokeTest(create("compressed", null).compress().build());
@@ -289,6 +323,365 @@ public abstract class ASecureSharedPreferencesTest {
                 .cryptoProtocolVersion(14221).build());
     }
 
+    @Test
+    public void testCustomProtocolVersionUsesLegacyKeySchedule() throws Exception {
+        SharedPreferences preferences = create("customProtocol", "pw".toCharArray())
+                .cryptoProtocolVersion(14221).build();
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("customProtocol", "pw".toCharArray())
+                .addAdditionalDecryptionProtocolConfig(EncryptionProtocolConfig.newBuilder(14221)
+                        .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY)
+                        .dataObfuscatorFactory(new HkdfXorObfuscator.Factory()).build()).build();
+        assertEquals("content", preferences.getString("string", null));
+
+        preferences = create("customProtocol", "pw".toCharArray())
+                .addAdditionalDecryptionProtocolConfig(EncryptionProtocolConfig.newBuilder(14221).build()).build();
+        assertEquals("content", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testCustomProtocolVersionWithKeySchedule() throws Exception {
+        SharedPreferences preferences = create("customProtocolSchedule", "pw".toCharArray())
+                .cryptoProtocolVersion(14222, EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY).build();
+        preferenceSmokeTest(preferences);
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("customProtocolSchedule", "pw".toCharArray())
+                .cryptoProtocolVersion(14222, EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY).build();
+        assertEquals("content", preferences.getString("string", null));
+
+        preferences = create("customProtocolSchedule", "pw".toCharArray())
+                .addAdditionalDecryptionProtocolConfig(EncryptionProtocolConfig.newBuilder(14222)
+                        .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY).build()).build();
+        assertEquals("content", preferences.getString("string", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedProtocolVersionWithKeySchedule() throws Exception {
+        create("reservedProtocol", null).cryptoProtocolVersion(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY);
+    }
+
+    @Test
+    public void testCustomProtocolVersionReadsDefaultVersion() throws Exception {
+        SharedPreferences preferences = create("customProtocolUpgrade", "pw".toCharArray()).build();
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("customProtocolUpgrade", "pw".toCharArray()).cryptoProtocolVersion(14223).build();
+        assertEquals("content", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testReadContentOfProtocolVersion0() throws Exception {
+        SharedPreferences preferences = create("protocolUpgrade0", "pw".toCharArray())
+                .cryptoProtocolVersion(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY).build();
+        preferences.edit().putString("string", "content").putInt("int", 7).commit();
+
+        preferences = create("protocolUpgrade0", "pw".toCharArray()).build();
+        assertEquals("content", preferences.getString("string", null));
+        assertEquals(7, preferences.getInt("int", 0));
+    }
+
+    @Test
+    public void testReadContentOfProtocolVersion1() throws Exception {
+        SharedPreferences preferences = create("protocolUpgrade", null)
+                .cryptoProtocolVersion(EncryptionProtocolConfig.PROTOCOL_VERSION_STORE_STRETCHING).build();
+        preferences.edit().putString("string", "content").putInt("int", 7).commit();
+
+        preferences = create("protocolUpgrade", null).build();
+        assertEquals("content", preferences.getString("string", null));
+        assertEquals(7, preferences.getInt("int", 0));
+        preferences.edit().putString("string2", "content2").commit();
+        assertEquals("content2", preferences.getString("string2", null));
+        assertEquals("content", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testReadContentOfProtocolVersion2() throws Exception {
+        SharedPreferences preferences = create("protocolUpgrade2", "pw".toCharArray())
+                .cryptoProtocolVersion(EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION).build();
+        preferences.edit().putString("string", "content").putInt("int", 7).commit();
+
+        preferences = create("protocolUpgrade2", "pw".toCharArray()).build();
+        assertEquals("content", preferences.getString("string", null));
+        assertEquals(7, preferences.getInt("int", 0));
+        preferences.edit().putString("string2", "content2").commit();
+        assertEquals("content2", preferences.getString("string2", null));
+        assertEquals("content", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testAutoSelectSymmetricEncryption() throws Exception {
+        SharedPreferences preferences = create("autoSelect", null).autoSelectSymmetricEncryption().build();
+        preferenceSmokeTest(preferences);
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("autoSelect", null).autoSelectSymmetricEncryption().build();
+        assertEquals("content", preferences.getString("string", null));
+        preferences.edit().clear().commit();
+        assertTrue(preferences.getAll().isEmpty());
+
+        preferences = create("autoSelect", null).autoSelectSymmetricEncryption().build();
+        preferences.edit().putString("string", "content2").commit();
+        assertEquals("content2", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testAutoSelectSymmetricEncryptionOnExistingStore() throws Exception {
+        SharedPreferences preferences = create("autoSelectExisting", null).build();
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("autoSelectExisting", null).autoSelectSymmetricEncryption().build();
+        assertEquals("content", preferences.getString("string", null));
+        assertEquals(1, preferences.getAll().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAutoSelectSymmetricEncryptionWithCustomEncryption() throws Exception {
+        create("autoSelectCustom", null).autoSelectSymmetricEncryption()
+                .symmetricEncryption(new AesGcmEncryption()).build();
+    }
+
+    @Test
+    public void testCounterBasedNonce() throws Exception {
+        SharedPreferences preferences = create("counterNonce", "pw".toCharArray()).counterBasedNonce().build();
+        preferenceSmokeTest(preferences);
+        preferences.edit().putString("string", "content").commit();
+
+        preferences = create("counterNonce", "pw".toCharArray()).counterBasedNonce().build();
+        assertEquals("content", preferences.getString("string", null));
+        preferences.edit().putString("string2", "content2").commit();
+
+        //content stays readable without the option
+        preferences = create("counterNonce", "pw".toCharArray()).build();
+        assertEquals("content", preferences.getString("string", null));
+        assertEquals("content2", preferences.getString("string2", null));
+
+        preferences = create("counterNonce", "pw".toCharArray()).counterBasedNonce().autoSelectSymmetricEncryption().build();
+        preferences.edit().clear().commit();
+        preferences.edit().putString("string", "content3").commit();
+        assertEquals("content3", preferences.getString("string", null));
+    }
+
+    @Test
+    public void testWithValueCache() throws Exception {
+        preferenceSmokeTest(create("cache", null)
+                .cacheDecryptedValues(16).build());
+    }
+
+    @Test
+    public void testValueCacheReflectsChanges() throws Exception {
+        SharedPreferences preferences = create("cache2", null).cacheDecryptedValues(2).build();
+        for (int i = 0; i < 5; i++) {
+            putAndTestString(preferences, "string" + i, 16);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(preferences.getString("string" + i, null));
+        }
+        putAndTestString(preferences, "string0", 24);
+        preferences.edit().remove("string1").commit();
+        assertNull(preferences.getString("string1", null));
+        preferences.edit().clear().commit();
+        assertNull(preferences.getString("string0", null));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        SecureSharedPreferences preferences = create("async", null).build();
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b", "c"));
+        assertTrue(preferences.edit()
+                .putString("string", "content")
+                .putInt("int", 4)
+                .putLong("long", 6L)
+                .putFloat("float", 0.5f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", set)
+                .commitAsync().get());
+
+        assertEquals("content", preferences.getStringAsync("string", null).get());
+        assertEquals(4, (int) preferences.getIntAsync("int", 0).get());
+        assertEquals(6L, (long) preferences.getLongAsync("long", 0).get());
+        assertEquals(0.5f, preferences.getFloatAsync("float", 0).get(), 0.0001);
+        assertTrue(preferences.getBooleanAsync("boolean", false).get());
+        assertEquals(set, preferences.getStringSetAsync("set", null).get());
+        assertNull(preferences.getStringAsync("notExisting", null).get());
+    }
+
+    @Test
+    public void testAsyncWithCustomExecutor() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        SecureSharedPreferences preferences = create("asyncExecutor", null).executor(executorService).build();
+        assertTrue(preferences.edit().putString("string", "content").commitAsync().get());
+        assertEquals("content", preferences.getStringAsync("string", null).get());
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testLargeBatchCommit() throws Exception {
+        SharedPreferences preferences = create("batch", null).build();
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < 64; i++) {
+            editor.putString("string" + i, "content" + i);
+        }
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b", "c", "d"));
+        editor.putStringSet("set", set).putInt("int", 7).remove("string0");
+        assertTrue(editor.commit());
+
+        assertNull(preferences.getString("string0", null));
+        for (int i = 1; i < 64; i++) {
+            assertEquals("content" + i, preferences.getString("string" + i, null));
+        }
+        assertEquals(set, preferences.getStringSet("set", null));
+        assertEquals(7, preferences.getInt("int", 0));
+    }
+
+    @Test
+    public void testApplyIsVisibleImmediately() throws Exception {
+        SharedPreferences preferences = create("applyBatch", null).build();
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        for (int i = 0; i < 10; i++) {
+            preferences.edit().putString("string", "content" + i).putStringSet("set", set).apply();
+            assertEquals("content" + i, preferences.getString("string", null));
+            assertEquals(set, preferences.getStringSet("set", null));
+            assertTrue(preferences.contains("string"));
+        }
+        preferences.edit().remove("string").apply();
+        assertNull(preferences.getString("string", null));
+        assertFalse(preferences.contains("string"));
+
+        preferences.edit().putString("string", "committed").commit();
+        assertEquals("committed", preferences.getString("string", null));
+        Thread.sleep(100);
+        assertEquals("committed", preferences.getString("string", null));
+        assertEquals(set, preferences.getStringSet("set", null));
+    }
+
+    @Test
+    public void testGetAllDecrypted() throws Exception {
+        SecureSharedPreferences preferences = create("snapshot", "pw".toCharArray()).build();
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b", "c"));
+        SharedPreferences.Editor editor = preferences.edit()
+                .putInt("int", 4)
+                .putLong("long", 6L)
+                .putFloat("float", 0.5f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", set);
+        for (int i = 0; i < 32; i++) {
+            editor.putString("string" + i, "content" + i);
+        }
+        editor.commit();
+        preferences.edit().putString("applied", "value").apply();
+
+        List<String> keys = new ArrayList<>(Arrays.asList("int", "long", "float", "boolean", "set", "applied", "notExisting"));
+        for (int i = 0; i < 32; i++) {
+            keys.add("string" + i);
+        }
+
+        DecryptedSnapshot snapshot = preferences.getAllDecrypted(keys);
+        assertEquals(38, snapshot.size());
+        assertFalse(snapshot.contains("notExisting"));
+        assertEquals(4, snapshot.getInt("int", 0));
+        assertEquals(6L, snapshot.getLong("long", 0));
+        assertEquals(0.5f, snapshot.getFloat("float", 0), 0.0001);
+        assertTrue(snapshot.getBoolean("boolean", false));
+        assertEquals(set, snapshot.getStringSet("set", null));
+        assertEquals("value", snapshot.getString("applied", null));
+        for (int i = 0; i < 32; i++) {
+            assertEquals("content" + i, snapshot.getString("string" + i, null));
+        }
+
+        snapshot.wipe();
+        assertEquals(0, snapshot.size());
+    }
+
+    @Test
+    public void testTypedBatchGetters() throws Exception {
+        SecureSharedPreferences preferences = create("typedBatch", "pw".toCharArray()).build();
+        preferences.edit()
+                .putString("string1", "content1")
+                .putString("string2", "content2")
+                .putInt("int", 4)
+                .putLong("long", 6L)
+                .putFloat("float", 0.5f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+                .commit();
+
+        Map<String, String> strings = preferences.getStrings(Arrays.asList("string1", "string2", "set", "notExisting"));
+        assertEquals(2, strings.size());
+        assertEquals("content1", strings.get("string1"));
+        assertEquals("content2", strings.get("string2"));
+
+        assertEquals(Collections.singletonMap("int", 4), preferences.getInts(Arrays.asList("int", "notExisting")));
+        assertEquals(Collections.singletonMap("long", 6L), preferences.getLongs(Collections.singletonList("long")));
+        assertEquals(Collections.singletonMap("float", 0.5f), preferences.getFloats(Collections.singletonList("float")));
+        assertEquals(Collections.singletonMap("boolean", true), preferences.getBooleans(Collections.singletonList("boolean")));
+        assertTrue(preferences.getStrings(Collections.<String>emptyList()).isEmpty());
+
+        //the store stays readable after the session wiped its key material
+        assertEquals("content1", preferences.getStrings(Collections.singletonList("string1")).get("string1"));
+        assertEquals("content2", preferences.getString("string2", null));
+    }
+
+    @Test
+    public void testSingleBlob() throws Exception {
+        preferenceSmokeTest(create("blob", null).encryptAsSingleBlob().build());
+        preferenceSmokeTest(create("blobPw", "pw".toCharArray()).encryptAsSingleBlob().build());
+    }
+
+    @Test
+    public void testReopenWithPassword() throws Exception {
+        create("reopen", "pw".toCharArray()).build().edit().putInt("int", 1).commit();
+        assertEquals(1, create("reopen", "pw".toCharArray()).build().getInt("int", 0));
+    }
+
+    @Test
+    public void testSingleBlobReopen() throws Exception {
+        SharedPreferences preferences = create("blobReopen", "pw".toCharArray()).encryptAsSingleBlob().build();
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        SharedPreferences.Editor editor = preferences.edit().putStringSet("set", set).putBoolean("boolean", true);
+        for (int i = 0; i < 100; i++) {
+            editor.putInt("int" + i, i);
+        }
+        editor.commit();
+        preferences.edit().remove("int0").commit();
+        assertEquals(101, preferences.getAll().size());
+
+        SharedPreferences reopened = create("blobReopen", "pw".toCharArray()).encryptAsSingleBlob().build();
+        assertEquals(101, reopened.getAll().size());
+        assertFalse(reopened.contains("int0"));
+        for (int i = 1; i < 100; i++) {
+            assertEquals(i, reopened.getInt("int" + i, -1));
+        }
+        assertEquals(set, reopened.getStringSet("set", null));
+        assertTrue(reopened.getBoolean("boolean", false));
+
+        reopened.edit().clear().commit();
+        assertEquals(0, reopened.getAll().size());
+        reopened.edit().putString("afterClear", "value").commit();
+        assertEquals("value", create("blobReopen", "pw".toCharArray()).encryptAsSingleBlob().build().getString("afterClear", null));
+    }
+
+    @Test
+    public void testBuckets() throws Exception {
+        preferenceSmokeTest(create("buckets", "pw".toCharArray()).encryptInBuckets(8).build());
+
+        SharedPreferences preferences = create("bucketsReopen", null).encryptInBuckets(4).build();
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < 50; i++) {
+            editor.putString("string" + i, "content" + i);
+        }
+        editor.commit();
+        preferences.edit().putString("string7", "changed").remove("string8").commit();
+
+        SharedPreferences reopened = create("bucketsReopen", null).encryptInBuckets(4).build();
+        assertEquals(49, reopened.getAll().size());
+        assertEquals("changed", reopened.getString("string7", null));
+        assertNull(reopened.getString("string8", null));
+        assertEquals("content9", reopened.getString("string9", null));
+    }
+
     void preferenceSmokeTest(SharedPreferences preferences) {
         putAndTestString(preferences, "string", new Random().nextInt(500) + 1);
         assertNull(preferences.getString("string2", null));
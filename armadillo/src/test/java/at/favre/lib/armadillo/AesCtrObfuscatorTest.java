@@ -0,0 +1,103 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AesCtrObfuscatorTest {
+
+    private DataObfuscator obfuscator;
+
+    @Before
+    public void setUp() throws Exception {
+        obfuscator = new AesCtrObfuscator(Bytes.random(16).array());
+    }
+
+    @Test
+    public void obfuscateRandom() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            testIntern(Bytes.random(32).array());
+        }
+    }
+
+    @Test
+    public void obfuscateVariousLengths() throws Exception {
+        testIntern(Bytes.random(1).array());
+        testIntern(Bytes.random(2).array());
+        testIntern(Bytes.random(15).array());
+        testIntern(Bytes.random(16).array());
+        testIntern(Bytes.random(17).array());
+        testIntern(Bytes.random(100).array());
+        testIntern(Bytes.random(4096).array());
+        testIntern(Bytes.random(1024 * 1024).array());
+    }
+
+    @Test
+    public void obfuscateSimpleData() throws Exception {
+        testIntern(Bytes.allocate(1).array());
+        testIntern(Bytes.allocate(2).array());
+        testIntern(Bytes.allocate(16).array());
+        testIntern(Bytes.allocate(32).array());
+    }
+
+    @Test
+    public void obfuscateEmpty() throws Exception {
+        byte[] empty = new byte[0];
+        obfuscator.obfuscate(empty);
+        obfuscator.deobfuscate(empty);
+        assertEquals(0, empty.length);
+    }
+
+    @Test
+    public void sameKeySameKeyStream() throws Exception {
+        byte[] key = Bytes.random(16).array();
+        byte[] data = Bytes.random(300).array();
+        byte[] copy = Bytes.from(data).array();
+        new AesCtrObfuscator(Bytes.from(key).array()).obfuscate(data);
+        new AesCtrObfuscator(Bytes.from(key).array()).obfuscate(copy);
+        assertArrayEquals(data, copy);
+
+        new AesCtrObfuscator(Bytes.random(16).array()).obfuscate(copy);
+        assertFalse(Bytes.wrap(data).equals(copy));
+    }
+
+    @Test
+    public void obfuscateRange() throws Exception {
+        byte[] data = Bytes.random(200).array();
+        byte[] original = Bytes.from(data).array();
+        obfuscator.obfuscate(data, 10, 150);
+
+        assertArrayEquals(Arrays.copyOfRange(original, 0, 10), Arrays.copyOfRange(data, 0, 10));
+        assertArrayEquals(Arrays.copyOfRange(original, 160, 200), Arrays.copyOfRange(data, 160, 200));
+        byte[] range = Arrays.copyOfRange(original, 10, 160);
+        obfuscator.obfuscate(range);
+        assertArrayEquals(range, Arrays.copyOfRange(data, 10, 160));
+
+        obfuscator.deobfuscate(data, 10, 150);
+        assertArrayEquals(original, data);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void obfuscateInvalidRange() throws Exception {
+        obfuscator.obfuscate(new byte[16], 8, 9);
+    }
+
+    private void testIntern(byte[] target) {
+        byte[] originalCopy = Bytes.wrap(target).copy().array();
+        obfuscator.obfuscate(target);
+
+        assertEquals(target.length, originalCopy.length);
+        assertFalse(Bytes.wrap(target).equals(originalCopy));
+
+        obfuscator.deobfuscate(target);
+        assertTrue(Bytes.wrap(target).equals(originalCopy));
+    }
+}
@@ -0,0 +1,96 @@
+package at.favre.lib.armadillo;
+
+import android.support.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AuthenticatedEncryptionSelectorTest {
+    private final AuthenticatedEncryption aesGcm = new AesGcmEncryption();
+    private final AuthenticatedEncryption chaCha20Poly1305 = new ChaCha20Poly1305Encryption(new SecureRandom(), null, false);
+    private StoreMetadata metadata;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = new StoreMetadata(new InMemoryStorage(), new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH),
+                new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+    }
+
+    @Test
+    public void selectFasterAndPersist() throws Exception {
+        assertSame(chaCha20Poly1305, create(new SlowEncryption(aesGcm), chaCha20Poly1305).select(metadata, false));
+        assertArrayEquals(new byte[]{1}, metadata.get(AuthenticatedEncryptionSelector.METADATA_NAME));
+
+        //the persisted choice is used, even if the other one would now be faster
+        AuthenticatedEncryption slowChaCha20Poly1305 = new SlowEncryption(chaCha20Poly1305);
+        assertSame(slowChaCha20Poly1305, create(aesGcm, slowChaCha20Poly1305).select(metadata, false));
+    }
+
+    @Test
+    public void existingStoreKeepsAesGcm() throws Exception {
+        AuthenticatedEncryption slowAesGcm = new SlowEncryption(aesGcm);
+        assertSame(slowAesGcm, create(slowAesGcm, chaCha20Poly1305).select(metadata, true));
+        assertArrayEquals(new byte[]{0}, metadata.get(AuthenticatedEncryptionSelector.METADATA_NAME));
+        assertSame(slowAesGcm, create(slowAesGcm, chaCha20Poly1305).select(metadata, false));
+    }
+
+    @Test
+    public void failedPersistKeepsAesGcm() throws Exception {
+        FailingStorage storage = new FailingStorage();
+        storage.commitFails = true;
+        StoreMetadata failingMetadata = new StoreMetadata(storage, new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH),
+                new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+
+        AuthenticatedEncryption slowAesGcm = new SlowEncryption(aesGcm);
+        assertSame(slowAesGcm, create(slowAesGcm, chaCha20Poly1305).select(failingMetadata, false));
+        assertNull(failingMetadata.get(AuthenticatedEncryptionSelector.METADATA_NAME));
+
+        storage.commitFails = false;
+        assertSame(chaCha20Poly1305, create(slowAesGcm, chaCha20Poly1305).select(failingMetadata, false));
+        assertArrayEquals(new byte[]{1}, failingMetadata.get(AuthenticatedEncryptionSelector.METADATA_NAME));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownPersistedChoice() throws Exception {
+        metadata.put(AuthenticatedEncryptionSelector.METADATA_NAME, new byte[]{9});
+        create(aesGcm, chaCha20Poly1305).select(metadata, false);
+    }
+
+    private static AuthenticatedEncryptionSelector create(AuthenticatedEncryption aesGcm, AuthenticatedEncryption chaCha20Poly1305) {
+        return new AuthenticatedEncryptionSelector(aesGcm, chaCha20Poly1305, AuthenticatedEncryption.STRENGTH_HIGH, new SecureRandom());
+    }
+
+    private static final class SlowEncryption implements AuthenticatedEncryption {
+        private final AuthenticatedEncryption delegate;
+
+        private SlowEncryption(AuthenticatedEncryption delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] encrypt(byte[] rawEncryptionKey, byte[] rawData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return delegate.encrypt(rawEncryptionKey, rawData, associatedData);
+        }
+
+        @Override
+        public byte[] decrypt(byte[] rawEncryptionKey, byte[] encryptedData, @Nullable byte[] associatedData) throws AuthenticatedEncryptionException {
+            return delegate.decrypt(rawEncryptionKey, encryptedData, associatedData);
+        }
+
+        @Override
+        public int byteSizeLength(int keyStrengthType) {
+            return delegate.byteSizeLength(keyStrengthType);
+        }
+    }
+}
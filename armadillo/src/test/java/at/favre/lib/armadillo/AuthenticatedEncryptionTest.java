@@ -4,11 +4,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import at.favre.lib.bytes.Bytes;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AuthenticatedEncryptionTest {
     private AuthenticatedEncryption authenticatedEncryption;
@@ -29,6 +39,25 @@ public class AuthenticatedEncryptionTest {
         testEncryptDecrypt(new byte[32], Bytes.random(16).array());
     }
 
+    @Test
+    public void encryptWithNonce() throws Exception {
+        assertEquals(12, authenticatedEncryption.nonceLength());
+        for (int keyLength : new int[]{16, 32}) {
+            byte[] key = Bytes.random(keyLength).array();
+            byte[] nonce = Bytes.random(12).array();
+            byte[] content = Bytes.random(33).array();
+            byte[] out = authenticatedEncryption.encryptWithNonce(Bytes.from(key).array(), nonce, content, new byte[]{7}, 5);
+            assertEquals(5 + 33 + 16, out.length);
+            assertArrayEquals(content, authenticatedEncryption.decryptWithNonce(Bytes.from(key).array(), nonce, out, 5, new byte[]{7}));
+
+            try {
+                authenticatedEncryption.decryptWithNonce(key, Bytes.random(12).array(), out, 5, new byte[]{7});
+                fail("wrong nonce should fail");
+            } catch (AuthenticatedEncryptionException ignored) {
+            }
+        }
+    }
+
     @Test
     public void encryptMultiple() throws Exception {
         for (int j = 0; j < 20; j++) {
@@ -42,6 +71,44 @@ public class AuthenticatedEncryptionTest {
         }
     }
 
+    @Test
+    public void encryptDecryptConcurrently() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            results.add(executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    for (int j = 0; j < 50; j++) {
+                        byte[] content = Bytes.random(64).array();
+                        byte[] key = Bytes.random(16).array();
+                        byte[] encrypted = authenticatedEncryption.encrypt(key, content, new byte[]{1});
+                        if (!Bytes.wrap(authenticatedEncryption.decrypt(key, encrypted, new byte[]{1})).equals(content)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    public void encryptWithHeader() throws Exception {
+        byte[] content = Bytes.random(100).array();
+        byte[] key = Bytes.random(16).array();
+        byte[] out = authenticatedEncryption.encrypt(key, content, new byte[]{1}, 25);
+
+        assertArrayEquals(new byte[25], Arrays.copyOf(out, 25));
+        assertEquals(25 + 1 + 12 + content.length + 16, out.length);
+        assertArrayEquals(content, authenticatedEncryption.decrypt(key, Arrays.copyOfRange(out, 25, out.length), new byte[]{1}));
+    }
+
     private void testEncryptDecrypt(byte[] content, byte[] key) throws AuthenticatedEncryptionException {
         byte[] encrypted = authenticatedEncryption.encrypt(key, content, null);
         assertTrue(encrypted.length >= content.length);
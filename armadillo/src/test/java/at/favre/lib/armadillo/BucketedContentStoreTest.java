@@ -0,0 +1,43 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BucketedContentStoreTest {
+
+    @Test
+    public void serializeDeserialize() throws Exception {
+        Map<String, Object> content = new HashMap<>();
+        content.put("empty", new byte[0]);
+        content.put("value", Bytes.random(64).array());
+        content.put("äöü", Bytes.random(1).array());
+        content.put("set", Arrays.asList(Bytes.random(4).array(), Bytes.random(16).array(), new byte[0]));
+
+        Map<String, Object> deserialized = BucketedContentStore.deserialize(BucketedContentStore.serialize(content));
+        assertEquals(content.keySet(), deserialized.keySet());
+        assertArrayEquals((byte[]) content.get("empty"), (byte[]) deserialized.get("empty"));
+        assertArrayEquals((byte[]) content.get("value"), (byte[]) deserialized.get("value"));
+        assertArrayEquals((byte[]) content.get("äöü"), (byte[]) deserialized.get("äöü"));
+
+        List<?> set = (List<?>) content.get("set");
+        List<?> deserializedSet = (List<?>) deserialized.get("set");
+        assertEquals(set.size(), deserializedSet.size());
+        for (int i = 0; i < set.size(); i++) {
+            assertArrayEquals((byte[]) set.get(i), (byte[]) deserializedSet.get(i));
+        }
+    }
+
+    @Test
+    public void serializeEmpty() throws Exception {
+        assertEquals(0, BucketedContentStore.deserialize(BucketedContentStore.serialize(new HashMap<String, Object>())).size());
+    }
+}
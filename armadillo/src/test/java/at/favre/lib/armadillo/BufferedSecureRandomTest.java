@@ -0,0 +1,146 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferedSecureRandomTest {
+
+    @Test
+    public void servesSmallRequestsFromBuffer() throws Exception {
+        CountingSecureRandom source = new CountingSecureRandom();
+        BufferedSecureRandom random = new BufferedSecureRandom(source, 256, 1, TimeUnit.HOURS);
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 16; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            assertTrue(seen.add(Bytes.wrap(bytes).encodeHex()));
+        }
+        assertEquals(1, source.calls);
+
+        random.nextBytes(new byte[16]);
+        assertEquals(2, source.calls);
+    }
+
+    @Test
+    public void largeRequestsBypassBuffer() throws Exception {
+        CountingSecureRandom source = new CountingSecureRandom();
+        BufferedSecureRandom random = new BufferedSecureRandom(source, 256, 1, TimeUnit.HOURS);
+        byte[] bytes = new byte[65];
+        random.nextBytes(bytes);
+        assertEquals(1, source.calls);
+        assertEquals(65, source.lastLength);
+    }
+
+    @Test
+    public void reseedDiscardsBuffer() throws Exception {
+        CountingSecureRandom source = new CountingSecureRandom();
+        BufferedSecureRandom random = new BufferedSecureRandom(source, 256, 1, TimeUnit.HOURS);
+        random.nextBytes(new byte[8]);
+        random.setSeed(new byte[]{1, 2, 3});
+        random.nextBytes(new byte[8]);
+        assertEquals(2, source.calls);
+    }
+
+    @Test
+    public void expiredBufferIsDiscarded() throws Exception {
+        CountingSecureRandom source = new CountingSecureRandom();
+        BufferedSecureRandom random = new BufferedSecureRandom(source, 256, 1, TimeUnit.NANOSECONDS);
+        random.nextBytes(new byte[8]);
+        Thread.sleep(1);
+        random.nextBytes(new byte[8]);
+        assertEquals(2, source.calls);
+    }
+
+    @Test
+    public void concurrentThreadsGetDistinctBytes() throws Exception {
+        final BufferedSecureRandom random = new BufferedSecureRandom(new SecureRandom());
+        final List<byte[]> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        byte[] bytes = new byte[12];
+                        random.nextBytes(bytes);
+                        synchronized (results) {
+                            results.add(bytes);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<String> distinct = new HashSet<>();
+        for (byte[] bytes : results) {
+            distinct.add(Bytes.wrap(bytes).encodeHex());
+        }
+        assertEquals(8 * 500, distinct.size());
+    }
+
+    @Test
+    public void serializable() throws Exception {
+        BufferedSecureRandom random = new BufferedSecureRandom(new SecureRandom(), 64, 1, TimeUnit.SECONDS);
+        random.nextBytes(new byte[8]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject(random);
+        }
+        BufferedSecureRandom deserialized;
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            deserialized = (BufferedSecureRandom) objectIn.readObject();
+        }
+
+        byte[] bytes = new byte[8];
+        deserialized.nextBytes(bytes);
+        assertFalse(Bytes.wrap(bytes).equals(new byte[8]));
+        //the transient state is recreated
+        deserialized.setSeed(new byte[]{1});
+        deserialized.nextBytes(bytes);
+    }
+
+    @Test
+    public void wrapOnlyOnce() throws Exception {
+        BufferedSecureRandom random = BufferedSecureRandom.wrap(new SecureRandom());
+        assertSame(random, BufferedSecureRandom.wrap(random));
+        assertFalse(random.nextInt() == random.nextInt() && random.nextInt() == random.nextInt());
+    }
+
+    private static final class CountingSecureRandom extends SecureRandom {
+        private static final long serialVersionUID = 1L;
+        private int calls;
+        private int lastLength;
+
+        @Override
+        public synchronized void nextBytes(byte[] bytes) {
+            calls++;
+            lastLength = bytes.length;
+            super.nextBytes(bytes);
+        }
+    }
+}
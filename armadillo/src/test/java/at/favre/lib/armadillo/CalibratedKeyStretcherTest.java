@@ -0,0 +1,146 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CalibratedKeyStretcherTest {
+    private final StringMessageDigest digest = new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH);
+    private final KeyStretchingFunction configured = new FastKeyStretcher();
+    private InMemoryStorage storage;
+    private FakeFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = new InMemoryStorage();
+        factory = new FakeFactory();
+    }
+
+    @Test
+    public void calibrateToTargetDuration() throws Exception {
+        //every cost unit takes 1ms, so the target of 20ms is met with 20
+        assertEquals(20, create(false).calibrate());
+        assertEquals(Arrays.asList(1, 1, 4, 16, 16, 16), factory.createdCosts);
+    }
+
+    @Test
+    public void calibrateIgnoresSingleSlowMeasurement() throws Exception {
+        //e.g. a gc pause while measuring the highest cost
+        factory.pauses.put(3, TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(20, create(false).calibrate());
+    }
+
+    @Test
+    public void calibrateWithinCostRange() throws Exception {
+        factory.maxCost = 10;
+        assertEquals(10, create(false).calibrate());
+        factory.createdCosts.clear();
+        factory.nanosPerCost = TimeUnit.MILLISECONDS.toNanos(100);
+        assertEquals(1, create(false).calibrate());
+    }
+
+    @Test
+    public void calibrationIsPersisted() throws Exception {
+        byte[] salt = Bytes.random(16).array();
+        byte[] first = create(false).stretch(salt, "pw".toCharArray(), 32);
+        int calibratedCost = factory.createdCosts.get(factory.createdCosts.size() - 1);
+        factory.createdCosts.clear();
+
+        //also an existing store now, but the persisted cost is used
+        byte[] second = create(true).stretch(salt, "pw".toCharArray(), 32);
+        assertArrayEquals(first, second);
+        assertEquals(1, factory.createdCosts.size());
+        assertEquals(calibratedCost, (int) factory.createdCosts.get(0));
+    }
+
+    @Test
+    public void existingStoreUsesConfiguredFunction() throws Exception {
+        byte[] salt = Bytes.random(16).array();
+        byte[] expected = configured.stretch(salt, "pw".toCharArray(), 32);
+        assertArrayEquals(expected, create(true).stretch(salt, "pw".toCharArray(), 32));
+        assertTrue(factory.createdCosts.isEmpty());
+
+        //stays with the configured function, even if not recognized as existing anymore
+        assertArrayEquals(expected, create(false).stretch(salt, "pw".toCharArray(), 32));
+        assertTrue(factory.createdCosts.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidPersistedCost() throws Exception {
+        createMetadata().put(CalibratedKeyStretcher.METADATA_NAME, new byte[]{1, 0, 0, 0x7F, 0});
+        create(false).stretch(new byte[16], "pw".toCharArray(), 32);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidPersistedLength() throws Exception {
+        createMetadata().put(CalibratedKeyStretcher.METADATA_NAME, new byte[]{1, 0, 0, 0});
+        create(false).stretch(new byte[16], "pw".toCharArray(), 32);
+    }
+
+    private CalibratedKeyStretcher create(boolean existingStore) {
+        return new CalibratedKeyStretcher(factory, TimeUnit.MILLISECONDS.toNanos(20), createMetadata(), configured,
+                existingStore, factory);
+    }
+
+    private StoreMetadata createMetadata() {
+        return new StoreMetadata(storage, digest, new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+    }
+
+    /**
+     * Also the ticker of the measurements: every stretch takes a fixed time per cost unit, and the output depends on the cost
+     */
+    private static final class FakeFactory implements KeyStretchingFunction.Factory, CalibratedKeyStretcher.Ticker {
+        private final List<Integer> createdCosts = new ArrayList<>();
+        //additional duration of the n-th stretch
+        private final Map<Integer, Long> pauses = new HashMap<>();
+        private long nanosPerCost = TimeUnit.MILLISECONDS.toNanos(1);
+        private int maxCost = 1000;
+        private long now;
+        private int stretchCount;
+
+        @Override
+        public KeyStretchingFunction create(final int cost) {
+            createdCosts.add(cost);
+            return new KeyStretchingFunction() {
+                @Override
+                public byte[] stretch(byte[] salt, char[] password, int outLengthByte) {
+                    final Long pause = pauses.get(stretchCount++);
+                    now += cost * nanosPerCost + (pause != null ? pause : 0);
+                    return Bytes.from(new FastKeyStretcher().stretch(salt, password, outLengthByte)).xor(Bytes.from(cost).resize(outLengthByte)).array();
+                }
+            };
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public int getMinCost() {
+            return 1;
+        }
+
+        @Override
+        public int getMaxCost() {
+            return maxCost;
+        }
+
+        @Override
+        public int scaleCost(int cost, double factor) {
+            return (int) Math.round(cost * factor);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class ChaCha20Poly1305EncryptionTest {
+    private final AuthenticatedEncryption fallback = new ChaCha20Poly1305Encryption(new SecureRandom(), null, false);
+    private final ChaCha20Poly1305Encryption provided = new ChaCha20Poly1305Encryption();
+
+    @Test
+    public void rfc8439TestVector() throws Exception {
+        byte[] key = new byte[32];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (0x80 + i);
+        }
+        byte[] nonce = Bytes.parseHex("070000004041424344454647").array();
+        byte[] aad = Bytes.parseHex("50515253c0c1c2c3c4c5c6c7").array();
+        byte[] plainText = Bytes.from("Ladies and Gentlemen of the class of '99: If I could offer you only one tip for the future, sunscreen would be it.").array();
+        byte[] expected = Bytes.parseHex("d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d63dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b3692ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc3ff4def08e4b7a9de576d26586cec64b6116"
+                + "1ae10b594f09e26a7e902ecbd0600691").array();
+
+        byte[] out = new byte[plainText.length + ChaCha20Poly1305.TAG_LENGTH_BYTE];
+        ChaCha20Poly1305.seal(key, nonce, 0, aad, plainText, 0, plainText.length, out, 0);
+        assertArrayEquals(expected, out);
+        assertArrayEquals(plainText, ChaCha20Poly1305.open(key, nonce, 0, aad, out, 0, out.length));
+    }
+
+    @Test
+    public void encryptDecryptFallback() throws Exception {
+        for (int length = 0; length < 300; length += 13) {
+            testEncryptDecrypt(fallback, fallback, Bytes.random(length).array());
+        }
+        testEncryptDecrypt(fallback, fallback, Bytes.random(64 * 1024).array());
+    }
+
+    @Test
+    public void fallbackCompatibleWithProvidedCipher() throws Exception {
+        assumeTrue(provided.usesProvidedCipher());
+        for (int length = 0; length < 300; length += 13) {
+            byte[] content = Bytes.random(length).array();
+            testEncryptDecrypt(fallback, provided, content);
+            testEncryptDecrypt(provided, fallback, content);
+        }
+    }
+
+    @Test
+    public void encryptDecryptProvidedCipher() throws Exception {
+        assumeTrue(provided.usesProvidedCipher());
+        for (int length = 0; length < 100; length += 13) {
+            testEncryptDecrypt(provided, provided, Bytes.random(length).array());
+        }
+    }
+
+    @Test
+    public void encryptWithHeader() throws Exception {
+        byte[] key = Bytes.random(32).array();
+        byte[] content = Bytes.random(50).array();
+        byte[] out = fallback.encrypt(Bytes.from(key).array(), content, null, 7);
+        assertEquals(7 + 1 + 12 + 50 + 16, out.length);
+        assertArrayEquals(content, fallback.decrypt(key, Arrays.copyOfRange(out, 7, out.length), null));
+    }
+
+    @Test(expected = AuthenticatedEncryptionException.class)
+    public void decryptTamperedContent() throws Exception {
+        byte[] key = Bytes.random(32).array();
+        byte[] encrypted = fallback.encrypt(Bytes.from(key).array(), Bytes.random(40).array(), null);
+        encrypted[20] ^= 1;
+        fallback.decrypt(key, encrypted, null);
+    }
+
+    @Test(expected = AuthenticatedEncryptionException.class)
+    public void decryptWithWrongAssociatedData() throws Exception {
+        byte[] key = Bytes.random(32).array();
+        byte[] encrypted = fallback.encrypt(Bytes.from(key).array(), Bytes.random(40).array(), new byte[]{1});
+        fallback.decrypt(key, encrypted, new byte[]{2});
+    }
+
+    @Test
+    public void encryptWithNonce() throws Exception {
+        for (AuthenticatedEncryption encryption : new AuthenticatedEncryption[]{fallback, provided}) {
+            byte[] key = Bytes.random(32).array();
+            byte[] nonce = Bytes.random(encryption.nonceLength()).array();
+            byte[] content = Bytes.random(50).array();
+            byte[] out = encryption.encryptWithNonce(Bytes.from(key).array(), nonce, content, new byte[]{1}, 3);
+            assertEquals(3 + 50 + 16, out.length);
+            assertArrayEquals(content, encryption.decryptWithNonce(key, nonce, out, 3, new byte[]{1}));
+        }
+    }
+
+    @Test
+    public void encryptWithNonceCompatibleWithProvidedCipher() throws Exception {
+        assumeTrue(provided.usesProvidedCipher());
+        byte[] key = Bytes.random(32).array();
+        byte[] nonce = Bytes.random(12).array();
+        byte[] content = Bytes.random(77).array();
+        byte[] out = fallback.encryptWithNonce(Bytes.from(key).array(), nonce, content, null, 0);
+        assertArrayEquals(content, provided.decryptWithNonce(key, nonce, out, 0, null));
+    }
+
+    @Test
+    public void alwaysUses256BitKeys() throws Exception {
+        assertEquals(32, fallback.byteSizeLength(AuthenticatedEncryption.STRENGTH_HIGH));
+        assertEquals(32, fallback.byteSizeLength(AuthenticatedEncryption.STRENGTH_VERY_HIGH));
+    }
+
+    private static void testEncryptDecrypt(AuthenticatedEncryption encryption, AuthenticatedEncryption decryption, byte[] content) throws Exception {
+        byte[] key = Bytes.random(32).array();
+        byte[] aad = Bytes.random(content.length % 20).array();
+        byte[] encrypted = encryption.encrypt(Bytes.from(key).array(), content, aad);
+        assertEquals(content.length + 1 + 12 + 16, encrypted.length);
+        assertArrayEquals(content, decryption.decrypt(key, encrypted, aad));
+    }
+}
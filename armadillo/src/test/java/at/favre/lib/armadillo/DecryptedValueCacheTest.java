@@ -0,0 +1,81 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class DecryptedValueCacheTest {
+    private DecryptedValueCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new DecryptedValueCache(3, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        byte[] value = Bytes.random(16).array();
+        cache.put("k", value);
+        byte[] cached = cache.get("k");
+        assertArrayEquals(value, cached);
+        assertNotSame(value, cached);
+        assertNull(cache.get("k2"));
+    }
+
+    @Test
+    public void returnsCopies() throws Exception {
+        byte[] value = Bytes.random(16).array();
+        byte[] original = Bytes.from(value).array();
+        cache.put("k", value);
+        Bytes.wrap(value).mutable().fill((byte) 0);
+        cache.get("k")[0] ^= 1;
+        assertArrayEquals(original, cache.get("k"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        cache.put("k1", new byte[]{1});
+        cache.put("k2", new byte[]{2});
+        cache.put("k3", new byte[]{3});
+        cache.get("k1");
+        cache.put("k4", new byte[]{4});
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("k2"));
+        assertArrayEquals(new byte[]{1}, cache.get("k1"));
+        assertArrayEquals(new byte[]{4}, cache.get("k4"));
+    }
+
+    @Test
+    public void removeAndClear() throws Exception {
+        cache.put("k1", new byte[]{1});
+        cache.put("k2", new byte[]{2});
+        cache.remove("k1");
+        assertNull(cache.get("k1"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void wipesAfterIdleTimeout() throws Exception {
+        cache = new DecryptedValueCache(3, 50, TimeUnit.MILLISECONDS);
+        cache.put("k1", new byte[]{1});
+        assertEquals(1, cache.size());
+        Thread.sleep(250);
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalMaxEntries() throws Exception {
+        new DecryptedValueCache(0, 0, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,268 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class DefaultEncryptionProtocolTest {
+    private final char[] password = "password".toCharArray();
+    private byte[] preferenceSalt;
+    private CountingKeyStretcher keyStretcher;
+
+    @Before
+    public void setUp() throws Exception {
+        preferenceSalt = Bytes.random(32).array();
+        keyStretcher = new CountingKeyStretcher();
+    }
+
+    @Test
+    public void encryptDecrypt() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+
+        for (int i = 1; i < 512; i *= 2) {
+            byte[] content = Bytes.random(i).array();
+            String contentKey = protocol.deriveContentKey("key" + i);
+            assertArrayEquals(content, protocol.decrypt(contentKey, password, protocol.encrypt(contentKey, password, content)));
+            assertArrayEquals(content, protocol.decrypt(contentKey, protocol.encrypt(contentKey, content)));
+        }
+    }
+
+    @Test
+    public void passwordIsOnlyStretchedOncePerStore() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+
+        for (int i = 0; i < 10; i++) {
+            String contentKey = protocol.deriveContentKey("key" + i);
+            protocol.decrypt(contentKey, password, protocol.encrypt(contentKey, password, Bytes.random(16).array()));
+        }
+        assertEquals(1, keyStretcher.count.get());
+    }
+
+    @Test
+    public void decryptWithOtherInstance() throws Exception {
+        EncryptionProtocol.Factory factory = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList());
+        EncryptionProtocol protocol = factory.create(preferenceSalt);
+        String contentKey = protocol.deriveContentKey("key");
+        byte[] content = Bytes.random(16).array();
+        byte[] encrypted = protocol.encrypt(contentKey, password, content);
+        assertArrayEquals(content, factory.create(preferenceSalt).decrypt(contentKey, "password".toCharArray(), encrypted));
+    }
+
+    @Test
+    public void counterBasedNonceSavesIvAndIsReadableWithoutCounter() throws Exception {
+        EncryptionProtocol.Factory randomNonceFactory = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList());
+        StoreMetadata metadata = new StoreMetadata(new InMemoryStorage(), new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH),
+                new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+        EncryptionProtocolConfig counterConfig = EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT)
+                .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING)
+                .keyStrength(AuthenticatedEncryption.STRENGTH_HIGH)
+                .authenticatedEncryption(new AesGcmEncryption())
+                .keyStretchingFunction(keyStretcher)
+                .dataObfuscatorFactory(new HkdfXorObfuscator.Factory())
+                .compressor(new DisabledCompressor())
+                .nonceCounter(new NonceCounter(metadata))
+                .build();
+        EncryptionProtocol counterProtocol = new DefaultEncryptionProtocol.Factory(counterConfig, Collections.<EncryptionProtocolConfig>emptyList(),
+                new EncryptionFingerprint.Default(new byte[16]), new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH),
+                new SecureRandom()).create(preferenceSalt);
+        EncryptionProtocol randomProtocol = randomNonceFactory.create(preferenceSalt);
+
+        String contentKey = counterProtocol.deriveContentKey("key");
+        for (int i = 0; i < 100; i += 7) {
+            byte[] content = Bytes.random(i).array();
+            byte[] encrypted = counterProtocol.encrypt(contentKey, password, content);
+            assertEquals(randomProtocol.encrypt(contentKey, password, content).length - 12, encrypted.length);
+            assertArrayEquals(content, counterProtocol.decrypt(contentKey, password, encrypted));
+            assertArrayEquals(content, randomProtocol.decrypt(contentKey, password, encrypted));
+        }
+        assertArrayEquals(Bytes.from(1024L).array(), metadata.get(NonceCounter.METADATA_NAME));
+    }
+
+    @Test(expected = EncryptionProtocolException.class)
+    public void wrongPasswordShouldFail() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+        String contentKey = protocol.deriveContentKey("key");
+        byte[] encrypted = protocol.encrypt(contentKey, password, Bytes.random(16).array());
+        protocol.decrypt(contentKey, "wrong".toCharArray(), encrypted);
+    }
+
+    @Test
+    public void encryptDecryptStoreKey() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+
+        EncryptionProtocol.DecryptionSession session = protocol.openDecryptionSession(password);
+        for (int i = 1; i < 512; i *= 2) {
+            byte[] content = Bytes.random(i).array();
+            String contentKey = protocol.deriveContentKey("key" + i);
+            byte[] encrypted = protocol.encrypt(contentKey, password, content);
+            assertArrayEquals(content, protocol.decrypt(contentKey, password, encrypted));
+            assertArrayEquals(content, session.decrypt(contentKey, encrypted));
+            assertArrayEquals(content, protocol.decrypt(contentKey, protocol.encrypt(contentKey, content)));
+        }
+        session.close();
+        assertEquals(1, keyStretcher.count.get());
+    }
+
+    @Test
+    public void storeKeyDependsOnPasswordAndSalt() throws Exception {
+        EncryptionProtocol.Factory factory = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY, Collections.<EncryptionProtocolConfig>emptyList());
+        EncryptionProtocol protocol = factory.create(preferenceSalt);
+        String contentKey = protocol.deriveContentKey("key");
+        byte[] content = Bytes.random(16).array();
+        byte[] encrypted = protocol.encrypt(contentKey, password, content);
+
+        assertArrayEquals(content, factory.create(preferenceSalt).decrypt(contentKey, "password".toCharArray(), encrypted));
+        assertDecryptFails(protocol, contentKey, "wrong".toCharArray(), encrypted);
+        assertDecryptFails(protocol, contentKey, null, encrypted);
+        assertDecryptFails(factory.create(Bytes.random(32).array()), contentKey, password, encrypted);
+        assertArrayEquals(content, protocol.decrypt(contentKey, password, encrypted));
+    }
+
+    @Test
+    public void readStoreStretchingVersionWithStoreKeyVersion() throws Exception {
+        EncryptionProtocol oldProtocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+        byte[] content = Bytes.random(64).array();
+        String contentKey = oldProtocol.deriveContentKey("key");
+        byte[] encrypted = oldProtocol.encrypt(contentKey, password, content);
+
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY,
+                Collections.singletonList(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION)
+                        .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING).build())).create(preferenceSalt);
+
+        assertArrayEquals(content, protocol.decrypt(contentKey, password, encrypted));
+        byte[] newContent = protocol.encrypt(contentKey, password, content);
+        assertArrayEquals(content, protocol.decrypt(contentKey, password, newContent));
+        assertDecryptFails(oldProtocol, contentKey, password, newContent);
+    }
+
+    @Test
+    public void readLegacyVersion() throws Exception {
+        EncryptionProtocol legacyProtocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY,
+                EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+
+        byte[] content = Bytes.random(64).array();
+        String contentKey = legacyProtocol.deriveContentKey("key");
+        byte[] encrypted = legacyProtocol.encrypt(contentKey, password, content);
+
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING,
+                Collections.singletonList(EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY)
+                        .keySchedule(EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY).build())).create(preferenceSalt);
+
+        assertArrayEquals(content, protocol.decrypt(contentKey, password, encrypted));
+    }
+
+    @Test
+    public void defaultKeyScheduleOfVersion() throws Exception {
+        assertEquals(EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY, EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_LEGACY).build().keySchedule);
+        assertEquals(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_STORE_STRETCHING).build().keySchedule);
+        assertEquals(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_AES_CTR_OBFUSCATION).build().keySchedule);
+        assertEquals(EncryptionProtocolConfig.KEY_SCHEDULE_STORE_KEY, EncryptionProtocolConfig.newBuilder(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT).build().keySchedule);
+        assertEquals(EncryptionProtocolConfig.KEY_SCHEDULE_LEGACY, EncryptionProtocolConfig.newBuilder(14221).build().keySchedule);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void unknownVersionShouldFail() throws Exception {
+        EncryptionProtocol otherProtocol = createFactory(99, EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING,
+                Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+        String contentKey = otherProtocol.deriveContentKey("key");
+        byte[] encrypted = otherProtocol.encrypt(contentKey, Bytes.random(16).array());
+
+        createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT, EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING,
+                Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt).decrypt(contentKey, encrypted);
+    }
+
+    @Test
+    public void decryptWithSession() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+
+        EncryptionProtocol.DecryptionSession session = protocol.openDecryptionSession(password);
+        for (int i = 0; i < 10; i++) {
+            byte[] content = Bytes.random(16 + i).array();
+            String contentKey = protocol.deriveContentKey("key" + i);
+            assertArrayEquals(content, session.decrypt(contentKey, protocol.encrypt(contentKey, password, content)));
+        }
+        session.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedSessionShouldFail() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+        String contentKey = protocol.deriveContentKey("key");
+        byte[] encrypted = protocol.encrypt(contentKey, Bytes.random(16).array());
+
+        EncryptionProtocol.DecryptionSession session = protocol.openDecryptionSession(null);
+        session.close();
+        session.decrypt(contentKey, encrypted);
+    }
+
+    @Test
+    public void deriveContentKeyIsDeterministic() throws Exception {
+        EncryptionProtocol protocol = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(preferenceSalt);
+        EncryptionProtocol protocolOtherSalt = createFactory(EncryptionProtocolConfig.PROTOCOL_VERSION_DEFAULT,
+                EncryptionProtocolConfig.KEY_SCHEDULE_STORE_STRETCHING, Collections.<EncryptionProtocolConfig>emptyList()).create(Bytes.random(32).array());
+
+        for (int i = 0; i < 2000; i++) {
+            String key = "key" + (i % 700);
+            String expected = new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH)
+                    .derive(Bytes.from(key).append(preferenceSalt).encodeUtf8(), "contentKey");
+            assertEquals(expected, protocol.deriveContentKey(key));
+            assertNotEquals(expected, protocolOtherSalt.deriveContentKey(key));
+        }
+    }
+
+    private static void assertDecryptFails(EncryptionProtocol protocol, String contentKey, char[] password, byte[] encrypted) {
+        try {
+            protocol.decrypt(contentKey, password, encrypted);
+            fail();
+        } catch (EncryptionProtocolException | SecurityException ignored) {
+        }
+    }
+
+    private EncryptionProtocol.Factory createFactory(int version, int keySchedule, List<EncryptionProtocolConfig> decryptionConfigs) {
+        EncryptionProtocolConfig config = EncryptionProtocolConfig.newBuilder(version)
+                .keySchedule(keySchedule)
+                .keyStrength(AuthenticatedEncryption.STRENGTH_HIGH)
+                .authenticatedEncryption(new AesGcmEncryption())
+                .keyStretchingFunction(keyStretcher)
+                .dataObfuscatorFactory(new HkdfXorObfuscator.Factory())
+                .compressor(new DisabledCompressor())
+                .build();
+
+        return new DefaultEncryptionProtocol.Factory(config, decryptionConfigs, new EncryptionFingerprint.Default(new byte[16]),
+                new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH), new SecureRandom());
+    }
+
+    private static final class CountingKeyStretcher implements KeyStretchingFunction {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public byte[] stretch(byte[] salt, char[] password, int outLengthByte) {
+            count.incrementAndGet();
+            return new FastKeyStretcher().stretch(salt, password, outLengthByte);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package at.favre.lib.armadillo;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An {@link InMemoryStorage} whose writes can be made to fail, either by returning false on commit or by throwing
+ */
+final class FailingStorage implements KeyValueStorage {
+    private final InMemoryStorage delegate = new InMemoryStorage();
+    volatile boolean commitFails;
+    volatile boolean writeThrows;
+
+    @Override
+    public byte[] get(String key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public List<byte[]> getSet(String key) {
+        return delegate.getSet(key);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public Set<String> keys() {
+        return delegate.keys();
+    }
+
+    @Override
+    public Editor edit() {
+        final Editor editor = delegate.edit();
+        return new Editor() {
+            @Override
+            public Editor put(String key, byte[] value) {
+                editor.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putSet(String key, Collection<byte[]> values) {
+                editor.putSet(key, values);
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                editor.remove(key);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                editor.clear();
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                checkThrows();
+                return !commitFails && editor.commit();
+            }
+
+            @Override
+            public void apply() {
+                checkThrows();
+                if (!commitFails) {
+                    editor.apply();
+                }
+            }
+        };
+    }
+
+    private void checkThrows() {
+        if (writeThrows) {
+            throw new IllegalStateException("write failed");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramMetricsListenerTest {
+    private final HistogramMetricsListener metrics = new HistogramMetricsListener();
+
+    @Test
+    public void aggregatesStages() throws Exception {
+        metrics.onStage(MetricsListener.STAGE_ENCRYPTION, 1000, 10);
+        metrics.onStage(MetricsListener.STAGE_ENCRYPTION, 3000, 20);
+        metrics.onStage(MetricsListener.STAGE_DECRYPTION, 0, 5);
+
+        assertEquals(2, metrics.getCount(MetricsListener.STAGE_ENCRYPTION));
+        assertEquals(4000, metrics.getTotalNanos(MetricsListener.STAGE_ENCRYPTION));
+        assertEquals(30, metrics.getTotalBytes(MetricsListener.STAGE_ENCRYPTION));
+        assertEquals(1, metrics.getCount(MetricsListener.STAGE_DECRYPTION));
+        assertEquals(0, metrics.getCount(MetricsListener.STAGE_COMPRESSION));
+    }
+
+    @Test
+    public void percentilesAreUpperBucketBounds() throws Exception {
+        for (int i = 0; i < 99; i++) {
+            metrics.onStage(MetricsListener.STAGE_ENCRYPTION, 1000, 0);
+        }
+        metrics.onStage(MetricsListener.STAGE_ENCRYPTION, 1_000_000, 0);
+
+        assertEquals(1023, metrics.getPercentileNanos(MetricsListener.STAGE_ENCRYPTION, 50));
+        assertEquals(1023, metrics.getPercentileNanos(MetricsListener.STAGE_ENCRYPTION, 99));
+        assertEquals(1048575, metrics.getPercentileNanos(MetricsListener.STAGE_ENCRYPTION, 100));
+        assertEquals(1023, metrics.getPercentileNanos(MetricsListener.STAGE_ENCRYPTION, 0));
+        assertEquals(0, metrics.getPercentileNanos(MetricsListener.STAGE_DECRYPTION, 50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPercentile() throws Exception {
+        metrics.getPercentileNanos(MetricsListener.STAGE_ENCRYPTION, 101);
+    }
+
+    @Test
+    public void resetAndDump() throws Exception {
+        metrics.onStage(MetricsListener.STAGE_KEY_DERIVATION, 2000, 16);
+        metrics.onCacheHit();
+        metrics.onCacheMiss();
+        metrics.onCacheMiss();
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.contains("key derivation"));
+        assertTrue(dump, dump.contains("cache hits 1, misses 2"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(MetricsListener.STAGE_KEY_DERIVATION));
+        assertEquals(0, metrics.getTotalBytes(MetricsListener.STAGE_KEY_DERIVATION));
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(0, metrics.getCacheMisses());
+        assertTrue(metrics.dump().startsWith("stage"));
+    }
+
+    @Test
+    public void recordsAllStagesOfSharedPreferences() throws Exception {
+        SharedPreferences preferences = Armadillo.create(new MockSharedPref())
+                .encryptionFingerprint(new byte[16])
+                .password("secret".toCharArray())
+                .keyStretchingFunction(new FastKeyStretcher())
+                .compress()
+                .cacheDecryptedValues(8, 0, TimeUnit.SECONDS)
+                .metricsListener(metrics)
+                .build();
+
+        preferences.edit().putString("key", "value").commit();
+        assertEquals("value", preferences.getString("key", null));
+        assertEquals("value", preferences.getString("key", null));
+        assertEquals(null, preferences.getString("unknown", null));
+
+        for (int stage : new int[]{MetricsListener.STAGE_CONTENT_KEY_DIGEST, MetricsListener.STAGE_FINGERPRINT,
+                MetricsListener.STAGE_KEY_STRETCHING, MetricsListener.STAGE_KEY_DERIVATION, MetricsListener.STAGE_COMPRESSION,
+                MetricsListener.STAGE_ENCRYPTION, MetricsListener.STAGE_OBFUSCATION, MetricsListener.STAGE_ENCODING,
+                MetricsListener.STAGE_STORAGE_READ, MetricsListener.STAGE_STORAGE_WRITE}) {
+            assertTrue("stage " + stage, metrics.getCount(stage) > 0);
+        }
+        assertEquals(1, metrics.getCount(MetricsListener.STAGE_KEY_STRETCHING));
+        assertTrue(metrics.getCacheHits() > 0);
+        assertTrue(metrics.getCacheMisses() > 0);
+
+        //values are only decrypted if not cached
+        metrics.reset();
+        SharedPreferences uncached = Armadillo.create(new MockSharedPref())
+                .encryptionFingerprint(new byte[16])
+                .keyStretchingFunction(new FastKeyStretcher())
+                .metricsListener(metrics)
+                .build();
+        uncached.edit().putString("key", "value").commit();
+        assertEquals("value", uncached.getString("key", null));
+        assertEquals(1, metrics.getCount(MetricsListener.STAGE_DECRYPTION));
+        assertEquals(1, metrics.getCount(MetricsListener.STAGE_DEOBFUSCATION));
+        assertEquals(1, metrics.getCount(MetricsListener.STAGE_DECOMPRESSION));
+        assertTrue(metrics.getCount(MetricsListener.STAGE_DECODING) > 0);
+        assertEquals(0, metrics.getCacheHits());
+    }
+}
@@ -0,0 +1,150 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.HKDF;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HkdfEngineTest {
+
+    @Test
+    public void sameOutputAsHkdfLibrarySha512() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            byte[] salt = Bytes.random(32).array();
+            byte[] ikm = Bytes.random(16 + i).array();
+            byte[] info = Bytes.random(i).array();
+            int outLength = 1 + 13 * i;
+            HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA512, salt);
+
+            assertArrayEquals(HKDF.fromHmacSha512().extract(salt, ikm), engine.extract(ikm));
+            assertArrayEquals(HKDF.fromHmacSha512().extractAndExpand(salt, ikm, info, outLength),
+                    engine.extractAndExpand(ikm, info, outLength));
+        }
+    }
+
+    @Test
+    public void sameOutputAsHkdfLibrarySha256() throws Exception {
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA256, null);
+        for (int i = 0; i < 20; i++) {
+            byte[] prk = Bytes.random(16 + 5 * i).array();
+            byte[] info = Bytes.random(i).array();
+            assertArrayEquals(HKDF.fromHmacSha256().expand(prk, info, 1 + 17 * i), engine.expand(prk, info, 1 + 17 * i));
+        }
+        assertArrayEquals(HKDF.fromHmacSha256().expand(new byte[32], null, 32), engine.expand(new byte[32], null, 32));
+    }
+
+    @Test
+    public void rfc5869TestCase1() throws Exception {
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA256, Bytes.parseHex("000102030405060708090a0b0c").array());
+        byte[] okm = engine.extractAndExpand(Bytes.parseHex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b").array(),
+                Bytes.parseHex("f0f1f2f3f4f5f6f7f8f9").array(), 42);
+        assertArrayEquals(Bytes.parseHex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865").array(), okm);
+    }
+
+    @Test
+    public void emptyOrNullSaltUsesZeroBytes() throws Exception {
+        byte[] ikm = Bytes.random(16).array();
+        byte[] expected = HKDF.fromHmacSha512().extract(new byte[64], ikm);
+        assertArrayEquals(expected, new HkdfEngine(HkdfEngine.HMAC_SHA512, null).extract(ikm));
+        assertArrayEquals(expected, new HkdfEngine(HkdfEngine.HMAC_SHA512, new byte[0]).extract(ikm));
+    }
+
+    @Test
+    public void extractReusableAfterExpand() throws Exception {
+        byte[] salt = Bytes.random(16).array();
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA512, salt);
+        byte[] ikm = Bytes.random(16).array();
+        byte[] first = engine.extract(ikm);
+        engine.expand(Bytes.random(64).array(), null, 100);
+        new HkdfEngine(HkdfEngine.HMAC_SHA512, Bytes.random(16).array()).extractAndExpand(ikm, null, 64);
+        assertArrayEquals(first, engine.extract(ikm));
+    }
+
+    @Test
+    public void releaseRekeysMac() throws Exception {
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA512, null);
+        byte[] key = Bytes.random(64).array();
+        Mac mac = engine.keyedMac(key);
+        byte[] keyed = mac.doFinal(new byte[]{1});
+        engine.release(mac);
+        assertArrayEquals(HKDF.fromHmacSha512().extract(new byte[64], new byte[]{1}), mac.doFinal(new byte[]{1}));
+        assertSame(mac, engine.keyedMac(key));
+        assertArrayEquals(keyed, mac.doFinal(new byte[]{1}));
+        engine.release(mac);
+    }
+
+    @Test
+    public void hasSalt() throws Exception {
+        byte[] salt = Bytes.random(16).array();
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA256, salt);
+        assertTrue(engine.hasSalt(Bytes.from(salt).array()));
+        assertFalse(engine.hasSalt(Bytes.random(16).array()));
+        salt[0] ^= 1;
+        assertFalse(engine.hasSalt(salt));
+        assertEquals(32, engine.getMacLength());
+    }
+
+    @Test
+    public void expanderSameOutputAsExpand() throws Exception {
+        HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA512, null);
+        byte[] prk = Bytes.random(64).array();
+        HkdfEngine.Expander expander = engine.expander(Bytes.from(prk).array());
+        for (int i = 0; i < 20; i++) {
+            byte[] info = Bytes.random(i).array();
+            assertArrayEquals(HKDF.fromHmacSha512().expand(prk, info, 1 + 11 * i), expander.expand(info, 1 + 11 * i));
+        }
+    }
+
+    @Test
+    public void expanderWipesGivenKey() throws Exception {
+        byte[] prk = Bytes.random(32).array();
+        new HkdfEngine(HkdfEngine.HMAC_SHA256, null).expander(prk);
+        assertArrayEquals(new byte[32], prk);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expandTooLong() throws Exception {
+        new HkdfEngine(HkdfEngine.HMAC_SHA256, null).expand(new byte[32], null, 255 * 32 + 1);
+    }
+
+    @Test
+    public void concurrentDerivations() throws Exception {
+        final byte[] salt = Bytes.random(32).array();
+        final HkdfEngine engine = new HkdfEngine(HkdfEngine.HMAC_SHA512, salt);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future<?>[32];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 100; j++) {
+                            byte[] ikm = Bytes.random(20).array();
+                            assertArrayEquals(HKDF.fromHmacSha512().extractAndExpand(salt, ikm, null, 32),
+                                    engine.extractAndExpand(ikm, null, 32));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -3,8 +3,12 @@ package at.favre.lib.armadillo;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import at.favre.lib.bytes.Bytes;
+import at.favre.lib.crypto.HKDF;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -47,6 +51,50 @@ public class HkdfXorObfuscatorTest {
         testIntern(Bytes.allocate(32).array());
     }
 
+    @Test
+    public void compatibleWithHkdfReference() throws Exception {
+        byte[] key = Bytes.random(16).array();
+        for (int length = 0; length < 300; length += 7) {
+            byte[] data = Bytes.random(length).array();
+            byte[] expected = referenceObfuscate(key, data);
+            new HkdfXorObfuscator(Bytes.from(key).array()).obfuscate(data);
+            assertArrayEquals(expected, data);
+        }
+    }
+
+    @Test
+    public void obfuscateRange() throws Exception {
+        byte[] data = Bytes.random(200).array();
+        byte[] original = Bytes.from(data).array();
+        obfuscator.obfuscate(data, 10, 150);
+
+        assertArrayEquals(Arrays.copyOfRange(original, 0, 10), Arrays.copyOfRange(data, 0, 10));
+        assertArrayEquals(Arrays.copyOfRange(original, 160, 200), Arrays.copyOfRange(data, 160, 200));
+        byte[] range = Arrays.copyOfRange(original, 10, 160);
+        obfuscator.obfuscate(range);
+        assertArrayEquals(range, Arrays.copyOfRange(data, 10, 160));
+
+        obfuscator.deobfuscate(data, 10, 150);
+        assertArrayEquals(original, data);
+    }
+
+    /**
+     * The original block wise implementation using the HKDF library
+     */
+    private static byte[] referenceObfuscate(byte[] key, byte[] data) {
+        byte[] out = Bytes.from(data).array();
+        byte[] okm = HKDF.fromHmacSha512().extract(new byte[64], key);
+        int ctr = 0;
+        for (int offset = 0; offset < out.length; offset += 128) {
+            int length = Math.min(128, out.length - offset);
+            byte[] roundKey = HKDF.fromHmacSha512().expand(okm, Bytes.from(ctr++).array(), length);
+            for (int i = 0; i < length; i++) {
+                out[offset + i] ^= roundKey[i];
+            }
+        }
+        return out;
+    }
+
     private void testIntern(byte[] target) {
         byte[] originalCopy = Bytes.wrap(target).copy().array();
         obfuscator.obfuscate(target);
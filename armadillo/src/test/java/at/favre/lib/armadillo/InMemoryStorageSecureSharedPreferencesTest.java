@@ -0,0 +1,107 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class InMemoryStorageSecureSharedPreferencesTest extends ASecureSharedPreferencesTest {
+    private Map<String, InMemoryStorage> storageMap = new HashMap<>();
+
+    @Override
+    protected Armadillo.Builder create(String name, char[] pw) {
+        return Armadillo.create(getOrCreate(name))
+                .encryptionFingerprint(new byte[16])
+                .password(pw);
+    }
+
+    private InMemoryStorage getOrCreate(String name) {
+        if (!storageMap.containsKey(name)) {
+            storageMap.put(name, new InMemoryStorage());
+        }
+        return storageMap.get(name);
+    }
+
+    @Test
+    public void testStorageOnlyContainsEncryptedBytes() throws Exception {
+        SharedPreferences preferences = create("raw", null).build();
+        preferences.edit().putString("key", "plaintext").commit();
+
+        InMemoryStorage storage = getOrCreate("raw");
+        assertEquals(2, storage.keys().size());
+        assertFalse(storage.contains("key"));
+        for (String key : storage.keys()) {
+            assertNotNull(storage.get(key));
+            assertNull(storage.getSet(key));
+        }
+    }
+
+    @Test
+    public void testStorageEditor() throws Exception {
+        InMemoryStorage storage = new InMemoryStorage();
+        byte[] value = new byte[]{1, 2, 3};
+        storage.edit().put("a", value).putSet("b", Arrays.asList(new byte[]{4}, new byte[]{5})).commit();
+        value[0] = 9;
+
+        assertEquals(1, storage.get("a")[0]);
+        assertNull(storage.get("b"));
+        assertEquals(2, storage.getSet("b").size());
+
+        storage.edit().put("c", new byte[]{6}).remove("a").clear().commit();
+        assertEquals(1, storage.keys().size());
+        assertNotNull(storage.get("c"));
+    }
+
+    @Test
+    public void testFailedApplyIsDiscarded() throws Exception {
+        FailingStorage storage = new FailingStorage();
+        SharedPreferences preferences = Armadillo.create(storage).encryptionFingerprint(new byte[16])
+                .cacheDecryptedValues(8).executor(Runnable::run).build();
+        preferences.edit().putString("s", "old").commit();
+
+        storage.writeThrows = true;
+        preferences.edit().putString("s", "new").putString("other", "new").apply();
+        assertEquals("old", preferences.getString("s", null));
+        assertNull(preferences.getString("other", null));
+
+        storage.writeThrows = false;
+        storage.commitFails = true;
+        assertFalse(preferences.edit().putString("s", "new").commit());
+        assertEquals("old", preferences.getString("s", null));
+    }
+
+    @Test
+    public void testRejectedApplyIsDiscarded() throws Exception {
+        SharedPreferences preferences = create("rejected", null).cacheDecryptedValues(8).executor(command -> {
+            throw new RejectedExecutionException();
+        }).build();
+        preferences.edit().putString("s", "old").commit();
+        preferences.edit().putString("s", "new").apply();
+        assertEquals("old", preferences.getString("s", null));
+    }
+
+    @Test
+    public void testOutdatedApplyDoesNotOverwriteCache() throws Exception {
+        List<Runnable> queue = new ArrayList<>();
+        SharedPreferences preferences = create("outdatedApply", null).cacheDecryptedValues(8).executor(queue::add).build();
+        preferences.edit().putString("s", "a").apply();
+        preferences.edit().putString("s", "b").commit();
+        for (Runnable runnable : new ArrayList<>(queue)) {
+            runnable.run();
+        }
+
+        assertEquals("b", preferences.getString("s", null));
+        assertEquals("b", create("outdatedApply", null).build().getString("s", null));
+    }
+}
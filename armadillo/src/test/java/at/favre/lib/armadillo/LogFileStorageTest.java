@@ -0,0 +1,161 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogFileStorageTest extends ASecureSharedPreferencesTest {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private Map<String, LogFileStorage> storageMap = new HashMap<>();
+
+    @Override
+    protected Armadillo.Builder create(String name, char[] pw) {
+        return Armadillo.create(getOrCreate(name))
+                .encryptionFingerprint(new byte[16])
+                .password(pw);
+    }
+
+    private LogFileStorage getOrCreate(String name) {
+        if (!storageMap.containsKey(name)) {
+            try {
+                storageMap.put(name, new LogFileStorage(new File(temporaryFolder.getRoot(), name)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return storageMap.get(name);
+    }
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        for (LogFileStorage storage : storageMap.values()) {
+            try {
+                storage.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        File file = temporaryFolder.newFile();
+        LogFileStorage storage = new LogFileStorage(file);
+        storage.edit().put("a", new byte[]{1, 2}).putSet("b", Arrays.asList(new byte[]{3}, new byte[]{4, 5})).commit();
+        storage.edit().put("c", new byte[0]).remove("a").apply();
+        storage.close();
+
+        storage = new LogFileStorage(file);
+        assertFalse(storage.contains("a"));
+        assertNull(storage.get("b"));
+        assertArrayEquals(new byte[0], storage.get("c"));
+        List<byte[]> set = storage.getSet("b");
+        assertEquals(2, set.size());
+        assertEquals(2, storage.keys().size());
+
+        storage.edit().put("d", new byte[]{6}).clear().commit();
+        storage.close();
+
+        storage = new LogFileStorage(file);
+        assertEquals(1, storage.keys().size());
+        assertArrayEquals(new byte[]{6}, storage.get("d"));
+        storage.close();
+    }
+
+    @Test
+    public void testDiscardIncompleteRecord() throws Exception {
+        File file = temporaryFolder.newFile();
+        LogFileStorage storage = new LogFileStorage(file);
+        storage.edit().put("a", new byte[]{1}).commit();
+        long validLength = storage.length();
+        storage.edit().put("a", new byte[]{2}).put("b", new byte[]{3}).commit();
+        storage.close();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 3);
+        randomAccessFile.close();
+
+        storage = new LogFileStorage(file);
+        assertEquals(validLength, storage.length());
+        assertArrayEquals(new byte[]{1}, storage.get("a"));
+        assertFalse(storage.contains("b"));
+
+        storage.edit().put("b", new byte[]{4}).commit();
+        storage.close();
+        storage = new LogFileStorage(file);
+        assertArrayEquals(new byte[]{4}, storage.get("b"));
+        storage.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectForeignFile() throws Exception {
+        File file = temporaryFolder.newFile();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.write(Bytes.random(64).array());
+        randomAccessFile.close();
+        new LogFileStorage(file);
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File file = temporaryFolder.newFile();
+        LogFileStorage storage = new LogFileStorage(file, LogFileStorage.DURABILITY_NONE, 0.5, DIRECT_EXECUTOR);
+        for (int i = 0; i < 1000; i++) {
+            storage.edit().put("key" + (i % 10), Bytes.from(i).array()).putSet("set", Arrays.asList(new byte[]{1}, Bytes.from(i).array())).apply();
+        }
+
+        assertTrue(storage.length() < 16 * 1024 * 2);
+        assertEquals(11, storage.keys().size());
+        assertArrayEquals(Bytes.from(999).array(), storage.get("key9"));
+        assertEquals(2, storage.getSet("set").size());
+
+        storage.compact();
+        long compactedLength = storage.length();
+        assertEquals(compactedLength, file.length());
+        storage.close();
+
+        storage = new LogFileStorage(file);
+        assertEquals(11, storage.keys().size());
+        assertArrayEquals(Bytes.from(990).array(), storage.get("key0"));
+        storage.close();
+    }
+
+    @Test
+    public void testPersistsAcrossInstances() throws Exception {
+        SharedPreferences preferences = create("reopenLog", null).build();
+        preferences.edit().putString("s", "value").putInt("i", 3).commit();
+        storageMap.remove("reopenLog").close();
+
+        preferences = create("reopenLog", null).build();
+        assertEquals("value", preferences.getString("s", null));
+        assertEquals(3, preferences.getInt("i", 0));
+    }
+}
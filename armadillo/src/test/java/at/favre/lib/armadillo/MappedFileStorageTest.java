@@ -0,0 +1,103 @@
+package at.favre.lib.armadillo;
+
+import android.content.SharedPreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedFileStorageTest extends ASecureSharedPreferencesTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private Map<String, MappedFileStorage> storageMap = new HashMap<>();
+
+    @Override
+    protected Armadillo.Builder create(String name, char[] pw) {
+        return Armadillo.create(getOrCreate(name))
+                .encryptionFingerprint(new byte[16])
+                .password(pw);
+    }
+
+    private MappedFileStorage getOrCreate(String name) {
+        if (!storageMap.containsKey(name)) {
+            try {
+                storageMap.put(name, new MappedFileStorage(new File(temporaryFolder.getRoot(), name)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return storageMap.get(name);
+    }
+
+    @Test
+    public void testLookupAndReopen() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "lookup");
+        MappedFileStorage storage = new MappedFileStorage(file);
+        assertFalse(file.exists());
+        assertTrue(storage.keys().isEmpty());
+        assertNull(storage.get("missing"));
+
+        KeyValueStorage.Editor editor = storage.edit();
+        for (int i = 0; i < 500; i++) {
+            editor.put(Bytes.from(i).encodeHex(), Bytes.from(i).array());
+        }
+        editor.putSet("set", Arrays.asList(new byte[]{1}, new byte[0]));
+        editor.put("ü", new byte[]{2});
+        assertTrue(editor.commit());
+
+        storage = new MappedFileStorage(file);
+        assertEquals(502, storage.keys().size());
+        for (int i = 0; i < 500; i++) {
+            assertArrayEquals(Bytes.from(i).array(), storage.get(Bytes.from(i).encodeHex()));
+        }
+        assertArrayEquals(new byte[]{2}, storage.get("ü"));
+        assertNull(storage.get("set"));
+        assertNull(storage.getSet("ü"));
+        assertEquals(2, storage.getSet("set").size());
+        assertFalse(storage.contains("00000000 "));
+
+        storage.edit().remove("set").put("00000001", new byte[]{3}).commit();
+        assertFalse(storage.contains("set"));
+        assertArrayEquals(new byte[]{3}, storage.get("00000001"));
+
+        storage.edit().put("new", new byte[]{4}).clear().commit();
+        storage = new MappedFileStorage(file);
+        assertEquals(1, storage.keys().size());
+        assertArrayEquals(new byte[]{4}, storage.get("new"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectForeignFile() throws Exception {
+        File file = temporaryFolder.newFile();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.write(Bytes.random(64).array());
+        randomAccessFile.close();
+        new MappedFileStorage(file);
+    }
+
+    @Test
+    public void testPersistsAcrossInstances() throws Exception {
+        SharedPreferences preferences = create("reopenMapped", null).build();
+        preferences.edit().putString("s", "value").putInt("i", 3).commit();
+        storageMap.remove("reopenMapped");
+
+        preferences = create("reopenMapped", null).build();
+        assertEquals("value", preferences.getString("s", null));
+        assertEquals(3, preferences.getInt("i", 0));
+    }
+}
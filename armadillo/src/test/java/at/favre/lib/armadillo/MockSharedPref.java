@@ -4,15 +4,16 @@ import android.content.SharedPreferences;
 import android.support.annotation.Nullable;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 public class MockSharedPref implements SharedPreferences {
-    private final Map<String, Object> internalMap = new HashMap<>();
-    private final Set<OnSharedPreferenceChangeListener> listeners = new HashSet<>();
+    private final Map<String, Object> internalMap = new ConcurrentHashMap<>();
+    private final Set<OnSharedPreferenceChangeListener> listeners = new CopyOnWriteArraySet<>();
 
     @Override
     public Map<String, ?> getAll() {
@@ -101,7 +102,7 @@ public class MockSharedPref implements SharedPreferences {
         listeners.remove(onSharedPreferenceChangeListener);
     }
 
-    void executeTransaction(Map<String, Object> putMap, List<String> removeList, boolean clear) {
+    synchronized void executeTransaction(Map<String, Object> putMap, List<String> removeList, boolean clear) {
         if (!clear) {
             for (Map.Entry<String, Object> stringObjectEntry : putMap.entrySet()) {
                 this.internalMap.put(stringObjectEntry.getKey(), stringObjectEntry.getValue());
@@ -0,0 +1,131 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NonceCounterTest {
+    private final StringMessageDigest digest = new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH);
+    private InMemoryStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = new InMemoryStorage();
+    }
+
+    @Test
+    public void countsAndReservesBlocks() throws Exception {
+        StoreMetadata metadata = createMetadata();
+        NonceCounter counter = new NonceCounter(metadata, 4);
+        for (long i = 0; i < 10; i++) {
+            assertEquals(i, counter.next());
+        }
+        assertEquals(12L, ByteBuffer.wrap(metadata.get(NonceCounter.METADATA_NAME)).getLong());
+    }
+
+    @Test
+    public void continuesAtHighWaterMarkAfterRestart() throws Exception {
+        NonceCounter counter = new NonceCounter(createMetadata(), 4);
+        counter.next();
+        counter.next();
+
+        NonceCounter restarted = new NonceCounter(createMetadata(), 4);
+        assertEquals(4, restarted.next());
+    }
+
+    @Test
+    public void instancesOfSameStoreDoNotOverlap() throws Exception {
+        NonceCounter first = new NonceCounter(createMetadata(), 3);
+        NonceCounter second = new NonceCounter(createMetadata(), 3);
+        Set<Long> values = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(values.add(first.next()));
+            assertTrue(values.add(second.next()));
+        }
+    }
+
+    @Test
+    public void survivesClear() throws Exception {
+        NonceCounter counter = new NonceCounter(createMetadata(), 8);
+        counter.next();
+        //clearing the store keeps the metadata entry (see ContentStore#clear)
+        String metadataKey = StoreMetadata.storageKey(digest);
+        byte[] persisted = storage.get(metadataKey);
+        storage.edit().clear().put(metadataKey, persisted).commit();
+        assertEquals(8, new NonceCounter(createMetadata(), 8).next());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failedReservationThrows() throws Exception {
+        final InMemoryStorage delegate = new InMemoryStorage();
+        KeyValueStorage readOnly = new KeyValueStorage() {
+            @Override
+            public byte[] get(String key) {
+                return delegate.get(key);
+            }
+
+            @Override
+            public List<byte[]> getSet(String key) {
+                return delegate.getSet(key);
+            }
+
+            @Override
+            public boolean contains(String key) {
+                return delegate.contains(key);
+            }
+
+            @Override
+            public Set<String> keys() {
+                return delegate.keys();
+            }
+
+            @Override
+            public Editor edit() {
+                return new Editor() {
+                    @Override
+                    public Editor put(String key, byte[] value) {
+                        return this;
+                    }
+
+                    @Override
+                    public Editor putSet(String key, Collection<byte[]> values) {
+                        return this;
+                    }
+
+                    @Override
+                    public Editor remove(String key) {
+                        return this;
+                    }
+
+                    @Override
+                    public Editor clear() {
+                        return this;
+                    }
+
+                    @Override
+                    public boolean commit() {
+                        return false;
+                    }
+
+                    @Override
+                    public void apply() {
+                    }
+                };
+            }
+        };
+        new NonceCounter(new StoreMetadata(readOnly, digest, new HkdfXorObfuscator.Factory(),
+                new EncryptionFingerprint.Default(new byte[16])), 8).next();
+    }
+
+    private StoreMetadata createMetadata() {
+        return new StoreMetadata(storage, digest, new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+    }
+}
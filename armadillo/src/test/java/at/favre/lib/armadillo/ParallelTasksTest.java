@@ -0,0 +1,88 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ParallelTasksTest {
+
+    @Test
+    public void everyIndexIsRunExactlyOnce() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        final AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+        ParallelTasks.forEach(executorService, runs.length(), new ParallelTasks.Task() {
+            @Override
+            public void run(int index) {
+                runs.incrementAndGet(index);
+            }
+        });
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals(1, runs.get(i));
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    public void runsOnCallerIfExecutorRejects() throws Exception {
+        final AtomicIntegerArray runs = new AtomicIntegerArray(50);
+        ParallelTasks.forEach(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, runs.length(), new ParallelTasks.Task() {
+            @Override
+            public void run(int index) {
+                runs.incrementAndGet(index);
+            }
+        });
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals(1, runs.get(i));
+        }
+    }
+
+    @Test
+    public void nestedOnSingleThreadExecutorDoesNotDeadlock() throws Exception {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final AtomicIntegerArray runs = new AtomicIntegerArray(20);
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                ParallelTasks.forEach(executorService, runs.length(), new ParallelTasks.Task() {
+                    @Override
+                    public void run(int index) {
+                        runs.incrementAndGet(index);
+                    }
+                });
+            }
+        }).get();
+        for (int i = 0; i < runs.length(); i++) {
+            assertEquals(1, runs.get(i));
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    public void exceptionIsRethrown() throws Exception {
+        try {
+            ParallelTasks.forEach(ArmadilloExecutors.defaultExecutor(), 100, new ParallelTasks.Task() {
+                @Override
+                public void run(int index) {
+                    if (index == 42) {
+                        throw new IllegalStateException("test");
+                    }
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("test", e.getMessage());
+        }
+    }
+}
@@ -4,11 +4,16 @@ import android.content.SharedPreferences;
 
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 public class SecureSharedPreferenceUnitTest extends ASecureSharedPreferencesTest {
     private Map<String, MockSharedPref> prefMap = new HashMap<>();
@@ -27,6 +32,43 @@ public class SecureSharedPreferenceUnitTest extends ASecureSharedPreferencesTest
         return prefMap.get(name);
     }
 
+    @Test
+    public void testBucketsOnlyRewriteChangedBucket() throws Exception {
+        SharedPreferences preferences = create("dirtyBuckets", null).encryptInBuckets(16).build();
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < 200; i++) {
+            editor.putInt("int" + i, i);
+        }
+        editor.commit();
+
+        Map<String, Object> before = new HashMap<>(getOrCreate("dirtyBuckets").getAll());
+        assertEquals(17, before.size());
+        preferences.edit().putInt("int0", -1).commit();
+
+        int changed = 0;
+        for (Map.Entry<String, ?> entry : getOrCreate("dirtyBuckets").getAll().entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                changed++;
+            }
+        }
+        assertEquals(1, changed);
+    }
+
+    @Test
+    public void testBase85TextEncoding() throws Exception {
+        SharedPreferences preferences = create("base85", null).textEncoding(new Base85TextEncoding()).build();
+        preferences.edit().putString("s", "value").putStringSet("set", new HashSet<>(Arrays.asList("a", "b"))).commit();
+
+        for (Object value : getOrCreate("base85").getAll().values()) {
+            String encoded = value instanceof String ? (String) value : ((Set<?>) value).iterator().next().toString();
+            assertNotNull(new Base85TextEncoding().decode(encoded));
+        }
+
+        preferences = create("base85", null).textEncoding(new Base85TextEncoding()).build();
+        assertEquals("value", preferences.getString("s", null));
+        assertEquals(2, preferences.getStringSet("set", null).size());
+    }
+
     @Test
     public void testChangeListener() throws Exception {
         AtomicBoolean b = new AtomicBoolean(false);
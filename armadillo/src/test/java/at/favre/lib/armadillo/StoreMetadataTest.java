@@ -0,0 +1,66 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.favre.lib.bytes.Bytes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreMetadataTest {
+    private final StringMessageDigest digest = new HkdfMessageDigest(BuildConfig.PREF_SALT, Armadillo.CONTENT_KEY_OUT_BYTE_LENGTH);
+    private InMemoryStorage storage;
+    private StoreMetadata metadata;
+
+    @Before
+    public void setUp() throws Exception {
+        storage = new InMemoryStorage();
+        metadata = create();
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        assertNull(metadata.get("a"));
+        assertTrue(metadata.put("a", new byte[]{1}));
+        assertTrue(metadata.put("b", Bytes.random(300).array()));
+        assertTrue(metadata.put("a", new byte[]{2, 3}));
+        assertTrue(metadata.put("empty", new byte[0]));
+
+        StoreMetadata other = create();
+        assertArrayEquals(new byte[]{2, 3}, other.get("a"));
+        assertEquals(300, other.get("b").length);
+        assertArrayEquals(new byte[0], other.get("empty"));
+        assertEquals(1, storage.keys().size());
+    }
+
+    @Test
+    public void putIfAbsent() throws Exception {
+        assertArrayEquals(new byte[]{1}, metadata.putIfAbsent("a", new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, metadata.putIfAbsent("a", new byte[]{2}));
+        assertArrayEquals(new byte[]{1}, create().putIfAbsent("a", new byte[]{3}));
+        assertArrayEquals(new byte[]{1}, create().get("a"));
+    }
+
+    @Test
+    public void persistedObfuscated() throws Exception {
+        metadata.put("name", Bytes.from("plaintext").array());
+        byte[] raw = storage.get(StoreMetadata.storageKey(digest));
+        assertFalse(Bytes.wrap(raw).indexOf(Bytes.from("plaintext").array()) >= 0);
+    }
+
+    @Test
+    public void ignoreCorruptContent() throws Exception {
+        storage.edit().put(StoreMetadata.storageKey(digest), Bytes.random(20).array()).commit();
+        assertNull(metadata.get("a"));
+        assertTrue(metadata.put("a", new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, create().get("a"));
+    }
+
+    private StoreMetadata create() {
+        return new StoreMetadata(storage, digest, new HkdfXorObfuscator.Factory(), new EncryptionFingerprint.Default(new byte[16]));
+    }
+}
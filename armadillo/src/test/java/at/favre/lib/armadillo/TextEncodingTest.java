@@ -0,0 +1,76 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextEncodingTest {
+
+    @Test
+    public void testBase64RoundTrip() throws Exception {
+        testRoundTrip(new Base64TextEncoding());
+    }
+
+    @Test
+    public void testBase85RoundTrip() throws Exception {
+        testRoundTrip(new Base85TextEncoding());
+    }
+
+    @Test
+    public void testBase85EdgeCases() throws Exception {
+        TextEncoding encoding = new Base85TextEncoding();
+        assertEquals("", encoding.encode(new byte[0]));
+        assertEquals("00000", encoding.encode(new byte[4]));
+        assertEquals(4, encoding.encode(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff}).length());
+        byte[] max = new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertArrayEquals(max, encoding.decode(encoding.encode(max)));
+    }
+
+    @Test
+    public void testBase85OnlyUsesSafeCharacters() throws Exception {
+        String encoded = new Base85TextEncoding().encode(randomBytes(4096, 1));
+        for (char c : encoded.toCharArray()) {
+            assertTrue(c > ' ' && c < 127);
+            assertTrue("&<>\"'\\".indexOf(c) < 0);
+        }
+    }
+
+    @Test
+    public void testBase85IsShorterThanBase64() throws Exception {
+        byte[] data = randomBytes(120, 2);
+        assertEquals(160, new Base64TextEncoding().encode(data).length());
+        assertEquals(150, new Base85TextEncoding().encode(data).length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBase85InvalidLength() throws Exception {
+        new Base85TextEncoding().decode("000000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBase85InvalidCharacter() throws Exception {
+        new Base85TextEncoding().decode("00<00");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBase85Overflow() throws Exception {
+        new Base85TextEncoding().decode("~~~~~");
+    }
+
+    private static void testRoundTrip(TextEncoding encoding) {
+        for (int i = 0; i < 200; i++) {
+            byte[] data = randomBytes(i, i);
+            assertArrayEquals(data, encoding.decode(encoding.encode(data)));
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,236 @@
+package at.favre.lib.armadillo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindStorageTest extends ASecureSharedPreferencesTest {
+    private Map<String, WriteBehindStorage> storageMap = new HashMap<>();
+
+    @Override
+    protected Armadillo.Builder create(String name, char[] pw) {
+        if (!storageMap.containsKey(name)) {
+            storageMap.put(name, new WriteBehindStorage(new InMemoryStorage(), 5, TimeUnit.MILLISECONDS));
+        }
+        return Armadillo.create(storageMap.get(name))
+                .encryptionFingerprint(new byte[16])
+                .password(pw);
+    }
+
+    @Test
+    public void testCoalescesApplies() throws Exception {
+        CountingStorage underlying = new CountingStorage();
+        WriteBehindStorage storage = new WriteBehindStorage(underlying, 1, TimeUnit.HOURS);
+
+        for (int i = 0; i < 100; i++) {
+            storage.edit().put("key" + (i % 10), new byte[]{(byte) i}).apply();
+        }
+        storage.edit().putSet("set", Arrays.asList(new byte[]{1}, new byte[]{2})).remove("key0").apply();
+
+        assertEquals(0, underlying.commits.get());
+        assertTrue(underlying.keys().isEmpty());
+        assertArrayEquals(new byte[]{99}, storage.get("key9"));
+        assertFalse(storage.contains("key0"));
+        assertNull(storage.get("set"));
+        assertEquals(2, storage.getSet("set").size());
+        assertEquals(10, storage.keys().size());
+
+        assertTrue(storage.flush());
+        assertEquals(1, underlying.commits.get());
+        assertEquals(10, underlying.keys().size());
+        assertArrayEquals(new byte[]{99}, underlying.get("key9"));
+        assertTrue(storage.flush());
+        assertEquals(1, underlying.commits.get());
+    }
+
+    @Test
+    public void testClearHidesStorage() throws Exception {
+        CountingStorage underlying = new CountingStorage();
+        underlying.edit().put("a", new byte[]{1}).put("b", new byte[]{2}).commit();
+        WriteBehindStorage storage = new WriteBehindStorage(underlying, 1, TimeUnit.HOURS);
+
+        storage.edit().put("c", new byte[]{3}).clear().apply();
+        assertFalse(storage.contains("a"));
+        assertNull(storage.get("b"));
+        assertEquals(1, storage.keys().size());
+
+        storage.edit().put("a", new byte[]{4}).commit();
+        assertEquals(2, underlying.keys().size());
+        assertArrayEquals(new byte[]{4}, underlying.get("a"));
+        assertFalse(underlying.contains("b"));
+    }
+
+    @Test
+    public void testFlushAfterWindow() throws Exception {
+        CountingStorage underlying = new CountingStorage();
+        WriteBehindStorage storage = new WriteBehindStorage(underlying, 10, TimeUnit.MILLISECONDS);
+        storage.edit().put("a", new byte[]{1}).apply();
+        storage.edit().put("b", new byte[]{2}).apply();
+
+        long start = System.currentTimeMillis();
+        while (underlying.commits.get() == 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, underlying.commits.get());
+        assertEquals(2, underlying.keys().size());
+    }
+
+    @Test
+    public void testRequeueOnFailure() throws Exception {
+        CountingStorage underlying = new CountingStorage();
+        WriteBehindStorage storage = new WriteBehindStorage(underlying, 1, TimeUnit.HOURS);
+        underlying.fail.set(true);
+        storage.edit().put("a", new byte[]{1}).put("b", new byte[]{2}).apply();
+        assertFalse(storage.flush());
+        storage.edit().put("a", new byte[]{3}).apply();
+        assertArrayEquals(new byte[]{3}, storage.get("a"));
+        assertArrayEquals(new byte[]{2}, storage.get("b"));
+
+        underlying.fail.set(false);
+        assertTrue(storage.flush());
+        assertArrayEquals(new byte[]{3}, underlying.get("a"));
+        assertArrayEquals(new byte[]{2}, underlying.get("b"));
+    }
+
+    @Test
+    public void testRetriesWithBackoffUntilLimit() throws Exception {
+        CountingStorage underlying = new CountingStorage();
+        RecordingScheduler scheduler = new RecordingScheduler();
+        WriteBehindStorage storage = new WriteBehindStorage(underlying, 200, TimeUnit.MILLISECONDS, scheduler);
+        underlying.fail.set(true);
+        storage.edit().put("a", new byte[]{1}).apply();
+
+        long start = System.currentTimeMillis();
+        while (underlying.commits.get() < 1 + WriteBehindStorage.MAX_RETRIES && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals(1 + WriteBehindStorage.MAX_RETRIES, underlying.commits.get());
+        assertEquals(Arrays.asList(200L, 200L, 400L, 800L, 1600L, 3200L), scheduler.delaysMillis);
+        assertArrayEquals(new byte[]{1}, storage.get("a"));
+
+        //kept until the next write
+        underlying.fail.set(false);
+        storage.edit().put("b", new byte[]{2}).apply();
+        start = System.currentTimeMillis();
+        while (underlying.commits.get() < 2 + WriteBehindStorage.MAX_RETRIES && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(5);
+        }
+        assertArrayEquals(new byte[]{1}, underlying.get("a"));
+        assertArrayEquals(new byte[]{2}, underlying.get("b"));
+        scheduler.shutdown();
+    }
+
+    /**
+     * Runs every scheduled task immediately, but records the requested delay
+     */
+    private static final class RecordingScheduler extends ScheduledThreadPoolExecutor {
+        private final List<Long> delaysMillis = new CopyOnWriteArrayList<>();
+
+        private RecordingScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delaysMillis.add(unit.toMillis(delay));
+            return super.schedule(command, 0, unit);
+        }
+    }
+
+    private static final class CountingStorage extends ForwardingStorage {
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicBoolean fail = new AtomicBoolean();
+
+        @Override
+        boolean onCommit() {
+            commits.incrementAndGet();
+            return !fail.get();
+        }
+    }
+
+    private static class ForwardingStorage implements KeyValueStorage {
+        private final InMemoryStorage storage = new InMemoryStorage();
+
+        boolean onCommit() {
+            return true;
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return storage.get(key);
+        }
+
+        @Override
+        public List<byte[]> getSet(String key) {
+            return storage.getSet(key);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return storage.contains(key);
+        }
+
+        @Override
+        public Set<String> keys() {
+            return storage.keys();
+        }
+
+        @Override
+        public Editor edit() {
+            final Editor editor = storage.edit();
+            return new Editor() {
+                @Override
+                public Editor put(String key, byte[] value) {
+                    editor.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putSet(String key, Collection<byte[]> values) {
+                    editor.putSet(key, values);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    editor.remove(key);
+                    return this;
+                }
+
+                @Override
+                public Editor clear() {
+                    editor.clear();
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    return onCommit() && editor.commit();
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+            };
+        }
+    }
+}